@@ -0,0 +1,105 @@
+package com.example.acp.checkout;
+
+import com.example.acp.service.CheckoutBuilders;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话更新：CheckoutBuilders.applyUpdates（按依赖增量重算）对比 fullRebuild（旧做法：
+ * 从 line_items 反推最小 items，与请求合并后整份 buildInitialSession）。
+ * 三种请求形态：只换配送选项 / 换地址 / 改一个商品的数量（两组取值交替，保证每次都是真变化）。
+ * 运费表固定为一个对所有地址生效的区域，含 Standard / Express 两档，"option" 在两者间来回切换。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckoutUpdateBenchmark {
+
+    @Param({"option", "address", "items"})
+    public String change;
+
+    @Param({"3", "30"})
+    public int lines;
+
+    private static final String RATES = "{\"zones\":[{\"name\":\"all\",\"countries\":[\"*\"],\"rates\":["
+            + "{\"id\":\"bench_standard\",\"title\":\"Standard\",\"days_min\":4,\"days_max\":5,\"price_cents\":500},"
+            + "{\"id\":\"bench_express\",\"title\":\"Express\",\"days_min\":1,\"days_max\":2,\"price_cents\":1500}]}]}";
+
+    private CheckoutSession session;
+    private Map<String, Object>[] requests;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        FulfillmentRates.reload(RATES);
+        Random rnd = new Random(42);
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) items.add(item("sku-" + i, 1 + rnd.nextInt(3), 500 + rnd.nextInt(5000)));
+
+        Map<String, Object> create = new HashMap<>();
+        create.put("items", items);
+        create.put("fulfillment_address", address("CA", "94107"));
+        session = CheckoutBuilders.buildInitialSession("cs_bench", create);
+
+        requests = new Map[2];
+        for (int k = 0; k < 2; k++) {
+            switch (change) {
+                case "option":
+                    requests[k] = Map.of("fulfillment_option_id", k == 0 ? "bench_express" : "bench_standard");
+                    break;
+                case "address":
+                    requests[k] = Map.of("fulfillment_address", k == 0 ? address("NY", "10001") : address("CA", "94107"));
+                    break;
+                default:
+                    List<Map<String, Object>> changed = new ArrayList<>(items);
+                    Map<String, Object> first = items.get(0);
+                    changed.set(0, item((String) first.get("id"), (Integer) first.get("quantity") + 1 - k,
+                            (Integer) first.get("unit_price_cents")));
+                    requests[k] = Map.of("items", changed);
+            }
+        }
+    }
+
+    @Benchmark
+    public CheckoutSession applyUpdates() {
+        CheckoutBuilders.applyUpdates(session, requests[next ^= 1]);
+        return session;
+    }
+
+    @Benchmark
+    public CheckoutSession fullRebuild() {
+        Map<String, Object> req = requests[next ^= 1];
+        Map<String, Object> merged = new HashMap<>();
+        merged.put("currency", session.getCurrency());
+        merged.put("fulfillment_address", session.getFulfillmentAddress());
+        merged.put("fulfillment_option_id", session.getFulfillmentOptionId());
+        merged.putAll(req);
+        if (!req.containsKey("items")) {
+            List<Map<String, Object>> derived = new ArrayList<>();
+            for (LineItem li : session.getLineItems()) {
+                derived.add(item(li.getItemId(), li.getQuantity(), li.getUnitPriceCents()));
+            }
+            merged.put("items", derived);
+        }
+        return CheckoutBuilders.buildInitialSession(session.getId(), merged);
+    }
+
+    private static Map<String, Object> item(String id, int quantity, int unitPriceCents) {
+        Map<String, Object> it = new HashMap<>();
+        it.put("id", id);
+        it.put("quantity", quantity);
+        it.put("unit_price_cents", unitPriceCents);
+        return it;
+    }
+
+    private static Map<String, Object> address(String state, String postalCode) {
+        return Map.of("name", "Bench Buyer", "line_one", "1 Main St", "city", "Somewhere",
+                "state", state, "country", "US", "postal_code", postalCode);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.acp.checkout;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个行项的计税开销：地址 → 辖区（州表 + 邮编前缀树）→ 类目税率（辖区内缓存）→ 整数计税。
+ * 税率表为合成的美国 50 州 × 若干邮编前缀 + 类目例外；地址与类目从固定集合里轮换。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaxRatesBenchmark {
+
+    private static final int QUERIES = 1 << 10;
+    private static final List<String> CATEGORIES = List.of(
+            "Apparel & Accessories > Clothing > Outerwear & Coats > Sweaters",
+            "Apparel & Accessories > Eyewear",
+            "Home & Garden > Kitchen & Dining",
+            "Apparel & Accessories");
+
+    private TaxRates rates;
+    private Map<String, Object>[] addresses;
+    private String[] categories;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        Random rnd = new Random(42);
+        StringBuilder file = new StringBuilder("US,,,*,0\n");
+        for (int s = 0; s < 50; s++) {
+            String state = state(s);
+            file.append("US,").append(state).append(",,*,").append(4 + rnd.nextInt(40) / 8.0).append('\n');
+            file.append("US,").append(state).append(",,Apparel & Accessories > Clothing,0\n");
+            for (int p = 0; p < 20; p++) {
+                file.append("US,").append(state).append(',').append(String.format("%03d", s * 20 + p))
+                        .append(",*,").append(6 + rnd.nextInt(40) / 8.0).append('\n');
+            }
+        }
+        rates = TaxRates.compile(file.toString());
+
+        addresses = new Map[QUERIES];
+        categories = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int s = rnd.nextInt(50);
+            String postal = String.format("%05d", (s * 20 + rnd.nextInt(25)) * 100 + rnd.nextInt(100));
+            addresses[i] = Map.of("country", "US", "state", state(s), "postal_code", postal);
+            categories[i] = CATEGORIES.get(rnd.nextInt(CATEGORIES.size()));
+        }
+    }
+
+    @Benchmark
+    public int lineTax() {
+        int i = next;
+        next = (i + 1) & (QUERIES - 1);
+        TaxRates.Jurisdiction j = rates.resolve(addresses[i]);
+        return TaxRates.tax(1999 + i, j.ratePpm(categories[i]));
+    }
+
+    private static String state(int s) {
+        return "" + (char) ('A' + s / 26) + (char) ('A' + s % 26);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.acp.feed;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * feed 映射各环节的单线程吞吐（每次操作 = 一个商品 / 一个变体），目录规模即工作集大小：
+ * - mapProduct：完整映射一个商品（含 HTML 转文本、类目、图片、变体展开）
+ * - stripHtml / mapCategory / variantSignature：映射里的几个热点单独拆开
+ * 配合 -prof gc 看每次操作的分配量（gc.alloc.rate.norm）。
+ *
+ * 百万级目录常驻约 1.5 GB，所以 fork 出的 JVM 默认给 4 GB 堆。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FeedMappingBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int scale;
+
+    private Path dir;
+    private ProductFeedService service;
+    private CategoryMatcher matcher;
+    private WixProduct[] products;
+    private List<WixVariant>[] productVariants;
+    private WixVariant[] allVariants;
+    private int next;
+    private int nextVariant;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        SyntheticCatalog catalog = SyntheticCatalog.generate(scale, 42);
+        dir = Files.createTempDirectory("acp-bench-map");
+        service = new ProductFeedService("bench", null, dir, dir.resolve("feed-snapshot.ndjson.gz"));
+        matcher = service.getCategoryMatcher();
+
+        products = catalog.products.toArray(new WixProduct[0]);
+        productVariants = new List[products.length];
+        List<WixVariant> flat = new ArrayList<>();
+        for (int i = 0; i < products.length; i++) {
+            productVariants[i] = catalog.variants.get(products[i].getId());
+            if (productVariants[i] != null) flat.addAll(productVariants[i]);
+        }
+        allVariants = flat.toArray(new WixVariant[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        service.shutdown();
+        FeedSnapshotBenchmark.deleteRecursively(dir);
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == products.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public List<FeedItem> mapProduct() {
+        int i = nextIndex();
+        List<FeedItem> out = new ArrayList<>(4);
+        service.mapProduct(products[i], productVariants[i], matcher, out);
+        return out;
+    }
+
+    @Benchmark
+    public String stripHtml() {
+        return service.stripHtml(products[nextIndex()].getDescription());
+    }
+
+    @Benchmark
+    public String mapCategory() {
+        return service.mapCategory(products[nextIndex()], matcher);
+    }
+
+    /** 单个变体：choices 归一化 + 生成签名（映射时每个变体做一次） */
+    @Benchmark
+    public String variantSignature() {
+        int i = nextVariant;
+        nextVariant = i + 1 == allVariants.length ? 0 : i + 1;
+        Map<String, String> pairs = service.extractChoicePairsFromVariant(allVariants[i]);
+        return service.buildChoiceSignature(pairs);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.acp.feed;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 由映射好的行构建一版快照：逐行 JSON 序列化 + 行哈希 + gzip + ETag + 价格索引 + 过滤索引。
+ * 每个规模的 trial 结束时用 JOL 统计一版快照常驻的对象图大小（含行、索引、JSON/gzip 字节）并打印。
+ *
+ * 没有 1M 档：整份 feed 预序列化成单个 byte[]，百万商品（约 220 万行）的 JSON 会超过数组上限。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FeedSnapshotBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int scale;
+
+    private Path dir;
+    private List<FeedItem> rows;
+    private long[] rowUpdatedAt;
+    private long version;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        SyntheticCatalog catalog = SyntheticCatalog.generate(scale, 42);
+        dir = Files.createTempDirectory("acp-bench-snapshot");
+        ProductFeedService service = new ProductFeedService("bench", null, dir, dir.resolve("feed-snapshot.ndjson.gz"));
+        try {
+            CategoryMatcher matcher = service.getCategoryMatcher();
+            rows = new ArrayList<>(scale * 2);
+            List<Long> updated = new ArrayList<>(scale * 2);
+            for (WixProduct p : catalog.products) {
+                int before = rows.size();
+                service.mapProduct(p, catalog.variants.get(p.getId()), matcher, rows);
+                long t = OffsetDateTime.parse(p.getLastUpdated()).toInstant().toEpochMilli();
+                for (int i = before; i < rows.size(); i++) updated.add(t);
+            }
+            rowUpdatedAt = updated.stream().mapToLong(Long::longValue).toArray();
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FeedSnapshot snap = FeedSnapshot.of(++version, rows, rowUpdatedAt, "2025-01-01T00:00:00Z", null);
+        long retained = GraphLayout.parseInstance(snap).totalSize();
+        System.out.printf("%n[FeedSnapshotBenchmark] scale=%d rows=%d retained=%.1f MB (json=%.1f MB, gzip=%.1f MB, %d B/row)%n",
+                scale, rows.size(), retained / 1048576.0, snap.getJson().length / 1048576.0,
+                snap.getGzipJson().length / 1048576.0, retained / Math.max(1, rows.size()));
+        deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public FeedSnapshot buildSnapshot() {
+        return FeedSnapshot.of(++version, rows, rowUpdatedAt, "2025-01-01T00:00:00Z", null);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.acp.feed;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品描述 HTML → 纯文本：原四趟正则实现 vs HtmlText 单趟扫描。
+ * size 为输入 HTML 的大致字符数；输出上限与 feed 一致（5000）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HtmlTextBenchmark {
+
+    private static final int MAX_CHARS = 5000;
+
+    @Param({"1000", "20000", "200000"})
+    public int size;
+
+    private String html;
+
+    @Setup
+    public void setup() {
+        html = sampleHtml(size, new Random(42));
+    }
+
+    @Benchmark
+    public String legacyRegex() {
+        return legacyStripHtml(html);
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return HtmlText.toText(html, MAX_CHARS);
+    }
+
+    /** 替换前的 ProductFeedService.stripHtml */
+    static String legacyStripHtml(String html) {
+        if (html == null) return "";
+        String text = html.replaceAll("(?is)<script.*?>.*?</script>", " ")
+                .replaceAll("(?is)<style.*?>.*?</style>", " ")
+                .replaceAll("<[^>]*>", " ")
+                .replace("&nbsp;", " ")
+                .trim();
+        return text.length() > MAX_CHARS ? text.substring(0, MAX_CHARS) : text;
+    }
+
+    /** 典型的 Wix 富文本描述：段落、列表、行内样式、实体，偶尔夹带 script/style */
+    static String sampleHtml(int size, Random rnd) {
+        String[] words = {"soft", "cotton", "knit", "sweater", "round", "glasses", "frame", "classic",
+                "lightweight", "durable", "everyday", "comfort", "fit", "style", "premium"};
+        StringBuilder sb = new StringBuilder(size + 256);
+        sb.append("<style>.p{color:#333;font-size:14px}</style>");
+        while (sb.length() < size) {
+            int r = rnd.nextInt(10);
+            if (r == 0) {
+                sb.append("<ul><li>Size&nbsp;S</li><li>Size&nbsp;M</li><li>Size&nbsp;L</li></ul>");
+            } else if (r == 1) {
+                sb.append("<script type=\"text/javascript\">window.track&&track('view',{id:1});</script>");
+            } else {
+                sb.append("<p class=\"p\"><span style=\"font-weight:bold\">");
+                int n = 8 + rnd.nextInt(20);
+                for (int i = 0; i < n; i++) {
+                    if (i > 0) sb.append(' ');
+                    sb.append(words[rnd.nextInt(words.length)]);
+                }
+                sb.append(" &amp; more&hellip;</span></p>");
+            }
+        }
+        return sb.toString();
+    }
+}
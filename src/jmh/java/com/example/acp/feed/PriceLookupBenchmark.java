@@ -0,0 +1,66 @@
+package com.example.acp.feed;
+
+import com.example.acp.service.ProductService;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 结账时的查价：ProductService.findPriceById → FeedSites → 快照 id 索引 + 库存覆盖层。
+ * 快照由 refreshFeed 在合成目录上真实跑一遍得到（分页、变体预取、并行映射、发布都走生产路径）。
+ * 查询序列里约 10% 是不存在的 id。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PriceLookupBenchmark {
+
+    private static final int QUERIES = 1 << 14;
+
+    @Param({"1000", "10000", "100000"})
+    public int scale;
+
+    private Path dir;
+    private ProductFeedService feed;
+    private ProductService productService;
+    private String[] ids;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        SyntheticCatalog catalog = SyntheticCatalog.generate(scale, 42);
+        dir = Files.createTempDirectory("acp-bench-price");
+        feed = new ProductFeedService("bench", new SyntheticCatalog.Client(catalog), dir, dir.resolve("feed-snapshot.ndjson.gz"));
+        feed.refreshFeed();
+        productService = new ProductService(new FeedSites(feed, null, "", 1, 15, 60_000));
+
+        List<FeedItem> rows = feed.getSnapshot().getProducts();
+        if (rows.isEmpty()) throw new IllegalStateException("synthetic feed is empty");
+        Random rnd = new Random(7);
+        ids = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            ids[i] = rnd.nextInt(10) == 0 ? "missing-" + i : rows.get(rnd.nextInt(rows.size())).getId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        feed.shutdown();
+        FeedSnapshotBenchmark.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Optional<ProductService.Price> findPriceById() {
+        String id = ids[next];
+        next = (next + 1) & (QUERIES - 1);
+        return productService.findPriceById(id);
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.acp.feed;
+
+import java.util.*;
+
+/**
+ * 基准用的合成 Wix 目录（固定种子，可复现）。商品形态按真实店铺的大致比例轮换：
+ * - 1/3 开启变体管理（Size × Color，4 个真实变体；其中一半变体没有 SKU、部分带变体库存）
+ * - 1/6 只有规格选项、没有变体管理（走按 Size 兜底展开）
+ * - 其余为单品
+ * 描述 HTML 从一组不同长度的模板里取（共享实例），百万级目录也能放进 4 GB 堆。
+ */
+final class SyntheticCatalog {
+
+    private static final String[] NAMES = {"Round Glasses", "Wool Sweater", "Canvas Tote", "Knit Hat",
+            "眼镜 Classic", "Ceramic Mug", "Linen Shirt", "Leather Belt"};
+    private static final String[] STATUS = {"IN_STOCK", "IN_STOCK", "OUT_OF_STOCK", "PREORDER"};
+    private static final String[] SIZES = {"Small", "Large"};
+    private static final String[] COLORS = {"Red", "Blue"};
+    private static final int DESCRIPTION_TEMPLATES = 16;
+
+    final List<WixProduct> products;
+    final Map<String, List<WixVariant>> variants;
+
+    private SyntheticCatalog(List<WixProduct> products, Map<String, List<WixVariant>> variants) {
+        this.products = products;
+        this.variants = variants;
+    }
+
+    static SyntheticCatalog generate(int size, long seed) {
+        Random rnd = new Random(seed);
+        String[] descriptions = new String[DESCRIPTION_TEMPLATES];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = HtmlTextBenchmark.sampleHtml(200 << (i % 5), rnd);   // 约 200 ~ 3200 字符
+        }
+        String[] lastUpdated = new String[28];
+        for (int d = 0; d < lastUpdated.length; d++) {
+            lastUpdated[d] = String.format("2025-01-%02dT10:00:00.000Z", d + 1);
+        }
+        List<WixProduct.ProductOption> options = List.of(option("Size", SIZES), option("Color", COLORS));
+
+        List<WixProduct> products = new ArrayList<>(size);
+        Map<String, List<WixVariant>> variants = new HashMap<>(Math.max(16, size / 3 * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            int kind = i % 6;
+            WixProduct p = product(i, kind, rnd, descriptions, lastUpdated);
+            if (kind <= 2) p.setProductOptions(options);
+            if (kind <= 1) {
+                p.setManageVariants(true);
+                variants.put(p.getId(), variants(p, i, kind == 0));
+            }
+            products.add(p);
+        }
+        return new SyntheticCatalog(products, variants);
+    }
+
+    private static WixProduct product(int i, int kind, Random rnd, String[] descriptions, String[] lastUpdated) {
+        String id = String.format("p%07d", i);
+        WixProduct p = new WixProduct();
+        p.setId(id);
+        p.setName(NAMES[i % NAMES.length] + " " + i);
+        p.setSlug("item-" + i);
+        p.setVisible(true);
+        p.setProductType("physical");
+        p.setDescription(descriptions[rnd.nextInt(descriptions.length)]);
+        p.setSku(i % 3 == 0 ? "" : "SKU" + i);
+        p.setWeight(kind == 3 ? null : 0.25 * (1 + i % 8));
+        p.setLastUpdated(lastUpdated[i % lastUpdated.length]);
+
+        WixProduct.StockInfo stock = new WixProduct.StockInfo();
+        stock.setTrackInventory(i % 4 == 0);
+        stock.setInStock(i % 5 != 0);
+        stock.setInventoryStatus(STATUS[i % STATUS.length]);
+        p.setStock(stock);
+
+        WixProduct.PriceData price = new WixProduct.PriceData();
+        price.setCurrency("USD");
+        price.setPrice(10.0 + i % 500);
+        price.setDiscountedPrice(i % 7 == 0 ? 8.0 + i % 500 : 10.0 + i % 500);
+        p.setPriceData(price);
+
+        WixProduct.MediaInfo media = new WixProduct.MediaInfo();
+        WixProduct.MediaInfo.MainMedia main = new WixProduct.MediaInfo.MainMedia();
+        main.setImage(image("http://static.example.com/media/" + id + "/main.jpg"));
+        media.setMainMedia(main);
+        List<WixProduct.MediaInfo.MediaItem> items = new ArrayList<>(2);
+        WixProduct.MediaInfo.MediaItem first = new WixProduct.MediaInfo.MediaItem();
+        first.setImage(main.getImage());
+        items.add(first);
+        WixProduct.MediaInfo.MediaItem second = new WixProduct.MediaInfo.MediaItem();
+        second.setImage(image("http://static.example.com/media/" + id + "/2.jpg"));
+        items.add(second);
+        media.setItems(items);
+        p.setMedia(media);
+
+        WixProduct.PageUrl url = new WixProduct.PageUrl();
+        url.setBase("http://shop.example.com");
+        url.setPath("/product-page/item-" + i);
+        p.setProductPageUrl(url);
+        return p;
+    }
+
+    private static List<WixVariant> variants(WixProduct p, int i, boolean withSku) {
+        List<WixVariant> out = new ArrayList<>(SIZES.length * COLORS.length);
+        for (String size : SIZES) {
+            for (String color : COLORS) {
+                WixVariant v = new WixVariant();
+                v.setId("v-" + p.getId() + "-" + size.charAt(0) + color.charAt(0));
+                v.setProductId(p.getId());
+                if (withSku) v.setSku("VSKU-" + i + "-" + size.charAt(0) + color.charAt(0));
+                v.addChoice("Size", size);
+                v.addChoice("Color", color);
+                WixVariant.PriceData price = new WixVariant.PriceData();
+                price.setCurrency("USD");
+                price.setPrice(10.0 + i % 500 + ("Large".equals(size) ? 2 : 0));
+                price.setDiscountedPrice(9.0 + i % 500);
+                v.setInnerPriceData(price);
+                if ("Blue".equals(color)) {
+                    WixVariant.Inventory inv = new WixVariant.Inventory();
+                    inv.setInStock("Small".equals(size));
+                    inv.setQuantity(5);
+                    v.setInventory(inv);
+                }
+                out.add(v);
+            }
+        }
+        return out;
+    }
+
+    private static WixProduct.ProductOption option(String name, String[] values) {
+        WixProduct.ProductOption o = new WixProduct.ProductOption();
+        o.setName(name);
+        o.setOptionType("drop_down");
+        List<WixProduct.ProductOption.OptionChoice> choices = new ArrayList<>();
+        for (String v : values) {
+            WixProduct.ProductOption.OptionChoice c = new WixProduct.ProductOption.OptionChoice();
+            c.setValue(v);
+            choices.add(c);
+        }
+        o.setChoices(choices);
+        return o;
+    }
+
+    private static WixProduct.MediaInfo.Image image(String url) {
+        WixProduct.MediaInfo.Image img = new WixProduct.MediaInfo.Image();
+        img.setUrl(url);
+        return img;
+    }
+
+    /** 不走网络的 WixClient 替身：按 100 条一页返回合成商品，变体按 productId 查表 */
+    static final class Client extends WixClient {
+        private final SyntheticCatalog catalog;
+
+        Client(SyntheticCatalog catalog) {
+            super((org.springframework.web.client.RestTemplate) null);
+            this.catalog = catalog;
+        }
+
+        @Override
+        public Iterable<List<WixProduct>> productPages() {
+            List<List<WixProduct>> pages = new ArrayList<>();
+            for (int from = 0; from < catalog.products.size(); from += 100) {
+                pages.add(catalog.products.subList(from, Math.min(catalog.products.size(), from + 100)));
+            }
+            return pages;
+        }
+
+        @Override
+        public int getVariantBatchSize() {
+            return 100;
+        }
+
+        @Override
+        public boolean supportsBulkVariants() {
+            return true;
+        }
+
+        @Override
+        public Map<String, List<WixVariant>> queryVariantsBulk(Collection<String> productIds) {
+            Map<String, List<WixVariant>> out = new LinkedHashMap<>();
+            for (String id : productIds) out.put(id, catalog.variants.getOrDefault(id, List.of()));
+            return out;
+        }
+
+        @Override
+        public List<WixVariant> queryVariants(String productId) {
+            return catalog.variants.getOrDefault(productId, List.of());
+        }
+    }
+}
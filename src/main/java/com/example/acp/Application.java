@@ -1,8 +1,11 @@
 package com.example.acp;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 @SpringBootApplication
 @EnableScheduling
@@ -10,4 +13,16 @@ public class Application {
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
+
+    /**
+     * @Scheduled 任务的线程池（Spring 默认只有一个调度线程）：全量 feed 刷新一次可能跑几分钟，
+     * 库存轮询与费率文件热加载不能排在它后面。池大小 SCHEDULER_POOL_SIZE，默认 4。
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${SCHEDULER_POOL_SIZE:4}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(Math.max(2, poolSize));
+        scheduler.setThreadNamePrefix("scheduled-");
+        return scheduler;
+    }
 }
@@ -1,17 +1,24 @@
 package com.example.acp;
 
+import com.example.acp.checkout.CheckoutSession;
+import com.example.acp.checkout.FulfillmentRates;
+import com.example.acp.checkout.TaxRates;
+import com.example.acp.checkout.LineItem;
 import com.example.acp.service.CheckoutBuilders;
 import com.example.acp.service.PaymentService;
+import com.example.acp.store.IdempotencyStore;
 import com.example.acp.store.SessionStore;
 
 import com.example.acp.service.OrderEventPublisher;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.*;
 
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Checkout API —— 对应 OpenAI Commerce Spec
@@ -23,101 +30,91 @@ public class CheckoutController {
     @Autowired private SessionStore store;
     @Autowired private PaymentService paymentService;
     @Autowired private OrderEventPublisher orderEventPublisher;
-    @Autowired private com.example.acp.store.IdempotencyStore idempotencyStore;
+    @Autowired private IdempotencyStore idempotencyStore;
     @Autowired private com.example.acp.service.ProductService productService;
 
     /* ---------- 1. Create session ---------- */
     @PostMapping("/checkout_sessions")
-    public ResponseEntity<Map<String, Object>> create(@RequestBody Map<String, Object> req) {
+    public ResponseEntity<CheckoutSession> create(@RequestBody Map<String, Object> req) {
         // 先补齐 items 的真实单价与币种（从 feed 查）
         enrichItemsWithPrice(req);
         System.out.println("DEBUG items after enrich: " + req.get("items"));
 
 
         String sessionId = "cs_" + UUID.randomUUID();
-        Map<String, Object> session = CheckoutBuilders.buildInitialSession(sessionId, req);
+        CheckoutSession session = CheckoutBuilders.buildInitialSession(sessionId, req);
         store.put(sessionId, session);
         return ResponseEntity.status(HttpStatus.CREATED).body(session);
     }
 
-    /* ---------- 2. Update session（幂等） ---------- */
+    /* ---------- 2. Update session（幂等；返回 ResponseEntity，并发重复请求时返回异步等待的 CompletableFuture） ---------- */
     @PostMapping("/checkout_sessions/{id}")
-    public ResponseEntity<Map<String, Object>> update(
+    public Object update(
             @PathVariable("id") String id,
             @RequestBody Map<String, Object> req,
             @RequestHeader(value = "Idempotency-Key", required = false) String idemKey) {
 
-        Map<String, Object> session = store.get(id);
+        CheckoutSession session = store.get(id);
         if (session == null) return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 
         String key = (idemKey == null || idemKey.isBlank()) ? null : ("update:" + id + ":" + idemKey);
         if (key != null) {
-            Map<String, Object> cached = idempotencyStore.getIfReady(key);
+            Object cached = idempotencyStore.getIfReady(key);
             if (cached != null) return ResponseEntity.ok(cached);
-            boolean begun = idempotencyStore.tryBegin(key);
-            if (!begun) {
-                for (int i = 0; i < 10; i++) {
-                    Map<String, Object> c = idempotencyStore.getIfReady(key);
-                    if (c != null) return ResponseEntity.ok(c);
-                    try { Thread.sleep(100); } catch (InterruptedException ignored) {}
-                }
-                return ResponseEntity.status(HttpStatus.CONFLICT)
-                        .body(Map.of("error", "idempotency_in_progress",
-                                     "message", "Please retry later with the same Idempotency-Key"));
-            }
+            IdempotencyStore.Attempt attempt = idempotencyStore.tryBegin(key);
+            if (!attempt.isOwner()) return awaitDuplicate(attempt);
         }
 
-        // ★ 先补齐单价/币种，再重建会话（保证“只传地址”也能保留购物车与真价格）
-        enrichItemsWithPrice(req);
-        CheckoutBuilders.applyUpdates(session, req);
-        store.put(id, session);
-
-        // 权威更新：通知 OpenAI
-        orderEventPublisher.publishOrderUpdated(session);
-
-        if (key != null) idempotencyStore.commit(key, session);
-        return ResponseEntity.ok(session);
+        try {
+            // ★ 先补齐单价/币种，再重建会话（保证“只传地址”也能保留购物车与真价格）
+            enrichItemsWithPrice(req);
+            CheckoutBuilders.applyUpdates(session, req);
+            store.put(id, session);
+
+            // 权威更新：通知 OpenAI
+            orderEventPublisher.publishOrderUpdated(session);
+
+            if (key != null) idempotencyStore.commit(key, session);
+            return ResponseEntity.ok(session);
+        } finally {
+            // 中途抛异常没能 commit 时撤掉占位，重试不必等满 TTL（已 commit 时为空操作）
+            if (key != null) idempotencyStore.abort(key);
+        }
     }
 
-    /* ---------- 3. Complete（幂等 + 支付分流） ---------- */
+    /* ---------- 3. Complete（幂等 + 支付分流；返回值同 update） ---------- */
     @PostMapping("/checkout_sessions/{id}/complete")
-    public ResponseEntity<Map<String, Object>> complete(
+    public Object complete(
             @PathVariable("id") String id,
             @RequestBody Map<String, Object> req,
             @RequestHeader(value = "Idempotency-Key", required = false) String idemKey) {
 
-        Map<String, Object> session = store.get(id);
+        CheckoutSession session = store.get(id);
         if (session == null) return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 
-        // 幂等：同键直接返回；并发短轮询；失败则409
+        // 幂等：同键直接返回；并发重复等首个请求 commit；超时则409
         String key = (idemKey == null || idemKey.isBlank()) ? null : ("complete:" + id + ":" + idemKey);
         if (key != null) {
-            Map<String, Object> cached = idempotencyStore.getIfReady(key);
+            Object cached = idempotencyStore.getIfReady(key);
             if (cached != null) return ResponseEntity.ok(cached);
-            boolean begun = idempotencyStore.tryBegin(key);
-            if (!begun) {
-                for (int i = 0; i < 10; i++) {
-                    Map<String, Object> c = idempotencyStore.getIfReady(key);
-                    if (c != null) return ResponseEntity.ok(c);
-                    try { Thread.sleep(100); } catch (InterruptedException ignored) {}
-                }
-                return ResponseEntity.status(HttpStatus.CONFLICT)
-                        .body(Map.of("error", "idempotency_in_progress",
-                                     "message", "Please retry later with the same Idempotency-Key"));
-            }
+            IdempotencyStore.Attempt attempt = idempotencyStore.tryBegin(key);
+            if (!attempt.isOwner()) return awaitDuplicate(attempt);
         }
 
-        // 计算应付金额（从 totals 里取 total；找不到则按 0）
-        long payable = 0;
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> totals = (List<Map<String, Object>>) session.getOrDefault("totals", List.of());
-        for (Map<String, Object> t : totals) {
-            if ("total".equals(String.valueOf(t.get("type")))) {
-                payable = ((Number) t.getOrDefault("amount", 0)).longValue();
-                break;
-            }
+        try {
+            return completeOwned(id, session, req, idemKey, key);
+        } finally {
+            // 同 update：没能 commit 就撤掉占位
+            if (key != null) idempotencyStore.abort(key);
         }
-        String currency = String.valueOf(session.getOrDefault("currency", "usd")).toLowerCase();
+    }
+
+    /** complete 的实际处理（本请求已占到幂等键，或没带键） */
+    private Object completeOwned(String id, CheckoutSession session, Map<String, Object> req,
+                                 String idemKey, String key) {
+        // 计算应付金额（从 totals 里取 total；找不到则按 0）
+        long payable = session.getTotalAmount();
+        String currency = String.valueOf(session.getCurrency() != null ? session.getCurrency() : "usd").toLowerCase();
 
 
         
@@ -135,7 +132,7 @@ public class CheckoutController {
             token = String.valueOf(req.getOrDefault("payment_method_token", ""));
         }
 
-        Map<String, Object> responseBody;
+        Object responseBody;
         try {
             // 从请求头拿幂等键（方法签名已有 idemKey）
             String connectAccountId = System.getenv("STRIPE_CONNECT_ACCOUNT"); // 或者从你自定义的头里读取
@@ -149,7 +146,7 @@ public class CheckoutController {
     connectAccountId,   // 多商户场景可切换到被连商户
     metadata);
 
-            session.putAll(payResult); // 写入 status / payment_intent_id
+            session.applyPaymentResult(payResult); // 写入 status / payment_intent_id
 
             if ("succeeded".equals(payResult.get("status"))) {
                 // ---------- buyer 兜底：从 fulfillment_address.name 拆 first_name，且不覆盖已存在值 ----------
@@ -157,8 +154,8 @@ public class CheckoutController {
 Map<String, Object> buyer = null;
 
 // 1) 先看 session 是否已有 buyer（例如此前已保存）
-if (session.get("buyer") instanceof Map) {
-    buyer = (Map<String, Object>) session.get("buyer");
+if (session.getBuyer() != null) {
+    buyer = session.getBuyer();
 }
 
 // 2) 没有的话，看看这次 complete 的请求体里是否带了 buyer
@@ -176,8 +173,8 @@ Object firstNameObj = buyer.get("first_name");
 if (firstNameObj == null || String.valueOf(firstNameObj).isBlank()) {
 
     Map<String, Object> fa = null;
-    if (session.get("fulfillment_address") instanceof Map) {
-        fa = (Map<String, Object>) session.get("fulfillment_address");
+    if (session.getFulfillmentAddress() != null) {
+        fa = session.getFulfillmentAddress();
     } else if (req.get("fulfillment_address") instanceof Map) {
         fa = (Map<String, Object>) req.get("fulfillment_address");
     }
@@ -209,22 +206,25 @@ if (!buyer.containsKey("email")) {
 
 // 6) 如果 buyer 里至少有一个关键字段（first_name 或 email），就写回 session
 if (!buyer.isEmpty()) {
-    session.put("buyer", buyer);
+    session.setBuyer(buyer);
 }
 
                 
             CheckoutBuilders.markCompleted(session, req);     // 生成 order + 状态
-                session.put("status", "completed");
+                session.setStatus("completed");
                 store.put(id, session);
 
+                // 扣减实时库存（feed 与查价随即看到）
+                decrementStock(session);
+
                 // 成功：发送 order.created
                 orderEventPublisher.publishOrderCreated(session);
                 responseBody = session;
-                session.put("updated_time", java.time.Instant.now().toString());
+                session.setUpdatedTime(java.time.Instant.now().toString());
             } else if ("processing".equals(payResult.get("status"))) {
                 // ✅ 处理中：不把订单置 completed，不写 payment_error
                 // 仅记录一个轻量状态，等待 webhook 的 payment_intent.succeeded / payment_failed
-                session.put("payment_status", "processing");
+                session.setPaymentStatus("processing");
                 store.put(id, session);
                 responseBody = session;
             } else {
@@ -232,16 +232,7 @@ if (!buyer.isEmpty()) {
                 String failure = String.valueOf(
                     payResult.getOrDefault("failure_message", "Payment failed")
                     );
-                    @SuppressWarnings("unchecked")
-                    List<Map<String, Object>> msgs = (List<Map<String, Object>>) session.get("messages");
-                    if (msgs == null) {
-                        msgs = new ArrayList<>();
-                        session.put("messages", msgs);
-                    }
-                    Map<String, Object> m = new HashMap<>();
-                    m.put("type", "payment_error");
-                    m.put("text", failure);
-                    msgs.add(m);
+                    session.addMessage("payment_error", failure);
                     store.put(id, session);
                     responseBody = session;
                 }
@@ -259,11 +250,11 @@ if (!buyer.isEmpty()) {
 
     /* ---------- 4. Cancel（发送 order.updated） ---------- */
     @PostMapping("/checkout_sessions/{id}/cancel")
-    public ResponseEntity<Map<String, Object>> cancel(@PathVariable("id") String id) {
-        Map<String, Object> session = store.get(id);
+    public ResponseEntity<CheckoutSession> cancel(@PathVariable("id") String id) {
+        CheckoutSession session = store.get(id);
         if (session == null) return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 
-        session.put("status", "canceled");
+        session.setStatus("canceled");
         store.put(id, session);
         orderEventPublisher.publishOrderUpdated(session);
         return ResponseEntity.ok(session);
@@ -271,13 +262,73 @@ if (!buyer.isEmpty()) {
 
     /* ---------- 5. Get session ---------- */
     @GetMapping("/checkout_sessions/{id}")
-    public ResponseEntity<Map<String, Object>> get(@PathVariable("id") String id) {
-        Map<String, Object> session = store.get(id);
+    public ResponseEntity<CheckoutSession> get(@PathVariable("id") String id) {
+        CheckoutSession session = store.get(id);
         if (session == null) return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         return ResponseEntity.ok(session);
     }
 
-    /* ---------- 工具：把每个 item 补齐 unit_price_cents 与 currency ---------- */
+    /* ---------- 6. 运费表热更新（格式见 FulfillmentRates） ---------- */
+    @PutMapping("/admin/fulfillment_rates")
+    public ResponseEntity<Object> reloadFulfillmentRates(@RequestBody String body) {
+        try {
+            FulfillmentRates rates = FulfillmentRates.reload(body);
+            return ResponseEntity.ok(Map.of("zone_count", rates.zoneCount()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", "invalid_rates", "message", e.getMessage()));
+        }
+    }
+
+    @GetMapping(value = "/admin/fulfillment_rates", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> getFulfillmentRates() {
+        String source = FulfillmentRates.current().getSource();
+        return ResponseEntity.ok(source == null ? "null" : source);
+    }
+
+    /* ---------- 7. 税率表热更新（格式见 TaxRates，text/plain 逐行） ---------- */
+    @PutMapping(value = "/admin/tax_rates", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Object> reloadTaxRates(@RequestBody String body) {
+        try {
+            TaxRates rates = TaxRates.reload(body);
+            return ResponseEntity.ok(Map.of("rule_count", rates.ruleCount()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", "invalid_rates", "message", e.getMessage()));
+        }
+    }
+
+    @GetMapping(value = "/admin/tax_rates", produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> getTaxRates() {
+        return ResponseEntity.ok(TaxRates.current().getSource());
+    }
+
+    /** 配了 SHIPPING_RATES_FILE / TAX_RATES_FILE 时定期检查修改时间，变了就热加载 */
+    @Scheduled(initialDelayString = "${SHIPPING_RATES_RELOAD_MS:30000}", fixedDelayString = "${SHIPPING_RATES_RELOAD_MS:30000}")
+    public void reloadRateFiles() {
+        FulfillmentRates.reloadFileIfChanged();
+        TaxRates.reloadFileIfChanged();
+    }
+
+    /* ---------- 工具：并发重复请求等首个请求的结果（异步，不占 Tomcat 线程；超时 409） ---------- */
+    private CompletableFuture<ResponseEntity<Object>> awaitDuplicate(IdempotencyStore.Attempt attempt) {
+        return idempotencyStore.await(attempt).thenApply(body -> body != null
+                ? ResponseEntity.ok(body)
+                : ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(Map.of("error", "idempotency_in_progress",
+                                     "message", "Please retry later with the same Idempotency-Key")));
+    }
+
+    /* ---------- 工具：按 line_items 扣减库存 ---------- */
+    private void decrementStock(CheckoutSession session) {
+        for (LineItem li : session.getLineItems()) {
+            if (li.getItemId() != null) {
+                productService.decrementStock(li.getItemId(), li.getQuantity());
+            }
+        }
+    }
+
+    /* ---------- 工具：把每个 item 补齐 unit_price_cents、weight_grams、product_category 与 currency ---------- */
     @SuppressWarnings("unchecked")
     private void enrichItemsWithPrice(Map<String, Object> req) {
         Object itemsObj = req.get("items");
@@ -289,14 +340,20 @@ if (!buyer.isEmpty()) {
             String itemId = String.valueOf(it.get("id"));
             if (itemId == null || itemId.isBlank()) continue;
 
-            // 仅当没有传单价时，才从 feed 查价格并回填
-            if (!it.containsKey("unit_price_cents")) {
-                productService.findPriceById(itemId).ifPresent(p -> {
+            // 仅当没有传单价时，才从 feed 回填单价；重量（运费档位用）、类目（计税用）只认 feed，
+            // 请求里带的一律丢弃，避免客户端改类目少交税、改重量落进便宜的运费档
+            boolean needPrice = !it.containsKey("unit_price_cents");
+            it.remove("weight_grams");
+            it.remove("product_category");
+            productService.findPriceById(itemId).ifPresent(p -> {
+                if (needPrice) {
                     it.put("unit_price_cents", p.unitCents);
                     // 若请求还没带 currency，就用商品的币种；以第一个商品为准
                     req.putIfAbsent("currency", p.currency);
-                });
-            }
+                }
+                it.put("weight_grams", p.weightGrams);
+                if (p.productCategory != null) it.put("product_category", p.productCategory);
+            });
         }
     }
 
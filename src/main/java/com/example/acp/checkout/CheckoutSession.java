@@ -0,0 +1,296 @@
+package com.example.acp.checkout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 结账会话（原先的 HashMap&lt;String,Object&gt;）：
+ * - 行项 / 配送选项 / 合计 / 消息是强类型列表，金额为 int（分），不再层层强转 Number
+ * - payment_provider / links 全店共享一份，不随会话复制
+ * - 可选字段为 null 表示原 Map 里没有这个键，序列化时省略；输出的键和值与原 Map 一致，见 {@link Serializer}
+ *
+ * 非线程安全：与原 Map 一样由单个请求线程修改（同一会话的并发请求靠幂等键串行化）。
+ */
+@JsonSerialize(using = CheckoutSession.Serializer.class)
+public final class CheckoutSession {
+
+    private final String id;
+    private String createdTime;
+    private String updatedTime;
+    private String completedTime;
+    private String status;
+    private String currency;
+
+    private Map<String, Object> fulfillmentAddress;       // 请求原样带入（null = 未提供地址）
+    private List<LineItem> lineItems = new ArrayList<>();
+    private List<FulfillmentOption> fulfillmentOptions = new ArrayList<>();
+    private String fulfillmentOptionId;
+    private List<Total> totals = new ArrayList<>();
+
+    private PaymentProvider paymentProvider;
+    private List<Message> messages = new ArrayList<>();
+    private List<Link> links = List.of();
+
+    private Map<String, Object> buyer;
+    private Order order;
+
+    // ---- 支付 / 售后状态（来自 PaymentService 与 Stripe webhook） ----
+    private String paymentIntentId;
+    private String paymentIntentStatus;
+    private String paymentStatus;
+    private String failureMessage;
+    private String refundStatus;
+    private Long refundAmount;
+    private String chargeId;
+    private String disputeStatus;
+    private String disputeId;
+
+    public CheckoutSession(String id) {
+        this.id = id;
+    }
+
+    /** 合并 PaymentService.charge 的结果（status / payment_intent_id / payment_intent_status / failure_message） */
+    public void applyPaymentResult(Map<String, Object> result) {
+        if (result.containsKey("status")) status = Objects.toString(result.get("status"), null);
+        if (result.containsKey("payment_intent_id")) paymentIntentId = Objects.toString(result.get("payment_intent_id"), null);
+        if (result.containsKey("payment_intent_status")) paymentIntentStatus = Objects.toString(result.get("payment_intent_status"), null);
+        if (result.containsKey("failure_message")) failureMessage = Objects.toString(result.get("failure_message"), null);
+    }
+
+    /** totals 中 type=total 的金额；没有则 0 */
+    public int getTotalAmount() {
+        for (Total t : totals) {
+            if (t.getType() == Total.Type.TOTAL) return t.getAmount();
+        }
+        return 0;
+    }
+
+    /** 当前选中的配送选项；未选或找不到时返回 null */
+    public FulfillmentOption getSelectedFulfillmentOption() {
+        if (fulfillmentOptionId == null) return null;
+        for (FulfillmentOption o : fulfillmentOptions) {
+            if (fulfillmentOptionId.equals(o.getId())) return o;
+        }
+        return null;
+    }
+
+    public void addMessage(String type, String text) {
+        messages.add(new Message(type, text));
+    }
+
+    /** 去掉某一类 messages（条件消失后由重算方清理） */
+    public void removeMessages(String type) {
+        messages.removeIf(m -> type.equals(m.type));
+    }
+
+    // ============ 读写 ============
+
+    public String getId() { return id; }
+    public String getCreatedTime() { return createdTime; }
+    public void setCreatedTime(String createdTime) { this.createdTime = createdTime; }
+    public String getUpdatedTime() { return updatedTime; }
+    public void setUpdatedTime(String updatedTime) { this.updatedTime = updatedTime; }
+    public String getCompletedTime() { return completedTime; }
+    public void setCompletedTime(String completedTime) { this.completedTime = completedTime; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getCurrency() { return currency; }
+    public void setCurrency(String currency) { this.currency = currency; }
+
+    public Map<String, Object> getFulfillmentAddress() { return fulfillmentAddress; }
+    public void setFulfillmentAddress(Map<String, Object> fulfillmentAddress) { this.fulfillmentAddress = fulfillmentAddress; }
+    public List<LineItem> getLineItems() { return lineItems; }
+    public void setLineItems(List<LineItem> lineItems) { this.lineItems = lineItems; }
+    public List<FulfillmentOption> getFulfillmentOptions() { return fulfillmentOptions; }
+    public void setFulfillmentOptions(List<FulfillmentOption> fulfillmentOptions) { this.fulfillmentOptions = fulfillmentOptions; }
+    public String getFulfillmentOptionId() { return fulfillmentOptionId; }
+    public void setFulfillmentOptionId(String fulfillmentOptionId) { this.fulfillmentOptionId = fulfillmentOptionId; }
+    public List<Total> getTotals() { return totals; }
+    public void setTotals(List<Total> totals) { this.totals = totals; }
+
+    public PaymentProvider getPaymentProvider() { return paymentProvider; }
+    public void setPaymentProvider(PaymentProvider paymentProvider) { this.paymentProvider = paymentProvider; }
+    public List<Message> getMessages() { return messages; }
+    public List<Link> getLinks() { return links; }
+    public void setLinks(List<Link> links) { this.links = links; }
+
+    public Map<String, Object> getBuyer() { return buyer; }
+    public void setBuyer(Map<String, Object> buyer) { this.buyer = buyer; }
+    public Order getOrder() { return order; }
+    public void setOrder(Order order) { this.order = order; }
+
+    public String getPaymentIntentId() { return paymentIntentId; }
+    public String getPaymentStatus() { return paymentStatus; }
+    public void setPaymentStatus(String paymentStatus) { this.paymentStatus = paymentStatus; }
+    public String getFailureMessage() { return failureMessage; }
+    public void setFailureMessage(String failureMessage) { this.failureMessage = failureMessage; }
+    public void setRefund(String refundStatus, long refundAmount) {
+        this.refundStatus = refundStatus;
+        this.refundAmount = refundAmount;
+    }
+    public void setChargeId(String chargeId) { this.chargeId = chargeId; }
+    public void setDispute(String disputeStatus, String disputeId) {
+        this.disputeStatus = disputeStatus;
+        if (disputeId != null) this.disputeId = disputeId;
+    }
+
+    // ============ 小值对象 ============
+
+    /** payment_provider：{ provider, stripe_account_id, supported_payment_methods } */
+    @JsonSerialize(using = PaymentProvider.Serializer.class)
+    public static final class PaymentProvider {
+        private final String provider;
+        private final String stripeAccountId;
+        private final List<String> supportedPaymentMethods;
+
+        public PaymentProvider(String provider, String stripeAccountId, List<String> supportedPaymentMethods) {
+            this.provider = provider;
+            this.stripeAccountId = stripeAccountId;
+            this.supportedPaymentMethods = List.copyOf(supportedPaymentMethods);
+        }
+
+        static final class Serializer extends StdSerializer<PaymentProvider> {
+            Serializer() { super(PaymentProvider.class); }
+
+            @Override
+            public void serialize(PaymentProvider p, JsonGenerator g, SerializerProvider provider) throws IOException {
+                g.writeStartObject();
+                g.writeStringField("provider", p.provider);
+                g.writeStringField("stripe_account_id", p.stripeAccountId);
+                g.writeArrayFieldStart("supported_payment_methods");
+                for (String m : p.supportedPaymentMethods) g.writeString(m);
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+        }
+    }
+
+    /** links 元素：{ type, url } */
+    @JsonSerialize(using = Link.Serializer.class)
+    public static final class Link {
+        private final String type;
+        private final String url;
+
+        public Link(String type, String url) {
+            this.type = type;
+            this.url = url;
+        }
+
+        static final class Serializer extends StdSerializer<Link> {
+            Serializer() { super(Link.class); }
+
+            @Override
+            public void serialize(Link l, JsonGenerator g, SerializerProvider provider) throws IOException {
+                g.writeStartObject();
+                g.writeStringField("type", l.type);
+                g.writeStringField("url", l.url);
+                g.writeEndObject();
+            }
+        }
+    }
+
+    /** messages 元素：{ type, text } */
+    @JsonSerialize(using = Message.Serializer.class)
+    public static final class Message {
+        private final String type;
+        private final String text;
+
+        public Message(String type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        static final class Serializer extends StdSerializer<Message> {
+            Serializer() { super(Message.class); }
+
+            @Override
+            public void serialize(Message m, JsonGenerator g, SerializerProvider provider) throws IOException {
+                g.writeStartObject();
+                g.writeStringField("type", m.type);
+                g.writeStringField("text", m.text);
+                g.writeEndObject();
+            }
+        }
+    }
+
+    /** order：{ id, checkout_session_id, permalink_url, created_time } */
+    @JsonSerialize(using = Order.Serializer.class)
+    public static final class Order {
+        private final String id;
+        private final String checkoutSessionId;
+        private final String permalinkUrl;
+        private final String createdTime;
+
+        public Order(String id, String checkoutSessionId, String permalinkUrl, String createdTime) {
+            this.id = id;
+            this.checkoutSessionId = checkoutSessionId;
+            this.permalinkUrl = permalinkUrl;
+            this.createdTime = createdTime;
+        }
+
+        public String getId() { return id; }
+
+        static final class Serializer extends StdSerializer<Order> {
+            Serializer() { super(Order.class); }
+
+            @Override
+            public void serialize(Order o, JsonGenerator g, SerializerProvider provider) throws IOException {
+                g.writeStartObject();
+                g.writeStringField("id", o.id);
+                g.writeStringField("checkout_session_id", o.checkoutSessionId);
+                g.writeStringField("permalink_url", o.permalinkUrl);
+                g.writeStringField("created_time", o.createdTime);
+                g.writeEndObject();
+            }
+        }
+    }
+
+    // ============ 序列化 ============
+
+    static final class Serializer extends StdSerializer<CheckoutSession> {
+
+        Serializer() {
+            super(CheckoutSession.class);
+        }
+
+        @Override
+        public void serialize(CheckoutSession s, JsonGenerator g, SerializerProvider provider) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("id", s.id);
+            g.writeStringField("status", s.status);
+            g.writeStringField("currency", s.currency);
+            if (s.buyer != null) provider.defaultSerializeField("buyer", s.buyer, g);
+            if (s.paymentProvider != null) provider.defaultSerializeField("payment_provider", s.paymentProvider, g);
+            provider.defaultSerializeField("line_items", s.lineItems, g);
+            if (s.fulfillmentAddress != null) provider.defaultSerializeField("fulfillment_address", s.fulfillmentAddress, g);
+            provider.defaultSerializeField("fulfillment_options", s.fulfillmentOptions, g);
+            if (s.fulfillmentOptionId != null) g.writeStringField("fulfillment_option_id", s.fulfillmentOptionId);
+            provider.defaultSerializeField("totals", s.totals, g);
+            provider.defaultSerializeField("messages", s.messages, g);
+            provider.defaultSerializeField("links", s.links, g);
+            if (s.order != null) provider.defaultSerializeField("order", s.order, g);
+            g.writeStringField("created_time", s.createdTime);
+            g.writeStringField("updated_time", s.updatedTime);
+            if (s.completedTime != null) g.writeStringField("completed_time", s.completedTime);
+
+            if (s.paymentIntentId != null) g.writeStringField("payment_intent_id", s.paymentIntentId);
+            if (s.paymentIntentStatus != null) g.writeStringField("payment_intent_status", s.paymentIntentStatus);
+            if (s.paymentStatus != null) g.writeStringField("payment_status", s.paymentStatus);
+            if (s.failureMessage != null) g.writeStringField("failure_message", s.failureMessage);
+            if (s.refundStatus != null) g.writeStringField("refund_status", s.refundStatus);
+            if (s.refundAmount != null) g.writeNumberField("refund_amount", s.refundAmount);
+            if (s.chargeId != null) g.writeStringField("charge_id", s.chargeId);
+            if (s.disputeStatus != null) g.writeStringField("dispute_status", s.disputeStatus);
+            if (s.disputeId != null) g.writeStringField("dispute_id", s.disputeId);
+            g.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.acp.checkout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * 履约（配送）选项：{ type, id, title, subtitle, carrier, earliest/latest_delivery_time, subtotal, tax, total }
+ * 不可变；同一份配置生成的选项可以在多个会话间共享。
+ */
+@JsonSerialize(using = FulfillmentOption.Serializer.class)
+public final class FulfillmentOption {
+
+    private final String type;
+    private final String id;
+    private final String title;
+    private final String subtitle;
+    private final String carrier;
+    private final String earliestDeliveryTime;
+    private final String latestDeliveryTime;
+    private final int subtotal;
+    private final int tax;
+
+    public FulfillmentOption(String id, String title, String subtitle, String carrier,
+                             String earliestDeliveryTime, String latestDeliveryTime, int subtotal, int tax) {
+        this.type = "shipping";
+        this.id = id;
+        this.title = title;
+        this.subtitle = subtitle;
+        this.carrier = carrier;
+        this.earliestDeliveryTime = earliestDeliveryTime;
+        this.latestDeliveryTime = latestDeliveryTime;
+        this.subtotal = subtotal;
+        this.tax = tax;
+    }
+
+    public String getType() { return type; }
+    public String getId() { return id; }
+    public String getTitle() { return title; }
+    public String getSubtitle() { return subtitle; }
+    public String getCarrier() { return carrier; }
+    public String getEarliestDeliveryTime() { return earliestDeliveryTime; }
+    public String getLatestDeliveryTime() { return latestDeliveryTime; }
+    public int getSubtotal() { return subtotal; }
+    public int getTax() { return tax; }
+    public int getTotal() { return subtotal + tax; }
+
+    static final class Serializer extends StdSerializer<FulfillmentOption> {
+
+        Serializer() {
+            super(FulfillmentOption.class);
+        }
+
+        @Override
+        public void serialize(FulfillmentOption o, JsonGenerator g, SerializerProvider provider) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("type", o.type);
+            g.writeStringField("id", o.id);
+            g.writeStringField("title", o.title);
+            g.writeStringField("subtitle", o.subtitle);
+            g.writeStringField("carrier", o.carrier);
+            g.writeStringField("earliest_delivery_time", o.earliestDeliveryTime);
+            g.writeStringField("latest_delivery_time", o.latestDeliveryTime);
+            g.writeNumberField("subtotal", o.subtotal);
+            g.writeNumberField("tax", o.tax);
+            g.writeNumberField("total", o.getTotal());
+            g.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.acp.checkout;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 预编译的运费表：按收货地址（国家 → 州/省 → 邮编前缀，见 {@link PostalTrie}）定位配送区域，再按购物车重量档 × 金额档给出配送选项。
+ *
+ * 配置格式（SHIPPING_RATES_FILE 指向的文件，或 SHIPPING_RATES 环境变量，JSON）：
+ * <pre>
+ * { "zones": [
+ *     { "name": "us-west", "countries": ["US"], "regions": ["CA", "OR"], "postal_prefixes": ["97"],
+ *       "rates": [ { "id": "std", "title": "Standard", "subtitle": "", "carrier": "USPS",
+ *                    "days_min": 4, "days_max": 5, "price_cents": 500,
+ *                    "min_weight_g": 0, "max_weight_g": 5000,                // 重量档 [min, max)
+ *                    "min_subtotal_cents": 0, "max_subtotal_cents": 10000 }   // 金额档 [min, max)
+ *       ] },
+ *     { "name": "rest", "countries": ["*"], "rates": [ ... ] } ] }
+ * </pre>
+ * 匹配优先级：邮编前缀（最长匹配）＞ 州/省 ＞ 国家 ＞ "*"；都没配时回退到内置 Standard。
+ * 同一区域的 regions 与 postal_prefixes 各自建索引：上例中 CA/94105 按州命中 us-west，97xxx 按邮编命中 us-west。
+ * 区域内没有任何规则覆盖购物车的重量 / 金额时不给选项（不回退到别的区域），由会话置为 not_ready_for_payment。
+ * 两种配置都没有时兼容旧的 SHIPPING_LINES（一组对所有地址相同的选项）。
+ *
+ * 实例不可变，可在多线程间共享；热更新时整体替换。每个区域按（重量档, 金额档）缓存生成好的选项列表，
+ * 送达日期按天截断，跨天后自动重建。
+ */
+public final class FulfillmentRates {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** 运费表文件（修改时间变化时热加载）；未配置时读 SHIPPING_RATES / SHIPPING_LINES */
+    private static final String RATES_FILE = System.getenv().getOrDefault("SHIPPING_RATES_FILE", "");
+    private static final int SHIP_STANDARD_CENTS =
+            Integer.parseInt(System.getenv().getOrDefault("SHIP_STANDARD_CENTS", "100"));   // 默认 $1.00
+
+    private static long ratesFileMtime = Long.MIN_VALUE;   // 须先于 current 初始化（loadFromEnv 会写它）
+    private static volatile FulfillmentRates current = loadFromEnv();
+
+    private final String source;
+    private final Zone fallback;                              // "*" 区域或内置 Standard
+    private final TreeMap<String, CountryIndex> countries;    // 国家代码（不区分大小写）→ 索引
+    private final int zoneCount;
+
+    private FulfillmentRates(String source, Zone fallback, TreeMap<String, CountryIndex> countries, int zoneCount) {
+        this.source = source;
+        this.fallback = fallback;
+        this.countries = countries;
+        this.zoneCount = zoneCount;
+    }
+
+    // ============ 全局实例与热更新 ============
+
+    /** 当前生效的运费表 */
+    public static FulfillmentRates current() {
+        return current;
+    }
+
+    /** 运行时替换运费表（格式见类注释）；解析失败抛 IllegalArgumentException，旧表保持不变 */
+    public static synchronized FulfillmentRates reload(String json) {
+        FulfillmentRates next = compile(json);
+        current = next;
+        System.out.println("[Fulfillment] rates reloaded: " + next.zoneCount + " zones");
+        return next;
+    }
+
+    /** 配了 SHIPPING_RATES_FILE 时，文件修改时间变化就重新加载 */
+    public static synchronized void reloadFileIfChanged() {
+        if (RATES_FILE.isEmpty()) return;
+        Path file = Path.of(RATES_FILE);
+        try {
+            long mtime = Files.getLastModifiedTime(file).toMillis();
+            if (mtime == ratesFileMtime) return;
+            reload(Files.readString(file));
+            ratesFileMtime = mtime;
+        } catch (Exception e) {
+            System.err.println("[Fulfillment] reload " + file + " failed: " + e.getMessage());
+        }
+    }
+
+    private static FulfillmentRates loadFromEnv() {
+        try {
+            if (!RATES_FILE.isEmpty()) {
+                Path file = Path.of(RATES_FILE);
+                ratesFileMtime = Files.getLastModifiedTime(file).toMillis();
+                return compile(Files.readString(file));
+            }
+            String rates = System.getenv("SHIPPING_RATES");
+            if (rates != null && !rates.isBlank()) return compile(rates);
+            return compileShippingLines(System.getenv("SHIPPING_LINES"));
+        } catch (Exception e) {
+            System.err.println("[Fulfillment] load rates failed, using Standard: " + e.getMessage());
+            return compileShippingLines(null);
+        }
+    }
+
+    // ============ 查询 ============
+
+    /**
+     * 按地址、购物车总重（克）与商品金额（分）给出可选的配送选项；返回的列表不可变，可被多个会话共享。
+     * 地址字段：country / state / postal_code（大小写、空格与连字符不敏感）。
+     */
+    public List<FulfillmentOption> options(Map<String, Object> address, int weightGrams, int subtotalCents) {
+        Zone zone = resolve(address);
+        return zone.options(weightGrams, subtotalCents, System.currentTimeMillis() / 86_400_000L);
+    }
+
+    /** 地址 → 区域（不分配中间字符串） */
+    Zone resolve(Map<String, Object> address) {
+        if (address == null) return fallback;
+        CountryIndex c = countries.get(text(address.get("country")));
+        if (c == null) return fallback;
+        Zone z = c.postal.longestPrefix(text(address.get("postal_code")));
+        if (z == null) z = c.regions.get(text(address.get("state")));
+        if (z == null) z = c.zone;
+        return z != null ? z : fallback;
+    }
+
+    public String getSource() { return source; }
+
+    public int zoneCount() { return zoneCount; }
+
+    private static String text(Object o) {
+        return o instanceof String ? (String) o : "";
+    }
+
+    // ============ 编译 ============
+
+    /** 解析 SHIPPING_RATES 格式（见类注释） */
+    static FulfillmentRates compile(String json) {
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(json == null ? "" : json);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("invalid rates json: " + e.getMessage(), e);
+        }
+        if (root == null || !root.path("zones").isArray()) {
+            throw new IllegalArgumentException("rates json must be an object with a \"zones\" array");
+        }
+
+        Zone fallback = null;
+        TreeMap<String, CountryIndex> countries = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int zones = 0;
+        for (JsonNode zn : root.path("zones")) {
+            Zone zone = new Zone(zn.path("name").asText("zone_" + zones), rates(zn.path("rates")));
+            zones++;
+            List<String> regions = strings(zn.path("regions"));
+            List<String> prefixes = strings(zn.path("postal_prefixes"));
+            for (String country : strings(zn.path("countries"))) {
+                if ("*".equals(country)) {
+                    if (fallback == null) fallback = zone;
+                    continue;
+                }
+                CountryIndex c = countries.computeIfAbsent(country, k -> new CountryIndex());
+                for (String p : prefixes) c.postal.put(p, zone);
+                for (String r : regions) c.regions.putIfAbsent(r, zone);
+                if (prefixes.isEmpty() && regions.isEmpty() && c.zone == null) c.zone = zone;
+            }
+        }
+        for (CountryIndex c : countries.values()) c.postal.freeze();
+        return new FulfillmentRates(json, fallback != null ? fallback : standardZone(), countries, zones);
+    }
+
+    /** 旧格式 SHIPPING_LINES：[{ id, title, subtitle, carrier, days_min, days_max, price_cents }]，所有地址相同 */
+    static FulfillmentRates compileShippingLines(String json) {
+        Zone zone = null;
+        if (json != null && !json.isBlank()) {
+            try {
+                List<Rate> rates = rates(MAPPER.readTree(json));
+                if (!rates.isEmpty()) zone = new Zone("shipping_lines", rates);
+            } catch (Exception ignore) {
+                // 解析失败则走回退
+            }
+        }
+        return new FulfillmentRates(json, zone != null ? zone : standardZone(),
+                new TreeMap<>(String.CASE_INSENSITIVE_ORDER), zone != null ? 1 : 0);
+    }
+
+    private static Zone standardZone() {
+        return new Zone("standard", List.of(new Rate("fulfillment_option_standard", "Standard",
+                "Arrives in 4-5 days", "USPS", 4, 5, SHIP_STANDARD_CENTS,
+                0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE)));
+    }
+
+    private static List<Rate> rates(JsonNode arr) {
+        List<Rate> out = new ArrayList<>();
+        if (!arr.isArray()) return out;
+        for (JsonNode n : arr) {
+            String id = n.path("id").asText();
+            int daysMin = n.path("days_min").asInt(4);
+            out.add(new Rate(
+                    id == null || id.isBlank() ? "fo_" + UUID.randomUUID() : id,
+                    n.path("title").asText("Standard"),
+                    n.path("subtitle").asText(""),
+                    n.path("carrier").asText(""),
+                    daysMin,
+                    n.path("days_max").asInt(Math.max(daysMin, 5)),
+                    n.path("price_cents").asInt(SHIP_STANDARD_CENTS),
+                    Math.max(0, n.path("min_weight_g").asInt(0)),
+                    n.path("max_weight_g").asInt(Integer.MAX_VALUE),
+                    Math.max(0, n.path("min_subtotal_cents").asInt(0)),
+                    n.path("max_subtotal_cents").asInt(Integer.MAX_VALUE)));
+        }
+        return out;
+    }
+
+    private static List<String> strings(JsonNode arr) {
+        List<String> out = new ArrayList<>();
+        if (!arr.isArray()) return out;
+        for (JsonNode n : arr) {
+            String s = n.asText("").trim();
+            if (!s.isEmpty()) out.add(s);
+        }
+        return out;
+    }
+
+    // ============ 结构 ============
+
+    /** 一条运费规则：适用于 [minWeight, maxWeight) × [minSubtotal, maxSubtotal) */
+    static final class Rate {
+        final String id, title, subtitle, carrier;
+        final int daysMin, daysMax, priceCents;
+        final int minWeight, maxWeight, minSubtotal, maxSubtotal;
+
+        Rate(String id, String title, String subtitle, String carrier, int daysMin, int daysMax, int priceCents,
+             int minWeight, int maxWeight, int minSubtotal, int maxSubtotal) {
+            this.id = id;
+            this.title = title;
+            this.subtitle = subtitle;
+            this.carrier = carrier;
+            this.daysMin = daysMin;
+            this.daysMax = daysMax;
+            this.priceCents = priceCents;
+            this.minWeight = minWeight;
+            this.maxWeight = maxWeight;
+            this.minSubtotal = minSubtotal;
+            this.maxSubtotal = maxSubtotal;
+        }
+
+        boolean covers(int weight, int subtotal) {
+            return weight >= minWeight && weight < maxWeight && subtotal >= minSubtotal && subtotal < maxSubtotal;
+        }
+    }
+
+    /**
+     * 配送区域：所有规则的重量 / 金额边界排序去重后切出档位，同一档内适用的规则集合相同，
+     * 因此生成的选项按（重量档, 金额档）缓存即可。
+     */
+    static final class Zone {
+        final String name;
+        final Rate[] rates;
+        final int[] weightBounds;     // 升序；档位 i = [bounds[i-1], bounds[i])
+        final int[] subtotalBounds;
+        final AtomicReferenceArray<Memo> memo;
+
+        Zone(String name, List<Rate> rates) {
+            this.name = name;
+            this.rates = rates.toArray(new Rate[0]);
+            this.weightBounds = bounds(rates, true);
+            this.subtotalBounds = bounds(rates, false);
+            this.memo = new AtomicReferenceArray<>((weightBounds.length + 1) * (subtotalBounds.length + 1));
+        }
+
+        List<FulfillmentOption> options(int weight, int subtotal, long day) {
+            int w = band(weightBounds, weight);
+            int s = band(subtotalBounds, subtotal);
+            int slot = w * (subtotalBounds.length + 1) + s;
+            Memo m = memo.get(slot);
+            if (m != null && m.day == day) return m.options;
+
+            // 同一档内适用的规则相同，用实际值判断即可；day 为 UTC 日序号（送达日期按天截断）
+            List<FulfillmentOption> out = new ArrayList<>(rates.length);
+            Instant now = Instant.now();
+            for (Rate r : rates) {
+                if (!r.covers(weight, subtotal)) continue;
+                out.add(new FulfillmentOption(r.id, r.title, r.subtitle, r.carrier,
+                        now.plus(r.daysMin, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS).toString(),
+                        now.plus(r.daysMax, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS).toString(),
+                        r.priceCents, 0));     // 示例：运费不计税（若你要计税，这里替换成计算值）
+            }
+            List<FulfillmentOption> options = List.copyOf(out);
+            memo.set(slot, new Memo(day, options));
+            return options;
+        }
+
+        private static int[] bounds(List<Rate> rates, boolean weight) {
+            TreeSet<Integer> set = new TreeSet<>();
+            for (Rate r : rates) {
+                int lo = weight ? r.minWeight : r.minSubtotal;
+                int hi = weight ? r.maxWeight : r.maxSubtotal;
+                if (lo > 0) set.add(lo);
+                if (hi != Integer.MAX_VALUE) set.add(hi);
+            }
+            int[] out = new int[set.size()];
+            int i = 0;
+            for (int b : set) out[i++] = b;
+            return out;
+        }
+
+        /** 值所在档位：第一个大于 v 的边界下标 */
+        private static int band(int[] bounds, int v) {
+            int j = Arrays.binarySearch(bounds, v);
+            return j >= 0 ? j + 1 : -j - 1;
+        }
+    }
+
+    private static final class Memo {
+        final long day;
+        final List<FulfillmentOption> options;
+
+        Memo(long day, List<FulfillmentOption> options) {
+            this.day = day;
+            this.options = options;
+        }
+    }
+
+    /** 单个国家：国家级区域 + 州/省表 + 邮编前缀树 */
+    private static final class CountryIndex {
+        Zone zone;
+        final TreeMap<String, Zone> regions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final PostalTrie<Zone> postal = new PostalTrie<>();
+    }
+}
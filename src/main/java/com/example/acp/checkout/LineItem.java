@@ -0,0 +1,75 @@
+package com.example.acp.checkout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * 会话行项：{ id, item: { id, quantity }, base_amount, discount, subtotal, tax, total }
+ * - 金额单位均为分（int，与原 Map 里的 Integer 一致，不装箱）
+ * - unitPriceCents / weightGrams / taxCategory 只在内部用于重算（单价、运费重量档、类目税率），不输出
+ */
+@JsonSerialize(using = LineItem.Serializer.class)
+public final class LineItem {
+
+    private final String id;
+    private final String itemId;
+    private final int quantity;
+    private final int unitPriceCents;
+    private final int weightGrams;      // 单件重量（克）
+    private final String taxCategory;   // feed 的 product_category（null = 不分类目）
+    private int baseAmount;
+    private int discount;
+    private int tax;
+
+    public LineItem(String id, String itemId, int quantity, int unitPriceCents, int weightGrams, String taxCategory) {
+        this.id = id;
+        this.itemId = itemId;
+        this.quantity = quantity;
+        this.unitPriceCents = unitPriceCents;
+        this.weightGrams = weightGrams;
+        this.taxCategory = taxCategory;
+        this.baseAmount = unitPriceCents * quantity;
+    }
+
+    public String getId() { return id; }
+    public String getItemId() { return itemId; }
+    public int getQuantity() { return quantity; }
+    public int getUnitPriceCents() { return unitPriceCents; }
+    public int getWeightGrams() { return weightGrams; }
+    public String getTaxCategory() { return taxCategory; }
+    public int getBaseAmount() { return baseAmount; }
+    public int getDiscount() { return discount; }
+    public int getSubtotal() { return baseAmount - discount; }
+    public int getTax() { return tax; }
+    public int getTotal() { return baseAmount - discount + tax; }
+
+    public void setDiscount(int discount) { this.discount = discount; }
+    public void setTax(int tax) { this.tax = tax; }
+
+    static final class Serializer extends StdSerializer<LineItem> {
+
+        Serializer() {
+            super(LineItem.class);
+        }
+
+        @Override
+        public void serialize(LineItem li, JsonGenerator g, SerializerProvider provider) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("id", li.id);
+            g.writeObjectFieldStart("item");
+            g.writeStringField("id", li.itemId);
+            g.writeNumberField("quantity", li.quantity);
+            g.writeEndObject();
+            g.writeNumberField("base_amount", li.baseAmount);
+            g.writeNumberField("discount", li.discount);
+            g.writeNumberField("subtotal", li.getSubtotal());
+            g.writeNumberField("tax", li.tax);
+            g.writeNumberField("total", li.getTotal());
+            g.writeEndObject();
+        }
+    }
+}
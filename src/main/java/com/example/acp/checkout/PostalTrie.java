@@ -0,0 +1,95 @@
+package com.example.acp.checkout;
+
+import java.util.*;
+
+/**
+ * 邮编前缀树（运费区域与税务辖区共用）：
+ * - 键只保留字母数字并转大写（"SW1A 1AA" 与 "sw1a-1aa" 相同）
+ * - 查询时逐字符走树，记录经过的最长前缀对应的值，不生成子串
+ *
+ * 先 put 建树，freeze 后压成按字符排序的数组只读使用；freeze 之后可在多线程间共享。
+ */
+final class PostalTrie<T> {
+
+    private List<Map<Character, Integer>> building = new ArrayList<>(List.of(new HashMap<>()));
+    private List<T> buildingValues = new ArrayList<>(Collections.singletonList(null));
+    private char[][] edgeChars;
+    private int[][] edgeTargets;
+    private Object[] values;
+
+    /** 同一前缀重复出现时保留先放入的值；规范化后为空的前缀忽略 */
+    void put(String prefix, T value) {
+        int node = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = normalize(prefix.charAt(i));
+            if (c == 0) continue;
+            Integer next = building.get(node).get(c);
+            if (next == null) {
+                next = building.size();
+                building.add(new HashMap<>());
+                buildingValues.add(null);
+                building.get(node).put(c, next);
+            }
+            node = next;
+        }
+        if (node != 0 && buildingValues.get(node) == null) buildingValues.set(node, value);
+    }
+
+    /** 建树完成后压成按字符排序的数组，查询时二分 */
+    void freeze() {
+        int n = building.size();
+        edgeChars = new char[n][];
+        edgeTargets = new int[n][];
+        values = buildingValues.toArray();
+        for (int i = 0; i < n; i++) {
+            List<Character> keys = new ArrayList<>(building.get(i).keySet());
+            Collections.sort(keys);
+            edgeChars[i] = new char[keys.size()];
+            edgeTargets[i] = new int[keys.size()];
+            for (int j = 0; j < keys.size(); j++) {
+                edgeChars[i][j] = keys.get(j);
+                edgeTargets[i][j] = building.get(i).get(keys.get(j));
+            }
+        }
+        building = null;
+        buildingValues = null;
+    }
+
+    boolean isEmpty() {
+        return edgeChars == null || edgeChars[0].length == 0;
+    }
+
+    /** 最长前缀匹配；没有任何前缀命中时返回 null */
+    @SuppressWarnings("unchecked")
+    T longestPrefix(String postal) {
+        if (postal == null || isEmpty()) return null;
+        T best = null;
+        int node = 0;
+        for (int i = 0; i < postal.length(); i++) {
+            char c = normalize(postal.charAt(i));
+            if (c == 0) continue;
+            int j = Arrays.binarySearch(edgeChars[node], c);
+            if (j < 0) break;
+            node = edgeTargets[node][j];
+            if (values[node] != null) best = (T) values[node];
+        }
+        return best;
+    }
+
+    /** 前缀的规范化形式（与建树、查询时的比较方式一致） */
+    static String key(String prefix) {
+        StringBuilder sb = new StringBuilder(prefix.length());
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = normalize(prefix.charAt(i));
+            if (c != 0) sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /** 字母数字转大写，其余字符（空格、连字符……）返回 0 表示跳过 */
+    private static char normalize(char c) {
+        if (c >= 'a' && c <= 'z') return (char) (c - 32);
+        if ((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) return c;
+        return Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : 0;
+    }
+}
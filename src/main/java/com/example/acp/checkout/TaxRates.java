@@ -0,0 +1,292 @@
+package com.example.acp.checkout;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按收货地址定位税务辖区（国家 → 州/省 → 邮编前缀，见 {@link PostalTrie}），再按商品类目给出税率。
+ *
+ * 税率文件（TAX_RATES_FILE，或 TAX_RATES 环境变量，每行一条，# 开头为注释）：
+ * <pre>
+ * # country,state,postal_prefix,category,rate_percent
+ * US,,,*,0
+ * US,CA,,*,7.25
+ * US,CA,900,*,9.5
+ * US,NY,,Apparel &amp; Accessories &gt; Clothing,0
+ * GB,,,*,20
+ * </pre>
+ * - state / postal_prefix 留空表示整个上级辖区；category 为 * 表示全部类目，否则按类目路径前缀匹配
+ *   （只在 " &gt; " 分隔处截断，"Electronics" 匹配 "Electronics &gt; Audio" 但不匹配 "Electronics Repair"；最长者优先）
+ * - 税率写的是辖区合计税率（州 + 地方），最具体的辖区有对应类目规则就用它，没有再逐级向上找；
+ *   邮编辖区的上级是同州（或同国）里更短的已定义前缀（与行的先后无关），没有才是州 / 国家。
+ *   上例中 90012 先找 US-CA-900，其规则里没有的类目再找 US-CA
+ * - 地址不在任何辖区内时用 TAX_RATE_BPS（默认 10%）
+ *
+ * 税率以百万分之一存成整数，计税全程用 long：tax = ⌊(base × ppm + 500000) / 1000000⌋（四舍五入到分）。
+ * 每个辖区按类目缓存解析结果，命中后一次 Map 查询即得税率。实例不可变（缓存除外），热更新时整体替换。
+ */
+public final class TaxRates {
+
+    private static final long PPM = 1_000_000L;
+    private static final String PATH_SEPARATOR = " > ";
+
+    /** 税率文件（修改时间变化时热加载）；未配置时读 TAX_RATES，再没有就只用 TAX_RATE_BPS */
+    private static final String RATES_FILE = System.getenv().getOrDefault("TAX_RATES_FILE", "");
+    private static final int TAX_RATE_BPS =
+            Integer.parseInt(System.getenv().getOrDefault("TAX_RATE_BPS", "1000"));         // 默认 10%
+
+    private static long ratesFileMtime = Long.MIN_VALUE;   // 须先于 current 初始化（loadFromEnv 会写它）
+    private static volatile TaxRates current = loadFromEnv();
+
+    private final String source;
+    private final Jurisdiction fallback;
+    private final TreeMap<String, Country> countries;       // 国家代码（不区分大小写）→ 辖区索引
+    private final int ruleCount;
+
+    private TaxRates(String source, Jurisdiction fallback, TreeMap<String, Country> countries, int ruleCount) {
+        this.source = source;
+        this.fallback = fallback;
+        this.countries = countries;
+        this.ruleCount = ruleCount;
+    }
+
+    // ============ 全局实例与热更新 ============
+
+    /** 当前生效的税率表 */
+    public static TaxRates current() {
+        return current;
+    }
+
+    /** 运行时替换税率表（格式见类注释）；格式错误抛 IllegalArgumentException，旧表保持不变 */
+    public static synchronized TaxRates reload(String text) {
+        TaxRates next = compile(text);
+        current = next;
+        System.out.println("[Tax] rates reloaded: " + next.ruleCount + " rules");
+        return next;
+    }
+
+    /** 配了 TAX_RATES_FILE 时，文件修改时间变化就重新加载 */
+    public static synchronized void reloadFileIfChanged() {
+        if (RATES_FILE.isEmpty()) return;
+        Path file = Path.of(RATES_FILE);
+        try {
+            long mtime = Files.getLastModifiedTime(file).toMillis();
+            if (mtime == ratesFileMtime) return;
+            reload(Files.readString(file));
+            ratesFileMtime = mtime;
+        } catch (Exception e) {
+            System.err.println("[Tax] reload " + file + " failed: " + e.getMessage());
+        }
+    }
+
+    private static TaxRates loadFromEnv() {
+        try {
+            if (!RATES_FILE.isEmpty()) {
+                Path file = Path.of(RATES_FILE);
+                ratesFileMtime = Files.getLastModifiedTime(file).toMillis();
+                return compile(Files.readString(file));
+            }
+            return compile(System.getenv().getOrDefault("TAX_RATES", ""));
+        } catch (Exception e) {
+            System.err.println("[Tax] load rates failed, using TAX_RATE_BPS: " + e.getMessage());
+            return compile("");
+        }
+    }
+
+    // ============ 查询 ============
+
+    /** 地址（country / state / postal_code）→ 最具体的辖区；不分配中间字符串 */
+    public Jurisdiction resolve(Map<String, Object> address) {
+        if (address == null) return fallback;
+        Country c = countries.get(text(address.get("country")));
+        if (c == null) return fallback;
+        String postal = text(address.get("postal_code"));
+        Region r = c.regions.get(text(address.get("state")));
+        if (r != null) {
+            Jurisdiction j = r.postal.longestPrefix(postal);
+            return j != null ? j : r.jurisdiction;
+        }
+        Jurisdiction j = c.postal.longestPrefix(postal);
+        return j != null ? j : c.jurisdiction;
+    }
+
+    /** 精确整数计税：base（分）× 税率（百万分之一），四舍五入到分；负数金额对称处理 */
+    public static int tax(int baseCents, int ratePpm) {
+        long product = (long) baseCents * ratePpm;
+        long rounded = product >= 0 ? (product + PPM / 2) / PPM : -((-product + PPM / 2) / PPM);
+        return (int) rounded;
+    }
+
+    public String getSource() { return source; }
+
+    public int ruleCount() { return ruleCount; }
+
+    private static String text(Object o) {
+        return o instanceof String ? (String) o : "";
+    }
+
+    // ============ 辖区 ============
+
+    /**
+     * 一个税务辖区：本级的类目规则 + 上级辖区。类目 → 税率的解析结果按类目缓存
+     * （辖区随税率表整体替换，缓存不会过期）。
+     */
+    public static final class Jurisdiction {
+        private final String id;
+        private Jurisdiction parent;         // 邮编辖区在 compile 读完所有行后重新挂到更短的前缀上
+        private final Map<String, Integer> rules = new HashMap<>();     // 类目路径前缀（"*" = 全部）→ ppm
+        private final ConcurrentHashMap<String, Integer> cache = new ConcurrentHashMap<>();
+
+        Jurisdiction(String id, Jurisdiction parent) {
+            this.id = id;
+            this.parent = parent;
+        }
+
+        public String getId() { return id; }
+
+        /** 该类目在本辖区适用的税率（百万分之一）；category 为 null 时按 "*" 规则 */
+        public int ratePpm(String category) {
+            String key = category == null ? "" : category;
+            Integer hit = cache.get(key);
+            if (hit != null) return hit;
+            int rate = lookup(key);
+            cache.putIfAbsent(key, rate);
+            return rate;
+        }
+
+        /** 逐级向上：本级有类目规则（最长前缀）就用，否则问上级；根辖区总有 "*" 规则 */
+        private int lookup(String category) {
+            for (Jurisdiction j = this; j != null; j = j.parent) {
+                Integer best = null;
+                int bestLen = -1;
+                for (Map.Entry<String, Integer> e : j.rules.entrySet()) {
+                    String prefix = e.getKey();
+                    int len = "*".equals(prefix) ? 0 : prefix.length();
+                    if (len > bestLen && (len == 0 || matchesPath(category, prefix))) {
+                        best = e.getValue();
+                        bestLen = len;
+                    }
+                }
+                if (best != null) return best;
+            }
+            return 0;
+        }
+    }
+
+    /** 类目路径前缀匹配（不区分大小写），只在整段边界上成立："A &gt; B" 匹配 "A &gt; B" 与 "A &gt; B &gt; C" */
+    static boolean matchesPath(String category, String prefix) {
+        int len = prefix.length();
+        if (!category.regionMatches(true, 0, prefix, 0, len)) return false;
+        return category.length() == len || category.startsWith(PATH_SEPARATOR, len);
+    }
+
+    private static final class Country {
+        final Jurisdiction jurisdiction;
+        final TreeMap<String, Region> regions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final PostalTrie<Jurisdiction> postal = new PostalTrie<>();     // 不分州的邮编规则
+
+        Country(Jurisdiction jurisdiction) {
+            this.jurisdiction = jurisdiction;
+        }
+    }
+
+    private static final class Region {
+        final Jurisdiction jurisdiction;
+        final PostalTrie<Jurisdiction> postal = new PostalTrie<>();
+
+        Region(Jurisdiction jurisdiction) {
+            this.jurisdiction = jurisdiction;
+        }
+    }
+
+    // ============ 编译 ============
+
+    /** 解析税率文件（见类注释）；空文本得到只有默认税率的表 */
+    static TaxRates compile(String text) {
+        Jurisdiction root = new Jurisdiction("*", null);
+        root.rules.put("*", TAX_RATE_BPS * 100);
+
+        TreeMap<String, Country> countries = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        // 邮编辖区在 freeze 前先按 (country, state, 规范化前缀) 去重，同一辖区的多条类目规则落到同一个对象上；
+        // 值里记下所在的树与前缀，读完所有行后再挂到更短的前缀上
+        Map<String, PostalEntry> postalJurisdictions = new LinkedHashMap<>();
+        int rules = 0;
+        int lineNo = 0;
+        for (String raw : (text == null ? "" : text).split("\\r?\\n")) {
+            lineNo++;
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] f = line.split(",", -1);
+            if (f.length != 5) {
+                throw new IllegalArgumentException("line " + lineNo + ": expected 5 fields, got " + f.length);
+            }
+            String country = f[0].trim();
+            String state = f[1].trim();
+            String prefix = f[2].trim();
+            String category = f[3].trim().isEmpty() ? "*" : f[3].trim();
+            int ppm;
+            try {
+                ppm = new BigDecimal(f[4].trim()).movePointRight(4).intValueExact();   // 百分比 → 百万分之一
+            } catch (ArithmeticException | NumberFormatException e) {
+                throw new IllegalArgumentException("line " + lineNo + ": invalid rate '" + f[4].trim() + "'");
+            }
+            if (ppm < 0) throw new IllegalArgumentException("line " + lineNo + ": negative rate");
+
+            Jurisdiction target;
+            if (country.isEmpty() || "*".equals(country)) {
+                target = root;
+            } else {
+                Country c = countries.computeIfAbsent(country,
+                        k -> new Country(new Jurisdiction(k.toUpperCase(Locale.ROOT), root)));
+                Jurisdiction parent = c.jurisdiction;
+                PostalTrie<Jurisdiction> trie = c.postal;
+                if (!state.isEmpty()) {
+                    Region r = c.regions.computeIfAbsent(state, k -> new Region(
+                            new Jurisdiction(c.jurisdiction.id + "-" + k.toUpperCase(Locale.ROOT), c.jurisdiction)));
+                    parent = r.jurisdiction;
+                    trie = r.postal;
+                }
+                if (prefix.isEmpty()) {
+                    target = parent;
+                } else {
+                    String key = PostalTrie.key(prefix);
+                    if (key.isEmpty()) throw new IllegalArgumentException("line " + lineNo + ": invalid postal prefix");
+                    Jurisdiction p = parent;
+                    PostalTrie<Jurisdiction> t = trie;
+                    target = postalJurisdictions.computeIfAbsent(parent.id + "-" + key, k -> {
+                        Jurisdiction j = new Jurisdiction(k, p);
+                        t.put(key, j);
+                        return new PostalEntry(j, t, key);
+                    }).jurisdiction;
+                }
+            }
+            target.rules.put(category, ppm);
+            rules++;
+        }
+        for (Country c : countries.values()) {
+            c.postal.freeze();
+            for (Region r : c.regions.values()) r.postal.freeze();
+        }
+        // 邮编辖区的上级：同一棵树里最长的更短前缀（90012 → 9001 → 900 → 州）
+        for (PostalEntry e : postalJurisdictions.values()) {
+            Jurisdiction shorter = e.trie.longestPrefix(e.key.substring(0, e.key.length() - 1));
+            if (shorter != null) e.jurisdiction.parent = shorter;
+        }
+        return new TaxRates(text, root, countries, rules);
+    }
+
+    private static final class PostalEntry {
+        final Jurisdiction jurisdiction;
+        final PostalTrie<Jurisdiction> trie;
+        final String key;
+
+        PostalEntry(Jurisdiction jurisdiction, PostalTrie<Jurisdiction> trie, String key) {
+            this.jurisdiction = jurisdiction;
+            this.trie = trie;
+            this.key = key;
+        }
+    }
+}
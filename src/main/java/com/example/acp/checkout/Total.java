@@ -0,0 +1,59 @@
+package com.example.acp.checkout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/** 合计行：{ type, display_text, amount }；type 决定固定的 display_text */
+@JsonSerialize(using = Total.Serializer.class)
+public final class Total {
+
+    public enum Type {
+        ITEMS_BASE_AMOUNT("items_base_amount", "Item(s) total"),
+        SUBTOTAL("subtotal", "Subtotal"),
+        TAX("tax", "Tax"),
+        FULFILLMENT("fulfillment", "Fulfillment"),
+        TOTAL("total", "Total");
+
+        final String code;
+        final String displayText;
+
+        Type(String code, String displayText) {
+            this.code = code;
+            this.displayText = displayText;
+        }
+
+        public String code() { return code; }
+    }
+
+    private final Type type;
+    private final int amount;
+
+    public Total(Type type, int amount) {
+        this.type = type;
+        this.amount = amount;
+    }
+
+    public Type getType() { return type; }
+    public String getDisplayText() { return type.displayText; }
+    public int getAmount() { return amount; }
+
+    static final class Serializer extends StdSerializer<Total> {
+
+        Serializer() {
+            super(Total.class);
+        }
+
+        @Override
+        public void serialize(Total t, JsonGenerator g, SerializerProvider provider) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("type", t.type.code);
+            g.writeStringField("display_text", t.type.displayText);
+            g.writeNumberField("amount", t.amount);
+            g.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.acp.feed;
+
+import java.util.*;
+
+/**
+ * 类目映射规则预编译成的 Aho–Corasick 自动机：
+ * - 规则格式同 CATEGORY_RULES：kw1|kw2=>类目路径;kw3=>类目路径（规则之间也可用换行分隔）
+ * - 所有规则的所有关键词进同一个自动机，对文本只扫一遍
+ * - 语义与原逐条 contains 一致：命中多条规则时取规则顺序最靠前的（first rule wins），都没命中返回默认类目
+ *
+ * 实例不可变，可在多线程间共享；热更新时整体替换。
+ */
+final class CategoryMatcher {
+
+    private static final int NO_RULE = Integer.MAX_VALUE;
+
+    private final String source;
+    private final String defaultCategory;
+    private final String[] categories;   // 规则下标 → 类目路径
+    private final int keywordCount;
+
+    // 自动机：节点 0 为根；每个节点的出边按字符升序存放，二分查找
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    private final int[] bestRule;        // 在该节点（含 fail 链上的后缀）结束的关键词中最小的规则下标
+
+    private CategoryMatcher(String source, String defaultCategory, String[] categories, int keywordCount,
+                            char[][] edgeChars, int[][] edgeTargets, int[] fail, int[] bestRule) {
+        this.source = source;
+        this.defaultCategory = defaultCategory;
+        this.categories = categories;
+        this.keywordCount = keywordCount;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.bestRule = bestRule;
+    }
+
+    /** 解析并编译规则；格式不对的规则、空关键词直接跳过（与原实现一致） */
+    static CategoryMatcher compile(String rules, String defaultCategory) {
+        List<String> cats = new ArrayList<>();
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        children.add(new HashMap<>());
+        terminal.add(NO_RULE);
+        int keywords = 0;
+
+        String raw = rules == null ? "" : rules;
+        for (String rule : raw.split("[;\\r\\n]")) {
+            String r = rule.trim();
+            if (r.isEmpty() || !r.contains("=>")) continue;
+
+            String[] kv = r.split("=>", 2);
+            String keys = kv[0].trim().toLowerCase(Locale.ROOT);
+            int ruleIdx = cats.size();
+            cats.add(kv[1].trim());
+
+            for (String k : keys.split("\\|")) {
+                String key = k.trim();
+                if (key.isEmpty()) continue;
+                int node = 0;
+                for (int i = 0; i < key.length(); i++) {
+                    Integer next = children.get(node).get(key.charAt(i));
+                    if (next == null) {
+                        next = children.size();
+                        children.add(new HashMap<>());
+                        terminal.add(NO_RULE);
+                        children.get(node).put(key.charAt(i), next);
+                    }
+                    node = next;
+                }
+                terminal.set(node, Math.min(terminal.get(node), ruleIdx));
+                keywords++;
+            }
+        }
+
+        int n = children.size();
+        char[][] edgeChars = new char[n][];
+        int[][] edgeTargets = new int[n][];
+        for (int i = 0; i < n; i++) {
+            List<Character> keysSorted = new ArrayList<>(children.get(i).keySet());
+            Collections.sort(keysSorted);
+            edgeChars[i] = new char[keysSorted.size()];
+            edgeTargets[i] = new int[keysSorted.size()];
+            for (int j = 0; j < keysSorted.size(); j++) {
+                edgeChars[i][j] = keysSorted.get(j);
+                edgeTargets[i][j] = children.get(i).get(keysSorted.get(j));
+            }
+        }
+
+        // BFS 建 fail 链，同时把后缀节点的命中规则合并进来
+        int[] fail = new int[n];
+        int[] best = new int[n];
+        for (int i = 0; i < n; i++) best[i] = terminal.get(i);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int t : edgeTargets[0]) {
+            fail[t] = 0;
+            queue.add(t);
+        }
+        while (!queue.isEmpty()) {
+            int u = queue.poll();
+            for (int j = 0; j < edgeChars[u].length; j++) {
+                char c = edgeChars[u][j];
+                int v = edgeTargets[u][j];
+                int f = fail[u];
+                int t;
+                while ((t = step(edgeChars, edgeTargets, f, c)) < 0 && f != 0) f = fail[f];
+                fail[v] = t < 0 ? 0 : t;
+                best[v] = Math.min(best[v], best[fail[v]]);
+                queue.add(v);
+            }
+        }
+
+        return new CategoryMatcher(raw, defaultCategory, cats.toArray(new String[0]), keywords,
+                edgeChars, edgeTargets, fail, best);
+    }
+
+    /** 单趟扫描文本（调用方负责转小写），返回命中的类目或默认类目 */
+    String match(String text) {
+        if (text == null || categories.length == 0) return defaultCategory;
+        int node = 0;
+        int best = NO_RULE;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int t;
+            while ((t = step(edgeChars, edgeTargets, node, c)) < 0 && node != 0) node = fail[node];
+            node = t < 0 ? 0 : t;
+            if (bestRule[node] < best) {
+                best = bestRule[node];
+                if (best == 0) break; // 第一条规则已命中，不可能更优
+            }
+        }
+        return best == NO_RULE ? defaultCategory : categories[best];
+    }
+
+    String getSource() { return source; }
+
+    String getDefaultCategory() { return defaultCategory; }
+
+    int ruleCount() { return categories.length; }
+
+    int keywordCount() { return keywordCount; }
+
+    private static int step(char[][] edgeChars, int[][] edgeTargets, int node, char c) {
+        int j = Arrays.binarySearch(edgeChars[node], c);
+        return j < 0 ? -1 : edgeTargets[node][j];
+    }
+}
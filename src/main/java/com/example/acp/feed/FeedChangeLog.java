@@ -0,0 +1,149 @@
+package com.example.acp.feed;
+
+import java.util.*;
+
+/**
+ * 最近若干次快照发布的行级变更（环形缓冲，超出容量丢最旧的）：
+ * - 每次发布与上一版快照按行 id 比较（同 id 只看第一行，与价格索引一致），
+ *   内容哈希不同即为 changed，只在一边出现的为 added / removed
+ * - since(v) 把 v 之后的各版差异按顺序合并成一份净变化；v 已滚出缓冲（或不认识）时返回 null，
+ *   调用方应让客户端全量重拉
+ *
+ * 差异里引用的是快照行本身（不可变、共享），不额外复制。
+ */
+final class FeedChangeLog {
+
+    enum Op { ADDED, CHANGED, REMOVED }
+
+    /** 一行的变化；REMOVED 时 row 为 null、hash 为删除前的内容哈希 */
+    static final class Change {
+        final Op op;
+        final String id;
+        final long hash;
+        final FeedItem row;
+
+        Change(Op op, String id, long hash, FeedItem row) {
+            this.op = op;
+            this.id = id;
+            this.hash = hash;
+            this.row = row;
+        }
+    }
+
+    /** 相邻两版之间的差异 */
+    static final class Diff {
+        final long fromVersion;
+        final long toVersion;
+        final List<Change> changes;
+
+        Diff(long fromVersion, long toVersion, List<Change> changes) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.changes = changes;
+        }
+    }
+
+    /** 合并后的净变化：版本区间 (fromVersion, toVersion] */
+    static final class Delta {
+        final long fromVersion;
+        final long toVersion;
+        final List<Change> changes;
+
+        Delta(long fromVersion, long toVersion, List<Change> changes) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.changes = changes;
+        }
+    }
+
+    private final int capacity;
+    private final ArrayDeque<Diff> ring;
+    private long latestVersion = -1;   // 最近一次记录的 toVersion；-1 表示还没有
+
+    FeedChangeLog(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.ring = new ArrayDeque<>(this.capacity);
+    }
+
+    /** 记录一次发布（prev → next）的行级差异 */
+    void record(FeedSnapshot prev, FeedSnapshot next) {
+        Diff d = diff(prev, next);
+        synchronized (this) {
+            // 版本不连续（例如从磁盘恢复的快照没有经过这里）时旧差异接不上，清空
+            if (latestVersion >= 0 && d.fromVersion != latestVersion) ring.clear();
+            if (ring.size() == capacity) ring.pollFirst();
+            ring.addLast(d);
+            latestVersion = d.toVersion;
+        }
+    }
+
+    /** 从 version 之后到最新一版的净变化；version 就是最新版时返回空变化；接不上返回 null */
+    synchronized Delta since(long version) {
+        if (version == latestVersion) return new Delta(version, version, List.of());
+        Iterator<Diff> it = ring.iterator();
+        while (it.hasNext()) {
+            Diff d = it.next();
+            if (d.fromVersion != version) continue;
+            Map<String, Change> net = new LinkedHashMap<>();
+            apply(net, d);
+            while (it.hasNext()) apply(net, it.next());
+            return new Delta(version, latestVersion, new ArrayList<>(net.values()));
+        }
+        return null;
+    }
+
+    /** 把一版差异叠到已合并的净变化上 */
+    private static void apply(Map<String, Change> net, Diff d) {
+        for (Change c : d.changes) {
+            Change prev = net.get(c.id);
+            if (prev == null) {
+                net.put(c.id, c);
+                continue;
+            }
+            switch (prev.op) {
+                case ADDED:
+                    // 新增后又改：仍是新增（取最新内容）；新增后又删：等于没发生
+                    if (c.op == Op.REMOVED) net.remove(c.id);
+                    else net.put(c.id, new Change(Op.ADDED, c.id, c.hash, c.row));
+                    break;
+                case CHANGED:
+                    net.put(c.id, c.op == Op.ADDED ? new Change(Op.CHANGED, c.id, c.hash, c.row) : c);
+                    break;
+                case REMOVED:
+                    // 删除后又加回：对客户端而言是修改
+                    net.put(c.id, c.op == Op.REMOVED ? c : new Change(Op.CHANGED, c.id, c.hash, c.row));
+                    break;
+            }
+        }
+    }
+
+    /** 两版快照按行 id 比较，结果按新版行序（删除的行排在最后，按旧版行序） */
+    static Diff diff(FeedSnapshot prev, FeedSnapshot next) {
+        List<FeedItem> oldRows = prev.getProducts();
+        Map<String, Integer> oldPos = new HashMap<>(Math.max(16, oldRows.size() * 4 / 3 + 1));
+        for (int i = 0; i < oldRows.size(); i++) {
+            String id = oldRows.get(i).getId();
+            if (id != null) oldPos.putIfAbsent(id, i);
+        }
+
+        List<Change> changes = new ArrayList<>();
+        List<FeedItem> newRows = next.getProducts();
+        Set<String> seen = new HashSet<>(Math.max(16, newRows.size() * 4 / 3 + 1));
+        for (int i = 0; i < newRows.size(); i++) {
+            FeedItem row = newRows.get(i);
+            String id = row.getId();
+            if (id == null || !seen.add(id)) continue;
+            long hash = next.rowHash(i);
+            Integer j = oldPos.get(id);
+            if (j == null) changes.add(new Change(Op.ADDED, id, hash, row));
+            else if (prev.rowHash(j) != hash) changes.add(new Change(Op.CHANGED, id, hash, row));
+        }
+        for (int i = 0; i < oldRows.size(); i++) {
+            String id = oldRows.get(i).getId();
+            if (id != null && oldPos.get(id) == i && !seen.contains(id)) {
+                changes.add(new Change(Op.REMOVED, id, prev.rowHash(i), null));
+            }
+        }
+        return new Diff(prev.getVersion(), next.getVersion(), changes);
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.acp.feed;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 把 feed 行边生成边写到磁盘上的版本化文件（NDJSON / CSV / TSV）：
+ * - 每个快照版本一组文件：feed-v{version}.{ndjson|csv|tsv}
+ * - 先写 .tmp，全部写完再原子改名，读方永远看不到写了一半的文件
+ * - 只保留最近 FEED_EXPORT_KEEP 个版本（正在传输的旧文件不会被立刻删掉）
+ *
+ * 任何 IO 失败只影响导出本身（对应快照没有导出文件），不影响 JSON feed 的发布。
+ */
+final class FeedExporter {
+
+    /** 导出格式：扩展名 + Content-Type */
+    enum Format {
+        NDJSON("ndjson", "application/x-ndjson"),
+        CSV("csv", "text/csv; charset=UTF-8"),
+        TSV("tsv", "text/tab-separated-values; charset=UTF-8");
+
+        final String ext;
+        final String contentType;
+
+        Format(String ext, String contentType) {
+            this.ext = ext;
+            this.contentType = contentType;
+        }
+    }
+
+    /** 表格格式的列（固定顺序；行里没有的字段输出空值） */
+    static final List<String> COLUMNS = List.of(
+            "id", "offer_id", "item_group_id", "item_group_title", "title", "description", "link",
+            "mpn", "condition", "brand", "material", "product_category", "weight",
+            "size", "color", "attributes", "image_link", "additional_image_link",
+            "price", "sale_price", "sale_price_effective_date",
+            "availability", "availability_date", "inventory_quantity", "shipping",
+            "seller_name", "seller_url", "return_policy", "return_window",
+            "seller_privacy_policy", "seller_tos", "enable_search", "enable_checkout");
+
+    private static final Pattern FILE_NAME = Pattern.compile("feed-v(\\d+)\\.(ndjson|csv|tsv)(\\.tmp)?");
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private final Path dir;
+    private final int keepVersions;
+
+    FeedExporter(Path dir, int keepVersions) {
+        this.dir = dir;
+        this.keepVersions = Math.max(1, keepVersions);
+    }
+
+    /** 开始写某个版本的导出；目录不可用时返回一个什么都不写的 Writer */
+    ExportWriter begin(long version) {
+        try {
+            Files.createDirectories(dir);
+            return new ExportWriter(version);
+        } catch (IOException e) {
+            System.out.println("[FeedExport] export disabled for v" + version + ": " + e.getMessage());
+            return new ExportWriter(version, e);
+        }
+    }
+
+    /** 某个版本此前已落盘的导出文件（重启后恢复快照用）；缺任一格式返回 null */
+    Export existing(long version) {
+        Map<Format, Path> files = new EnumMap<>(Format.class);
+        for (Format f : Format.values()) {
+            Path p = dir.resolve(fileName(version, f));
+            if (!Files.isReadable(p)) return null;
+            files.put(f, p);
+        }
+        return new Export(version, files);
+    }
+
+    /** 某个版本已落盘的导出文件 */
+    static final class Export {
+        private final long version;
+        private final Map<Format, Path> files;
+
+        Export(long version, Map<Format, Path> files) {
+            this.version = version;
+            this.files = Collections.unmodifiableMap(files);
+        }
+
+        long getVersion() { return version; }
+
+        Path file(Format f) { return files.get(f); }
+    }
+
+    /** 单次导出：write() 逐行追加，commit() 落盘，abort() 丢弃 */
+    final class ExportWriter {
+        private final long version;
+        private final Map<Format, Path> tmpFiles = new EnumMap<>(Format.class);
+        private final Map<Format, Writer> writers = new EnumMap<>(Format.class);
+        private IOException failure;
+
+        private ExportWriter(long version, IOException failure) {
+            this.version = version;
+            this.failure = failure;
+        }
+
+        private ExportWriter(long version) {
+            this.version = version;
+            try {
+                for (Format f : Format.values()) {
+                    Path tmp = dir.resolve(fileName(version, f) + ".tmp");
+                    tmpFiles.put(f, tmp);
+                    writers.put(f, new BufferedWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8), 64 * 1024));
+                }
+                writeHeader(writers.get(Format.CSV), ',');
+                writeHeader(writers.get(Format.TSV), '\t');
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /** 追加一行到所有格式 */
+        void write(FeedItem row) {
+            if (failure != null) return;
+            try {
+                Writer nd = writers.get(Format.NDJSON);
+                mapper.writeValue(nd, row);
+                nd.write('\n');
+                writeRow(writers.get(Format.CSV), row, ',');
+                writeRow(writers.get(Format.TSV), row, '\t');
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /** 关闭并原子改名；失败返回 null */
+        Export commit() {
+            if (failure != null) {
+                abort();
+                return null;
+            }
+            try {
+                for (Writer w : writers.values()) w.close();
+                Map<Format, Path> finals = new EnumMap<>(Format.class);
+                for (Map.Entry<Format, Path> e : tmpFiles.entrySet()) {
+                    Path target = dir.resolve(fileName(version, e.getKey()));
+                    Files.move(e.getValue(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    finals.put(e.getKey(), target);
+                }
+                prune(version);
+                return new Export(version, finals);
+            } catch (IOException e) {
+                fail(e);
+                return null;
+            }
+        }
+
+        /** 丢弃本次导出（刷新失败时调用） */
+        void abort() {
+            closeQuietly();
+            for (Path p : tmpFiles.values()) {
+                try { Files.deleteIfExists(p); } catch (IOException ignore) {}
+            }
+        }
+
+        private void fail(IOException e) {
+            if (failure == null) {
+                failure = e;
+                System.out.println("[FeedExport] export v" + version + " failed: " + e.getMessage());
+            }
+            abort();
+        }
+
+        private void closeQuietly() {
+            for (Writer w : writers.values()) {
+                try { w.close(); } catch (IOException ignore) {}
+            }
+        }
+    }
+
+    /** 删掉比最近 keepVersions 个版本更旧的文件（以及残留的 .tmp） */
+    private void prune(long currentVersion) {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> {
+                Matcher m = FILE_NAME.matcher(p.getFileName().toString());
+                if (!m.matches()) return;
+                long v = Long.parseLong(m.group(1));
+                boolean tmp = m.group(3) != null;
+                if (v <= currentVersion - keepVersions || (tmp && v < currentVersion)) {
+                    try { Files.deleteIfExists(p); } catch (IOException ignore) {}
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("[FeedExport] prune failed: " + e.getMessage());
+        }
+    }
+
+    private static String fileName(long version, Format f) {
+        return "feed-v" + version + "." + f.ext;
+    }
+
+    // ============ 表格格式 ============
+
+    private static void writeHeader(Writer w, char sep) throws IOException {
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            if (i > 0) w.write(sep);
+            w.write(COLUMNS.get(i));
+        }
+        w.write('\n');
+    }
+
+    private void writeRow(Writer w, FeedItem row, char sep) throws IOException {
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            if (i > 0) w.write(sep);
+            String v = cell(row.field(COLUMNS.get(i)));
+            if (sep == ',') writeCsvCell(w, v);
+            else writeTsvCell(w, v);
+        }
+        w.write('\n');
+    }
+
+    /** 单元格文本：价格对象 → "12.00 USD"，列表 → 逗号拼接，其他对象 → JSON */
+    private String cell(Object v) throws IOException {
+        if (v == null) return "";
+        if (v instanceof FeedItem.Money) {
+            FeedItem.Money m = (FeedItem.Money) v;
+            if (m.isEmpty()) return "{}";
+            String a = m.getAmount() != null
+                    ? String.format(Locale.ROOT, "%.2f", m.getAmount())
+                    : "null";
+            return a + " " + m.getCurrency();
+        }
+        if (v instanceof Map) return mapper.writeValueAsString(v);
+        if (v instanceof Collection) {
+            StringJoiner j = new StringJoiner(",");
+            for (Object o : (Collection<?>) v) j.add(String.valueOf(o));
+            return j.toString();
+        }
+        return String.valueOf(v);
+    }
+
+    /** RFC 4180：含分隔符/引号/换行时整体加引号，内部引号双写 */
+    private static void writeCsvCell(Writer w, String v) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < v.length() && !quote; i++) {
+            char c = v.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            w.write(v);
+            return;
+        }
+        w.write('"');
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            if (c == '"') w.write('"');
+            w.write(c);
+        }
+        w.write('"');
+    }
+
+    /** TSV 没有转义机制：制表符与换行替换为空格 */
+    private static void writeTsvCell(Writer w, String v) throws IOException {
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            w.write(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+}
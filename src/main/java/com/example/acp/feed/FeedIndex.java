@@ -0,0 +1,161 @@
+package com.example.acp.feed;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 快照内的过滤索引（随 FeedSnapshot 一起在 refreshFeed 时构建，之后只读）：
+ * - availability / product_category / item_group_id → 行下标（升序）
+ * - updated_since：按更新时间排序的行下标 + 对应时间，二分定位；按行下标排好的结果按阈值缓存，
+ *   同一 updated_since 翻页时不再重复拷贝排序
+ *
+ * 查询时只在下标数组上做交集，不再逐行扫描 feed。
+ */
+final class FeedIndex {
+
+    private static final int[] NONE = new int[0];
+    private static final int SINCE_CACHE_MAX = 16;   // 同时在翻页的不同 updated_since 阈值通常只有几个
+
+    private final int size;
+    private final Map<String, int[]> byAvailability;
+    private final Map<String, int[]> byCategory;
+    private final Map<String, int[]> byGroup;
+    private final int[] byUpdated;        // 行下标，按 updatedAt 升序
+    private final long[] updatedSorted;   // 与 byUpdated 一一对应的时间（毫秒）
+    private final long[] updatedByRow;    // 按行下标排列的时间；没有时间信息时为 null
+    private final ConcurrentHashMap<Long, int[]> sinceCache = new ConcurrentHashMap<>();
+
+    private FeedIndex(int size, Map<String, int[]> byAvailability, Map<String, int[]> byCategory,
+                      Map<String, int[]> byGroup, int[] byUpdated, long[] updatedSorted, long[] updatedByRow) {
+        this.size = size;
+        this.byAvailability = byAvailability;
+        this.byCategory = byCategory;
+        this.byGroup = byGroup;
+        this.byUpdated = byUpdated;
+        this.updatedSorted = updatedSorted;
+        this.updatedByRow = updatedByRow;
+    }
+
+    static FeedIndex empty() {
+        return new FeedIndex(0, Map.of(), Map.of(), Map.of(), NONE, new long[0], null);
+    }
+
+    /** rowUpdatedAt 与 rows 等长；null 表示没有时间信息（updated_since 过滤恒为空） */
+    static FeedIndex build(List<FeedItem> rows, long[] rowUpdatedAt) {
+        Map<String, List<Integer>> avail = new HashMap<>();
+        Map<String, List<Integer>> cat = new HashMap<>();
+        Map<String, List<Integer>> group = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            FeedItem row = rows.get(i);
+            add(avail, lower(row.getAvailability()), i);
+            add(cat, row.getProductCategory(), i);
+            add(group, row.getItemGroupId(), i);
+        }
+
+        int[] byUpdated = NONE;
+        long[] updatedSorted = new long[0];
+        long[] updatedByRow = null;
+        if (rowUpdatedAt != null && rowUpdatedAt.length == rows.size()) {
+            updatedByRow = rowUpdatedAt.clone();
+            Integer[] order = new Integer[rows.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparingLong(i -> rowUpdatedAt[i]));
+            byUpdated = new int[order.length];
+            updatedSorted = new long[order.length];
+            for (int i = 0; i < order.length; i++) {
+                byUpdated[i] = order[i];
+                updatedSorted[i] = rowUpdatedAt[order[i]];
+            }
+        }
+        return new FeedIndex(rows.size(), freeze(avail), freeze(cat), freeze(group),
+                byUpdated, updatedSorted, updatedByRow);
+    }
+
+    /** 每行的更新时间（与 build 的 rowUpdatedAt 相同，只读）；建索引时没有时间信息则返回 null */
+    long[] rowUpdatedAt() {
+        return updatedByRow;
+    }
+
+    /**
+     * 按条件选出行下标（升序）；所有条件都为 null 时返回 null，表示“全部行”。
+     * availability 大小写不敏感，其余精确匹配。
+     */
+    int[] select(String availability, String category, String groupId, Long updatedSince) {
+        List<int[]> parts = new ArrayList<>(4);
+        if (availability != null) parts.add(byAvailability.getOrDefault(availability.toLowerCase(Locale.ROOT), NONE));
+        if (category != null) parts.add(byCategory.getOrDefault(category, NONE));
+        if (groupId != null) parts.add(byGroup.getOrDefault(groupId, NONE));
+        if (updatedSince != null) parts.add(updatedSince(updatedSince));
+        if (parts.isEmpty()) return null;
+
+        parts.sort(Comparator.comparingInt(a -> a.length));
+        int[] acc = parts.get(0);
+        for (int i = 1; i < parts.size() && acc.length > 0; i++) acc = intersect(acc, parts.get(i));
+        return acc;
+    }
+
+    int size() { return size; }
+
+    /** updatedAt >= since 的行下标（升序，只读）；同一阈值只计算一次 */
+    private int[] updatedSince(long since) {
+        int[] hit = sinceCache.get(since);
+        if (hit != null) return hit;
+        int[] out = computeUpdatedSince(since);
+        if (sinceCache.size() >= SINCE_CACHE_MAX) sinceCache.clear();
+        sinceCache.putIfAbsent(since, out);
+        return out;
+    }
+
+    /** 二分出命中行数 k；k 小时拷贝尾部再排序，k 大时直接按行下标顺序扫一遍（O(n)，不排序） */
+    private int[] computeUpdatedSince(long since) {
+        int lo = 0, hi = updatedSorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (updatedSorted[mid] < since) lo = mid + 1; else hi = mid;
+        }
+        int k = byUpdated.length - lo;
+        if (k == 0) return NONE;
+        if (k < size / 8) {
+            int[] out = Arrays.copyOfRange(byUpdated, lo, byUpdated.length);
+            Arrays.sort(out);
+            return out;
+        }
+        int[] out = new int[k];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (updatedByRow[i] >= since) out[n++] = i;
+        }
+        return out;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[n++] = a[i]; i++; j++; }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private static void add(Map<String, List<Integer>> m, String key, int pos) {
+        if (key == null || key.isEmpty()) return;
+        m.computeIfAbsent(key, k -> new ArrayList<>()).add(pos);
+    }
+
+    private static Map<String, int[]> freeze(Map<String, List<Integer>> m) {
+        Map<String, int[]> out = new HashMap<>(Math.max(16, m.size() * 4 / 3 + 1));
+        for (Map.Entry<String, List<Integer>> e : m.entrySet()) {
+            List<Integer> l = e.getValue();
+            int[] arr = new int[l.size()];
+            for (int i = 0; i < arr.length; i++) arr[i] = l.get(i);
+            out.put(e.getKey(), arr);
+        }
+        return Collections.unmodifiableMap(out);
+    }
+
+    private static String lower(String s) {
+        return s == null ? null : s.toLowerCase(Locale.ROOT);
+    }
+}
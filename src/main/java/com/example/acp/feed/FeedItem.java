@@ -0,0 +1,341 @@
+package com.example.acp.feed;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 紧凑的 feed 行：
+ * - Merchant：全店共享的商家/政策/配送块（整个进程一份）
+ * - Product：同一商品所有变体共享的块（标题、描述、图片、父级价格/库存……）
+ * - FeedItem 本身只存变体专属字段（id、offer_id、覆盖的价格/库存、规格）
+ *
+ * 序列化输出与原先 LinkedHashMap 行逐字节一致（字段顺序也一致），见 {@link Serializer}。
+ */
+@JsonSerialize(using = FeedItem.Serializer.class)
+public final class FeedItem {
+
+    /** 行的来源：真实变体 / 按 Size 兜底展开 / 父级单品（决定变体专属字段的输出顺序） */
+    enum Kind { VARIANT, SIZE_VARIANT, SINGLE }
+
+    final Product product;
+    final Kind kind;
+    final String id;
+    final String offerId;
+    final String mpn;                  // 变体 SKU（null = 沿用父级）
+    final Money price;                 // 变体价格（null = 沿用父级）
+    final Money salePrice;             // 变体促销价（null = 沿用父级）
+    final String availability;         // 变体库存状态（null = 沿用父级）
+    final Integer inventoryQuantity;   // 变体库存数（null = 沿用父级）
+    final Map<String, String> choices; // 归一化规格：size / color / 其他（保持原顺序）
+    final String variantId;            // Wix 变体 id（仅真实变体行；库存覆盖层据此对应，不输出）
+
+    FeedItem(Product product, Kind kind, String id, String offerId, String mpn, Money price, Money salePrice,
+             String availability, Integer inventoryQuantity, Map<String, String> choices) {
+        this(product, kind, id, offerId, mpn, price, salePrice, availability, inventoryQuantity, choices, null);
+    }
+
+    FeedItem(Product product, Kind kind, String id, String offerId, String mpn, Money price, Money salePrice,
+             String availability, Integer inventoryQuantity, Map<String, String> choices, String variantId) {
+        this.product = product;
+        this.kind = kind;
+        this.id = id;
+        this.offerId = offerId;
+        this.mpn = mpn;
+        this.price = price;
+        this.salePrice = salePrice;
+        this.availability = availability;
+        this.inventoryQuantity = inventoryQuantity;
+        this.choices = choices == null || choices.isEmpty() ? Map.of() : choices;
+        this.variantId = variantId;
+    }
+
+    /** 覆盖库存状态/数量后的副本（其余字段共享）；与当前值相同时返回自身 */
+    FeedItem withStock(String availability, int inventoryQuantity) {
+        if (availability.equals(getAvailability()) && inventoryQuantity == getInventoryQuantity()) return this;
+        return new FeedItem(product, kind, id, offerId, mpn, price, salePrice,
+                availability, inventoryQuantity, choices, variantId);
+    }
+
+    // ============ 读取（变体覆盖优先，其次父级） ============
+
+    public String getId() { return id; }
+    public String getOfferId() { return offerId; }
+    public Product getProduct() { return product; }
+    public String getMpn() { return mpn != null ? mpn : product.mpn; }
+    public Money getPrice() { return price != null ? price : product.price; }
+    public Money getSalePrice() { return salePrice != null ? salePrice : product.salePrice; }
+    public String getAvailability() { return availability != null ? availability : product.availability; }
+    public int getInventoryQuantity() { return inventoryQuantity != null ? inventoryQuantity : product.inventoryQuantity; }
+    public String getProductCategory() { return product.productCategory; }
+
+    /** 单品行没有分组 */
+    public String getItemGroupId() { return kind == Kind.SINGLE ? null : product.groupId; }
+
+    public String getSize() { return choices.get("size"); }
+    public String getColor() { return choices.get("color"); }
+
+    /** size / color 以外的规格；没有时返回 null */
+    public Map<String, String> getAttributes() {
+        Map<String, String> attrs = null;
+        for (Map.Entry<String, String> e : choices.entrySet()) {
+            if ("size".equals(e.getKey()) || "color".equals(e.getKey())) continue;
+            if (attrs == null) attrs = new LinkedHashMap<>();
+            attrs.put(e.getKey(), e.getValue());
+        }
+        return attrs;
+    }
+
+    /** 按 feed 字段名取值（导出表格用）；不存在的字段返回 null */
+    Object field(String name) {
+        Merchant m = product.merchant;
+        switch (name) {
+            case "id":                      return id;
+            case "offer_id":                return offerId;
+            case "item_group_id":           return getItemGroupId();
+            case "item_group_title":        return kind == Kind.SINGLE ? null : product.title;
+            case "title":                   return product.title;
+            case "description":             return product.description;
+            case "link":                    return product.link;
+            case "mpn":                     return getMpn();
+            case "condition":               return m.condition;
+            case "brand":                   return m.brand;
+            case "material":                return m.material;
+            case "product_category":        return product.productCategory;
+            case "weight":                  return product.weight;
+            case "size":                    return getSize();
+            case "color":                   return getColor();
+            case "attributes":              return getAttributes();
+            case "image_link":              return product.imageLink;
+            case "additional_image_link":   return product.additionalImageLinks;
+            case "price":                   return getPrice();
+            case "sale_price":              return getSalePrice();
+            case "sale_price_effective_date": return product.salePriceEffectiveDate;
+            case "availability":            return getAvailability();
+            case "availability_date":       return product.availabilityDate;
+            case "inventory_quantity":      return getInventoryQuantity();
+            case "shipping":                return m.shipping;
+            case "seller_name":             return m.sellerName;
+            case "seller_url":              return m.sellerUrl;
+            case "return_policy":           return m.returnPolicy;
+            case "return_window":           return m.returnWindow;
+            case "seller_privacy_policy":   return m.privacyPolicy;
+            case "seller_tos":              return m.tos;
+            case "enable_search":           return m.enableSearch;
+            case "enable_checkout":         return m.enableCheckout;
+            default:                        return null;
+        }
+    }
+
+    // ============ 共享块 ============
+
+    /** 全店共享：商家信息、退货/隐私/条款、配送、默认品牌材质（可选项为 null 表示不输出） */
+    public static final class Merchant {
+        final String enableSearch = "true";
+        final String enableCheckout = "true";
+        final String condition = "new";
+        final String brand;
+        final String material;
+        final List<String> shipping;
+        final String sellerName;
+        final String sellerUrl;
+        final String returnPolicy;
+        final int returnWindow;
+        final String privacyPolicy;
+        final String tos;
+
+        Merchant(String brand, String material, List<String> shipping, String sellerName, String sellerUrl,
+                 String returnPolicy, int returnWindow, String privacyPolicy, String tos) {
+            this.brand = brand;
+            this.material = material;
+            this.shipping = List.copyOf(shipping);
+            this.sellerName = sellerName;
+            this.sellerUrl = sellerUrl;
+            this.returnPolicy = returnPolicy;
+            this.returnWindow = returnWindow;
+            this.privacyPolicy = privacyPolicy;
+            this.tos = tos;
+        }
+    }
+
+    /** 同一商品所有行共享（可选项为 null 表示不输出） */
+    public static final class Product {
+        final Merchant merchant;
+        final String productId;               // Wix 原始商品 id
+        final String groupId;                 // item_group_id
+        final String title;
+        final String description;
+        final String link;
+        final String mpn;                     // 父级 SKU
+        final String productCategory;
+        final String weight;
+        final String imageLink;
+        final List<String> additionalImageLinks;
+        final Money price;
+        final Money salePrice;
+        final String salePriceEffectiveDate;
+        final String availability;
+        final String availabilityDate;
+        final int inventoryQuantity;
+
+        Product(Merchant merchant, String productId, String groupId, String title, String description, String link,
+                String mpn, String productCategory, String weight, String imageLink, List<String> additionalImageLinks,
+                Money price, Money salePrice, String salePriceEffectiveDate,
+                String availability, String availabilityDate, int inventoryQuantity) {
+            this.merchant = merchant;
+            this.productId = productId;
+            this.groupId = groupId;
+            this.title = title;
+            this.description = description;
+            this.link = link;
+            this.mpn = mpn;
+            this.productCategory = productCategory;
+            this.weight = weight;
+            this.imageLink = imageLink;
+            this.additionalImageLinks = additionalImageLinks == null || additionalImageLinks.isEmpty()
+                    ? null : List.copyOf(additionalImageLinks);
+            this.price = price;
+            this.salePrice = salePrice;
+            this.salePriceEffectiveDate = salePriceEffectiveDate;
+            this.availability = availability;
+            this.availabilityDate = availabilityDate;
+            this.inventoryQuantity = inventoryQuantity;
+        }
+
+        public String getProductId() { return productId; }
+    }
+
+    /** 金额：{ "amount": 10.0, "currency": "USD" }；EMPTY 输出为 {}（Wix 未给价格时） */
+    public static final class Money {
+        static final Money EMPTY = new Money(null, null, true);
+
+        final Double amount;
+        final String currency;
+        private final boolean empty;
+
+        private Money(Double amount, String currency, boolean empty) {
+            this.amount = amount;
+            this.currency = currency;
+            this.empty = empty;
+        }
+
+        static Money of(Double amount, String currency) {
+            return new Money(amount, currency, false);
+        }
+
+        public Double getAmount() { return amount; }
+        public String getCurrency() { return currency; }
+        public boolean isEmpty() { return empty; }
+    }
+
+    // ============ 序列化 ============
+
+    /** 按原 LinkedHashMap 行的插入顺序输出字段 */
+    static final class Serializer extends StdSerializer<FeedItem> {
+
+        Serializer() {
+            super(FeedItem.class);
+        }
+
+        @Override
+        public void serialize(FeedItem it, JsonGenerator g, SerializerProvider provider) throws IOException {
+            Product p = it.product;
+            Merchant m = p.merchant;
+            g.writeStartObject();
+
+            // ---- 父级（基底）字段 ----
+            g.writeStringField("enable_search", m.enableSearch);
+            g.writeStringField("enable_checkout", m.enableCheckout);
+            g.writeStringField("title", p.title);
+            g.writeStringField("description", p.description);
+            g.writeStringField("link", p.link);
+            if (p.mpn != null) g.writeStringField("mpn", it.getMpn());
+            g.writeStringField("condition", m.condition);
+            g.writeStringField("brand", m.brand);
+            g.writeStringField("material", m.material);
+            g.writeStringField("product_category", p.productCategory);
+            g.writeStringField("weight", p.weight);
+            if (p.imageLink != null) g.writeStringField("image_link", p.imageLink);
+            if (p.additionalImageLinks != null) writeStrings(g, "additional_image_link", p.additionalImageLinks);
+            writeMoney(g, "price", it.getPrice());
+            if (p.salePrice != null) {
+                writeMoney(g, "sale_price", it.getSalePrice());
+                g.writeStringField("sale_price_effective_date", p.salePriceEffectiveDate);
+            }
+            g.writeStringField("availability", it.getAvailability());
+            if (p.availabilityDate != null) g.writeStringField("availability_date", p.availabilityDate);
+            g.writeNumberField("inventory_quantity", it.getInventoryQuantity());
+            writeStrings(g, "shipping", m.shipping);
+            g.writeStringField("seller_name", m.sellerName);
+            g.writeStringField("seller_url", m.sellerUrl);
+            if (m.returnPolicy != null) g.writeStringField("return_policy", m.returnPolicy);
+            g.writeNumberField("return_window", m.returnWindow);
+            if (m.privacyPolicy != null) g.writeStringField("seller_privacy_policy", m.privacyPolicy);
+            if (m.tos != null) g.writeStringField("seller_tos", m.tos);
+
+            // ---- 行专属字段 ----
+            switch (it.kind) {
+                case VARIANT:
+                    // 父级没有的字段由变体新增，排在基底字段之后
+                    if (p.mpn == null && it.mpn != null) g.writeStringField("mpn", it.mpn);
+                    if (p.salePrice == null && it.salePrice != null) writeMoney(g, "sale_price", it.salePrice);
+                    writeChoices(g, it.choices);
+                    g.writeStringField("item_group_id", p.groupId);
+                    g.writeStringField("item_group_title", p.title);
+                    g.writeStringField("id", it.id);
+                    g.writeStringField("offer_id", it.offerId);
+                    break;
+                case SIZE_VARIANT:
+                    g.writeStringField("id", it.id);
+                    g.writeStringField("item_group_id", p.groupId);
+                    g.writeStringField("item_group_title", p.title);
+                    g.writeStringField("size", it.getSize());
+                    g.writeStringField("offer_id", it.offerId);
+                    break;
+                default:
+                    g.writeStringField("id", it.id);
+                    g.writeStringField("offer_id", it.offerId);
+            }
+            g.writeEndObject();
+        }
+
+        /** size / color 直接成字段，其余规格按出现顺序收进 attributes（位置在第一个其他规格处） */
+        private static void writeChoices(JsonGenerator g, Map<String, String> choices) throws IOException {
+            boolean attrsWritten = false;
+            for (Map.Entry<String, String> e : choices.entrySet()) {
+                String k = e.getKey();
+                if ("size".equals(k) || "color".equals(k)) {
+                    g.writeStringField(k, e.getValue());
+                } else if (!attrsWritten) {
+                    g.writeObjectFieldStart("attributes");
+                    for (Map.Entry<String, String> a : choices.entrySet()) {
+                        if ("size".equals(a.getKey()) || "color".equals(a.getKey())) continue;
+                        g.writeStringField(a.getKey(), a.getValue());
+                    }
+                    g.writeEndObject();
+                    attrsWritten = true;
+                }
+            }
+        }
+
+        private static void writeMoney(JsonGenerator g, String field, Money money) throws IOException {
+            g.writeObjectFieldStart(field);
+            if (!money.empty) {
+                g.writeFieldName("amount");
+                if (money.amount == null) g.writeNull(); else g.writeNumber(money.amount);
+                g.writeStringField("currency", money.currency);
+            }
+            g.writeEndObject();
+        }
+
+        private static void writeStrings(JsonGenerator g, String field, List<String> values) throws IOException {
+            g.writeArrayFieldStart(field);
+            for (String v : values) g.writeString(v);
+            g.writeEndArray();
+        }
+    }
+}
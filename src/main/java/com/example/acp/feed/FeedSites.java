@@ -0,0 +1,206 @@
+package com.example.acp.feed;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多站点 feed：主站点（wix.site.id / wix.api.key，即 ProductFeedService 这个 bean）之外，
+ * 通过 WIX_SITES 配置更多 Wix 店铺，格式（分号或换行分隔）：
+ *
+ *   名称|siteId|apiKey[|刷新间隔分钟]
+ *
+ * - 每个站点一个独立的 ProductFeedService：各自的快照、价格索引、增量缓存、导出目录（FEED_EXPORT_DIR/sites/名称）
+ * - 额外站点在独立的调度线程池上刷新（池大小 = FEED_SITES_PARALLELISM，即同时刷新的站点数上限），
+ *   主站点仍由 Spring 调度器刷新；某个站点慢或失败只占它自己的线程、保留它自己的上一版快照
+ * - 合并视图：所有站点的行按配置顺序拼接；任一站点发布新快照后在单独的合并线程上重建（连续多次发布合并成一次），
+ *   经 AtomicReference 发布，读路径不加锁、不做计算
+ */
+@Service
+public class FeedSites {
+
+    private final ProductFeedService primary;
+    private final Map<String, ProductFeedService> sites = new LinkedHashMap<>();   // 含主站点，主站点在最前
+    private final Map<String, Long> refreshMinutes = new HashMap<>();
+    private final long inventoryRefreshMs;
+    private final ScheduledExecutorService scheduler;
+
+    // 合并视图：对应的各站点版本 + 合并快照（合并版本号单调递增）；mergedSeq / mergedFrom 只在合并线程上读写
+    private long mergedSeq = 0;
+    private List<Long> mergedFrom = List.of();
+    private final AtomicReference<FeedSnapshot> merged = new AtomicReference<>();
+    private final AtomicBoolean mergePending = new AtomicBoolean();
+    private final ExecutorService mergeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "feed-sites-merge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public FeedSites(
+            ProductFeedService primary,
+            WixClient wixClient,
+            @Value("${WIX_SITES:}") String sitesConfig,
+            @Value("${FEED_SITES_PARALLELISM:4}") int parallelism,
+            @Value("${FEED_SITES_REFRESH_MINUTES:15}") long defaultRefreshMinutes,
+            @Value("${INVENTORY_REFRESH_MS:60000}") long inventoryRefreshMs
+    ) {
+        this.primary = primary;
+        this.inventoryRefreshMs = Math.max(1000, inventoryRefreshMs);
+        sites.put(primary.getSite(), primary);
+
+        for (String entry : sitesConfig.split("[;\r\n]+")) {
+            if (entry.isBlank()) continue;
+            String[] f = entry.trim().split("\\|");
+            if (f.length < 3 || f[0].isBlank() || f[1].isBlank() || f[2].isBlank()) {
+                System.out.println("[FeedSites] ignore malformed site entry (expect name|siteId|apiKey[|minutes]): " + f[0]);
+                continue;
+            }
+            String name = f[0].trim();
+            if (sites.containsKey(name)) {
+                System.out.println("[FeedSites] ignore duplicate site name: " + name);
+                continue;
+            }
+            long minutes = defaultRefreshMinutes;
+            if (f.length > 3) {
+                try { minutes = Long.parseLong(f[3].trim()); } catch (NumberFormatException ignore) {}
+            }
+            Path dir = Path.of(ProductFeedService.EXPORT_DIR, "sites", name);
+            sites.put(name, new ProductFeedService(name, wixClient.forSite(f[1].trim(), f[2].trim()),
+                    dir, dir.resolve("feed-snapshot.ndjson.gz")));
+            refreshMinutes.put(name, Math.max(1, minutes));
+        }
+
+        rebuildMerged();
+        for (ProductFeedService svc : sites.values()) svc.addPublishListener(this::requestMerge);
+
+        AtomicInteger seq = new AtomicInteger();
+        this.scheduler = refreshMinutes.isEmpty() ? null : Executors.newScheduledThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "feed-site-refresh-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** 额外站点：先从磁盘恢复，再按各自间隔排上全量刷新与库存轮询 */
+    @PostConstruct
+    public void start() {
+        for (Map.Entry<String, Long> e : refreshMinutes.entrySet()) {
+            ProductFeedService svc = sites.get(e.getKey());
+            svc.restoreSnapshot();
+            // 与主站点的 @Scheduled 一致：全量刷新按固定频率（慢的一轮不会把后续都往后推），库存轮询按固定间隔
+            scheduler.scheduleAtFixedRate(svc::refreshFeed, 0, e.getValue(), TimeUnit.MINUTES);
+            scheduler.scheduleWithFixedDelay(svc::refreshInventory, inventoryRefreshMs, inventoryRefreshMs, TimeUnit.MILLISECONDS);
+        }
+        if (!refreshMinutes.isEmpty()) {
+            System.out.println("[FeedSites] sites: " + sites.keySet());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) scheduler.shutdownNow();
+        mergeExecutor.shutdownNow();
+        for (ProductFeedService svc : sites.values()) {
+            if (svc != primary) svc.shutdown();
+        }
+    }
+
+    /** 按名称取站点；name 为空时返回主站点，不认识返回 null */
+    public ProductFeedService site(String name) {
+        if (name == null || name.isBlank()) return primary;
+        return sites.get(name.trim());
+    }
+
+    public Collection<ProductFeedService> all() {
+        return Collections.unmodifiableCollection(sites.values());
+    }
+
+    /** 所有站点按配置顺序拼接的合并快照（最近一次重建的结果，可能比刚发布的站点快照晚一个合并周期） */
+    public FeedSnapshot mergedSnapshot() {
+        return merged.get();
+    }
+
+    /** 站点发布后排一次重建；已有排队中的重建就不再排（它读到的是最新的站点快照） */
+    private void requestMerge() {
+        if (mergePending.compareAndSet(false, true)) {
+            try {
+                mergeExecutor.execute(this::rebuildMerged);
+            } catch (RejectedExecutionException e) {
+                mergePending.set(false);     // 已关闭
+            }
+        }
+    }
+
+    /** 在合并线程上（构造时在调用线程上）重建合并快照；各站点版本没变时沿用上次的结果 */
+    private void rebuildMerged() {
+        mergePending.set(false);             // 先清标记再读快照：之后的发布会再排一次，不会漏
+        try {
+            List<FeedSnapshot> snaps = new ArrayList<>(sites.size());
+            List<Long> versions = new ArrayList<>(sites.size());
+            for (ProductFeedService svc : sites.values()) {
+                FeedSnapshot s = svc.getSnapshot();
+                snaps.add(s);
+                versions.add(s.getVersion());
+            }
+            if (merged.get() != null && versions.equals(mergedFrom)) return;
+            merged.set(FeedSnapshot.merge(++mergedSeq, snaps, OffsetDateTime.now(ZoneOffset.UTC).toString()));
+            mergedFrom = versions;
+        } catch (Exception e) {
+            System.out.println("[FeedSites] merge failed, keeping previous merged view: " + e);
+        }
+    }
+
+    /** 按 feed 行 id 查价格/库存：依次查各站点（主站点优先） */
+    public FeedSnapshot.PriceEntry findPrice(String id) {
+        for (ProductFeedService svc : sites.values()) {
+            FeedSnapshot.PriceEntry e = svc.findPrice(id);
+            if (e != null) return e;
+        }
+        return null;
+    }
+
+    /** 下单扣减：扣在第一个有这一行的站点上 */
+    public FeedSnapshot.PriceEntry decrementStock(String id, int qty) {
+        for (ProductFeedService svc : sites.values()) {
+            if (svc.getSnapshot().findPrice(id) != null) return svc.decrementStock(id, qty);
+        }
+        return null;
+    }
+
+    /** 商品变更通知不带站点信息：交给所有站点，不属于该站点的商品在 Wix 返回 404，不会产生新版本 */
+    public void refreshProductAsync(String productId) {
+        for (ProductFeedService svc : sites.values()) svc.refreshProductAsync(productId);
+    }
+
+    /** 各站点当前状态（管理接口用） */
+    public List<Map<String, Object>> status() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (ProductFeedService svc : sites.values()) {
+            FeedSnapshot s = svc.getSnapshot();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("site", svc.getSite());
+            m.put("primary", svc == primary);
+            m.put("version", s.getVersion());
+            m.put("rows", s.getProducts().size());
+            m.put("generated_at", s.getGeneratedAt());
+            Long minutes = refreshMinutes.get(svc.getSite());
+            if (minutes != null) m.put("refresh_minutes", minutes);
+            out.add(m);
+        }
+        return out;
+    }
+}
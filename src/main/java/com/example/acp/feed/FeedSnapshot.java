@@ -0,0 +1,310 @@
+package com.example.acp.feed;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 一次 refreshFeed 产出的不可变快照：
+ * - version：单调递增的快照版本号（进程内）
+ * - products：feed 行（只读，FeedItem 共享商家/商品块）
+ * - generatedAt：生成时间
+ * - priceIndex：id → 价格/库存，建快照时一次算好，查询 O(1) 且不再分配
+ * - json / gzipJson：整份 feed 响应预先序列化好的字节（及其 gzip 版本），拉取时直接写出
+ * - etag / lastModified：供 If-None-Match / If-Modified-Since 协商
+ * - export：同一版本落盘的 NDJSON/CSV/TSV 文件（导出失败时为 null）
+ * - index：availability / product_category / item_group_id / updated_since 过滤索引
+ * - rowHashes：每行序列化内容的哈希（与 products 对齐），供相邻版本做行级 diff
+ * - rowStart / rowEnd：每行在 json 里的字节区间，只换库存的新版本（withStock）原样复制未变的行
+ *
+ * 整个对象通过一个 AtomicReference 发布，读方拿到的 feed 行与索引永远是同一版本。
+ */
+public final class FeedSnapshot {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] JSON_HEAD = "{\"products\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_MID = "],\"generated_at\":".getBytes(StandardCharsets.UTF_8);
+
+    private final long version;
+    private final List<FeedItem> products;
+    private final String generatedAt;
+    private final Map<String, PriceEntry> priceIndex;
+    private final FeedExporter.Export export;
+    private final FeedIndex index;
+    private final long lastModified;
+    private final byte[] json;
+    private final byte[] gzipJson;
+    private final String etag;
+    private final long[] rowHashes;
+    private final int[] rowStart;
+    private final int[] rowEnd;
+
+    /** reuse 不为 null 时，与 reuse 同位置且是同一个 FeedItem 实例的行直接复制其字节与哈希，不重新序列化 */
+    private FeedSnapshot(long version, List<FeedItem> products, String generatedAt,
+                         Map<String, PriceEntry> priceIndex, FeedExporter.Export export, FeedIndex index,
+                         FeedSnapshot reuse) {
+        this.version = version;
+        this.products = products;
+        this.generatedAt = generatedAt;
+        this.priceIndex = priceIndex;
+        this.export = export;
+        this.index = index;
+        this.lastModified = System.currentTimeMillis();
+
+        // 与 getFeedResponse() 相同的结构：{ "products": [...], "generated_at": "..." }
+        // 逐行序列化后拼接（与整体 writeValueAsBytes 逐字节一致），顺带算出每行的内容哈希
+        this.rowHashes = new long[products.size()];
+        this.rowStart = new int[products.size()];
+        this.rowEnd = new int[products.size()];
+        try {
+            int sizeHint = reuse != null ? reuse.json.length + 1024 : Math.max(256, products.size() * 1024);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint);
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            out.write(JSON_HEAD);
+            for (int i = 0; i < products.size(); i++) {
+                FeedItem item = products.get(i);
+                if (i > 0) out.write(',');
+                rowStart[i] = out.size();
+                if (reuse != null && i < reuse.products.size() && reuse.products.get(i) == item) {
+                    out.write(reuse.json, reuse.rowStart[i], reuse.rowEnd[i] - reuse.rowStart[i]);
+                    rowHashes[i] = reuse.rowHashes[i];
+                } else {
+                    byte[] row = MAPPER.writeValueAsBytes(item);
+                    out.write(row);
+                    rowHashes[i] = hash64(md.digest(row));
+                }
+                rowEnd[i] = out.size();
+            }
+            out.write(JSON_MID);
+            out.write(MAPPER.writeValueAsBytes(generatedAt));
+            out.write('}');
+            this.json = out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("serialize feed snapshot failed", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.gzipJson = gzip(json);
+        this.etag = "\"" + sha256Hex(json, 16) + "\"";
+    }
+
+    /** 空快照（启动后首次刷新完成前使用） */
+    static FeedSnapshot empty(String generatedAt) {
+        return new FeedSnapshot(0L, List.of(), generatedAt, Map.of(), null, FeedIndex.empty(), null);
+    }
+
+    /**
+     * 由映射好的 feed 行构建快照，并同时建好价格索引与过滤索引。
+     * rowUpdatedAt 与 rows 等长，记录每行所属商品的更新时间（毫秒），用于 updated_since。
+     */
+    static FeedSnapshot of(long version, List<FeedItem> rows, long[] rowUpdatedAt,
+                           String generatedAt, FeedExporter.Export export) {
+        return build(version, rows, rowUpdatedAt, generatedAt, export, null);
+    }
+
+    /**
+     * 只换库存的新版本：rows 与 prev 的行一一对应（同一批商品、同样顺序），没变的行就是 prev 里的同一个实例。
+     * 未变的行直接复制上一版的序列化字节与哈希；更新时间沿用上一版，导出文件也沿用上一版的。
+     */
+    static FeedSnapshot withStock(long version, FeedSnapshot prev, List<FeedItem> rows, String generatedAt) {
+        if (rows.size() != prev.products.size()) throw new IllegalArgumentException("rows do not match previous snapshot");
+        return build(version, rows, prev.index.rowUpdatedAt(), generatedAt, prev.export, prev);
+    }
+
+    private static FeedSnapshot build(long version, List<FeedItem> rows, long[] rowUpdatedAt, String generatedAt,
+                                      FeedExporter.Export export, FeedSnapshot reuse) {
+        Map<String, PriceEntry> index = new HashMap<>(Math.max(16, rows.size() * 4 / 3 + 1));
+        for (FeedItem row : rows) {
+            if (row.getId() == null) continue;
+            // 与旧的线性扫描一致：同 id 以第一条为准
+            index.putIfAbsent(row.getId(), PriceEntry.fromRow(row));
+        }
+        return new FeedSnapshot(version, Collections.unmodifiableList(rows), generatedAt,
+                Collections.unmodifiableMap(index), export, FeedIndex.build(rows, rowUpdatedAt), reuse);
+    }
+
+    /**
+     * 多站点合并视图：各站点快照的行按给定顺序拼接，价格/过滤索引在拼接结果上重建。
+     * 不带导出文件；同 id 出现在多个站点时价格以先出现的为准。
+     */
+    static FeedSnapshot merge(long version, List<FeedSnapshot> parts, String generatedAt) {
+        int n = 0;
+        for (FeedSnapshot p : parts) n += p.products.size();
+        List<FeedItem> rows = new ArrayList<>(n);
+        long[] rowUpdatedAt = new long[n];
+        boolean timed = true;
+        for (FeedSnapshot p : parts) {
+            long[] u = p.index.rowUpdatedAt();
+            if (u == null) timed = false;
+            else System.arraycopy(u, 0, rowUpdatedAt, rows.size(), u.length);
+            rows.addAll(p.products);
+        }
+        return of(version, rows, timed ? rowUpdatedAt : null, generatedAt, null);
+    }
+
+    public long getVersion() { return version; }
+
+    public List<FeedItem> getProducts() { return products; }
+
+    public String getGeneratedAt() { return generatedAt; }
+
+    /** 预序列化的 feed 响应（只读，调用方不得修改） */
+    public byte[] getJson() { return json; }
+
+    /** 预压缩的 feed 响应（gzip，只读） */
+    public byte[] getGzipJson() { return gzipJson; }
+
+    /** 强 ETag（未压缩表示；gzip 表示在引号内追加 -gz） */
+    public String getEtag() { return etag; }
+
+    public String getGzipEtag() { return etag.substring(0, etag.length() - 1) + "-gz\""; }
+
+    /** 快照发布时间（毫秒），用作 Last-Modified */
+    public long getLastModified() { return lastModified; }
+
+    /** 本版本对应的导出（只换库存的版本沿用上一版的导出）；没有导出时返回 null */
+    FeedExporter.Export getExport() {
+        return export;
+    }
+
+    /** 本版本的导出文件；没有导出时返回 null */
+    java.nio.file.Path getExportFile(FeedExporter.Format format) {
+        return export == null ? null : export.file(format);
+    }
+
+    /** 第 i 行序列化内容的 64 位哈希（SHA-256 前 8 字节） */
+    long rowHash(int i) { return rowHashes[i]; }
+
+    /** 按 feed 行 id 查价格/库存；找不到返回 null */
+    public PriceEntry findPrice(String id) {
+        return id == null ? null : priceIndex.get(id);
+    }
+
+    /**
+     * 按过滤条件取一页：从行下标 fromPos（含）开始，最多 limit 行，保持 feed 原顺序。
+     * 条件为 null 表示不过滤。
+     */
+    public Page page(String availability, String category, String groupId, Long updatedSince, int fromPos, int limit) {
+        int[] candidates = index.select(availability, category, groupId, updatedSince);
+        List<FeedItem> out = new ArrayList<>(Math.min(limit, 256));
+        int next = -1;
+        if (candidates == null) {
+            int start = Math.max(0, fromPos);
+            int end = Math.min(products.size(), start + limit);
+            for (int i = start; i < end; i++) out.add(products.get(i));
+            if (end < products.size()) next = end;
+        } else {
+            int i = Arrays.binarySearch(candidates, Math.max(0, fromPos));
+            if (i < 0) i = -i - 1;
+            int end = Math.min(candidates.length, i + limit);
+            for (int k = i; k < end; k++) out.add(products.get(candidates[k]));
+            if (end < candidates.length) next = candidates[end];
+        }
+        return new Page(out, next);
+    }
+
+    /** 一页结果：nextPosition 为下一页起始行下标，-1 表示没有下一页 */
+    public static final class Page {
+        public final List<FeedItem> products;
+        public final int nextPosition;
+
+        Page(List<FeedItem> products, int nextPosition) {
+            this.products = products;
+            this.nextPosition = nextPosition;
+        }
+    }
+
+    private static byte[] gzip(byte[] raw) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(bos)) {
+            gz.write(raw);
+        } catch (IOException e) {
+            throw new UncheckedIOException("gzip feed snapshot failed", e);
+        }
+        return bos.toByteArray();
+    }
+
+    private static long hash64(byte[] digest) {
+        long h = 0;
+        for (int i = 0; i < 8; i++) h = (h << 8) | (digest[i] & 0xff);
+        return h;
+    }
+
+    private static String sha256Hex(byte[] data, int bytes) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(bytes * 2);
+            for (int i = 0; i < bytes; i++) sb.append(String.format("%02x", d[i]));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** 值对象：单价（分）+ 币种（小写）+ 可售状态 + 库存数 + 单件重量（克，算运费档位用）+ 类目（按类目计税用） */
+    public static final class PriceEntry {
+        public final int unitCents;
+        public final String currency;
+        public final String availability;
+        public final int inventoryQuantity;
+        public final int weightGrams;
+        public final String productCategory;
+
+        PriceEntry(int unitCents, String currency, String availability, int inventoryQuantity, int weightGrams,
+                   String productCategory) {
+            this.unitCents = unitCents;
+            this.currency = currency;
+            this.availability = availability;
+            this.inventoryQuantity = inventoryQuantity;
+            this.weightGrams = weightGrams;
+            this.productCategory = productCategory;
+        }
+
+        /** 从 feed 行抽取价格（Wix 未给价格时按 0 / usd） */
+        static PriceEntry fromRow(FeedItem row) {
+            FeedItem.Money price = row.getPrice();
+            double amount = price.getAmount() != null ? price.getAmount() : 0d;
+            long cents = Math.round(amount * 100);
+            String currency = (price.isEmpty() ? "usd" : String.valueOf(price.getCurrency())).toLowerCase(Locale.ROOT);
+            return new PriceEntry((int) cents, currency, row.getAvailability(), row.getInventoryQuantity(),
+                    weightGrams(row.getProduct().weight), row.getProductCategory());
+        }
+
+        /** 套上库存覆盖层后的副本 */
+        PriceEntry withStock(String availability, int inventoryQuantity) {
+            return new PriceEntry(unitCents, currency, availability, inventoryQuantity, weightGrams, productCategory);
+        }
+
+        /** feed 的 weight 字段（"0.2 kg" / "150 g" / "1 lb" / "8 oz"）换算成克；认不出时为 0 */
+        static int weightGrams(String weight) {
+            if (weight == null) return 0;
+            String w = weight.trim().toLowerCase(Locale.ROOT);
+            int i = 0;
+            while (i < w.length() && (Character.isDigit(w.charAt(i)) || w.charAt(i) == '.')) i++;
+            if (i == 0) return 0;
+            double value;
+            try {
+                value = Double.parseDouble(w.substring(0, i));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+            String unit = w.substring(i).trim();
+            double grams;
+            switch (unit) {
+                case "kg": grams = value * 1000; break;
+                case "g":  grams = value; break;
+                case "lb": grams = value * 453.59237; break;
+                case "oz": grams = value * 28.349523125; break;
+                default:   return 0;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, Math.round(grams));
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.acp.feed;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 已发布快照的本地持久化（gzip 压缩的 NDJSON），用于重启后秒级恢复 feed：
+ * - 第 1 行：{"format":1,"version":..,"generated_at":"..","mapping":"..","products":N,"rows":M}
+ * - 之后每行一个商品：共享块 + 各行的变体专属字段（含 Wix 变体 id）+ 指纹/映射时间/更新时间
+ *
+ * 商家/政策块不落盘，加载时用当前配置的 merchant（配置改了以新配置为准）。
+ * 同时恢复增量刷新缓存，重启后的第一次刷新也只重映射有变化的商品；
+ * 映射配置（类目规则、默认值等，见 mapping 签名）变了则只恢复快照、不恢复缓存。
+ * 先写 .tmp 再原子改名；文件缺失、版本不符或损坏时 load 返回 null，照常等首次刷新。
+ */
+final class FeedSnapshotStore {
+
+    private static final int FORMAT = 1;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private final Path file;
+
+    FeedSnapshotStore(Path file) {
+        this.file = file;
+    }
+
+    /** 从磁盘恢复的快照内容 */
+    static final class Loaded {
+        final long version;
+        final String generatedAt;
+        final List<ProductFeedService.ProductRows> parts;
+        final Map<String, ProductFeedService.ProductRows> cache;
+
+        Loaded(long version, String generatedAt, List<ProductFeedService.ProductRows> parts,
+               Map<String, ProductFeedService.ProductRows> cache) {
+            this.version = version;
+            this.generatedAt = generatedAt;
+            this.parts = parts;
+            this.cache = cache;
+        }
+    }
+
+    /** 落盘；cache 用来标记哪些商品的行可以进增量缓存。失败只打日志 */
+    void save(long version, String generatedAt, String mapping, List<ProductFeedService.ProductRows> parts,
+              Map<String, ProductFeedService.ProductRows> cache) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            int rows = 0;
+            for (ProductFeedService.ProductRows part : parts) rows += part.rows.size();
+
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024), StandardCharsets.UTF_8))) {
+                Map<String, Object> header = new LinkedHashMap<>();
+                header.put("format", FORMAT);
+                header.put("version", version);
+                header.put("generated_at", generatedAt);
+                header.put("mapping", mapping);
+                header.put("products", parts.size());
+                header.put("rows", rows);
+                mapper.writeValue(w, header);
+                w.write('\n');
+
+                for (ProductFeedService.ProductRows part : parts) {
+                    if (part.rows.isEmpty()) continue;
+                    FeedItem.Product p = part.rows.get(0).product;
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    line.put("fingerprint", part.fingerprint);
+                    line.put("mapped_at", part.mappedAt);
+                    line.put("updated_at", part.updatedAt);
+                    line.put("cached", p.productId != null && cache.get(p.productId) == part);
+                    line.put("product", writeProduct(p));
+                    List<Map<String, Object>> items = new ArrayList<>(part.rows.size());
+                    for (FeedItem it : part.rows) items.add(writeItem(it));
+                    line.put("items", items);
+                    mapper.writeValue(w, line);
+                    w.write('\n');
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("[FeedSnapshotStore] save v" + version + " failed: " + e.getMessage());
+            try { Files.deleteIfExists(tmp); } catch (IOException ignore) {}
+        }
+    }
+
+    /** 读取上次落盘的快照；没有或读不了返回 null */
+    @SuppressWarnings("unchecked")
+    Loaded load(FeedItem.Merchant merchant, String mapping) {
+        if (!Files.isReadable(file)) return null;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file), 64 * 1024), StandardCharsets.UTF_8))) {
+            String first = r.readLine();
+            if (first == null) return null;
+            Map<String, Object> header = mapper.readValue(first, Map.class);
+            if (!Integer.valueOf(FORMAT).equals(header.get("format"))) {
+                System.out.println("[FeedSnapshotStore] ignore " + file + ": unsupported format " + header.get("format"));
+                return null;
+            }
+            long version = ((Number) header.get("version")).longValue();
+            String generatedAt = (String) header.get("generated_at");
+            boolean sameMapping = Objects.equals(mapping, header.get("mapping"));
+
+            List<ProductFeedService.ProductRows> parts = new ArrayList<>();
+            Map<String, ProductFeedService.ProductRows> cache = new HashMap<>();
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                Map<String, Object> m = mapper.readValue(line, Map.class);
+                FeedItem.Product p = readProduct(merchant, (Map<String, Object>) m.get("product"));
+                List<FeedItem> rows = new ArrayList<>();
+                for (Map<String, Object> item : (List<Map<String, Object>>) m.get("items")) rows.add(readItem(p, item));
+                ProductFeedService.ProductRows part = new ProductFeedService.ProductRows(
+                        (String) m.get("fingerprint"), rows,
+                        ((Number) m.get("mapped_at")).longValue(), ((Number) m.get("updated_at")).longValue());
+                parts.add(part);
+                if (sameMapping && Boolean.TRUE.equals(m.get("cached")) && p.productId != null) {
+                    cache.put(p.productId, part);
+                }
+            }
+            return new Loaded(version, generatedAt, parts, cache);
+        } catch (Exception e) {
+            System.out.println("[FeedSnapshotStore] load " + file + " failed: " + e);
+            return null;
+        }
+    }
+
+    // ============ 编解码 ============
+
+    private static Map<String, Object> writeProduct(FeedItem.Product p) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("product_id", p.productId);
+        m.put("group_id", p.groupId);
+        m.put("title", p.title);
+        m.put("description", p.description);
+        m.put("link", p.link);
+        m.put("mpn", p.mpn);
+        m.put("product_category", p.productCategory);
+        m.put("weight", p.weight);
+        m.put("image_link", p.imageLink);
+        m.put("additional_image_link", p.additionalImageLinks);
+        m.put("price", writeMoney(p.price));
+        m.put("sale_price", writeMoney(p.salePrice));
+        m.put("sale_price_effective_date", p.salePriceEffectiveDate);
+        m.put("availability", p.availability);
+        m.put("availability_date", p.availabilityDate);
+        m.put("inventory_quantity", p.inventoryQuantity);
+        return m;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FeedItem.Product readProduct(FeedItem.Merchant merchant, Map<String, Object> m) {
+        return new FeedItem.Product(
+                merchant,
+                (String) m.get("product_id"),
+                (String) m.get("group_id"),
+                (String) m.get("title"),
+                (String) m.get("description"),
+                (String) m.get("link"),
+                (String) m.get("mpn"),
+                (String) m.get("product_category"),
+                (String) m.get("weight"),
+                (String) m.get("image_link"),
+                (List<String>) m.get("additional_image_link"),
+                readMoney(m.get("price")),
+                readMoney(m.get("sale_price")),
+                (String) m.get("sale_price_effective_date"),
+                (String) m.get("availability"),
+                (String) m.get("availability_date"),
+                ((Number) m.get("inventory_quantity")).intValue());
+    }
+
+    private static Map<String, Object> writeItem(FeedItem it) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("kind", it.kind.name());
+        m.put("id", it.id);
+        m.put("offer_id", it.offerId);
+        if (it.mpn != null) m.put("mpn", it.mpn);
+        if (it.price != null) m.put("price", writeMoney(it.price));
+        if (it.salePrice != null) m.put("sale_price", writeMoney(it.salePrice));
+        if (it.availability != null) m.put("availability", it.availability);
+        if (it.inventoryQuantity != null) m.put("inventory_quantity", it.inventoryQuantity);
+        if (!it.choices.isEmpty()) m.put("choices", it.choices);
+        if (it.variantId != null) m.put("variant_id", it.variantId);
+        return m;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FeedItem readItem(FeedItem.Product p, Map<String, Object> m) {
+        Object qty = m.get("inventory_quantity");
+        return new FeedItem(p,
+                FeedItem.Kind.valueOf((String) m.get("kind")),
+                (String) m.get("id"),
+                (String) m.get("offer_id"),
+                (String) m.get("mpn"),
+                readMoney(m.get("price")),
+                readMoney(m.get("sale_price")),
+                (String) m.get("availability"),
+                qty instanceof Number ? ((Number) qty).intValue() : null,
+                (Map<String, String>) m.get("choices"),
+                (String) m.get("variant_id"));
+    }
+
+    /** null → 不输出；EMPTY → {}；其余 {amount, currency} */
+    private static Map<String, Object> writeMoney(FeedItem.Money money) {
+        if (money == null) return null;
+        Map<String, Object> m = new LinkedHashMap<>();
+        if (!money.isEmpty()) {
+            m.put("amount", money.getAmount());
+            m.put("currency", money.getCurrency());
+        }
+        return m;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FeedItem.Money readMoney(Object o) {
+        if (!(o instanceof Map)) return null;
+        Map<String, Object> m = (Map<String, Object>) o;
+        if (m.isEmpty()) return FeedItem.Money.EMPTY;
+        Object amount = m.get("amount");
+        return FeedItem.Money.of(amount instanceof Number ? ((Number) amount).doubleValue() : null,
+                (String) m.get("currency"));
+    }
+}
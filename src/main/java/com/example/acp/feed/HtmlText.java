@@ -0,0 +1,176 @@
+package com.example.acp.feed;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 商品描述 HTML → 纯文本，单趟扫描：
+ * - 丢弃 script / style 整块（含内容），其余标签替换为一个空格
+ * - 解码常见实体（{@code &amp; &lt; &nbsp; &#39; &#x2F;} 等），未知实体原样保留
+ * - 首尾空白去掉；输出达到 maxChars 立即停止，不再扫描剩余输入
+ *
+ * 没有闭合 {@code >} 的 {@code <} 按普通字符输出；没有闭合标签的 script/style 只去掉开标签本身。
+ */
+final class HtmlText {
+
+    private static final Map<String, Character> ENTITIES = Map.ofEntries(
+            Map.entry("amp", '&'), Map.entry("lt", '<'), Map.entry("gt", '>'),
+            Map.entry("quot", '"'), Map.entry("apos", '\''), Map.entry("nbsp", ' '),
+            Map.entry("hellip", '…'), Map.entry("mdash", '—'), Map.entry("ndash", '–'),
+            Map.entry("lsquo", '‘'), Map.entry("rsquo", '’'),
+            Map.entry("ldquo", '“'), Map.entry("rdquo", '”'),
+            Map.entry("copy", '©'), Map.entry("reg", '®'), Map.entry("trade", '™'),
+            Map.entry("euro", '€'), Map.entry("pound", '£'), Map.entry("yen", '¥'),
+            Map.entry("deg", '°'), Map.entry("times", '×'), Map.entry("middot", '·'),
+            Map.entry("bull", '•'));
+
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private HtmlText() {}
+
+    static String toText(String html, int maxChars) {
+        if (html == null || maxChars <= 0) return "";
+        Out out = new Out(Math.min(maxChars, html.length()), maxChars);
+        int n = html.length();
+        boolean unclosedTail = false;   // 之后再没有 '>'，后面的 '<' 都按普通字符
+        boolean noScriptClose = false, noStyleClose = false;   // 已确认后面没有对应闭合标签
+
+        int i = 0;
+        while (i < n && !out.full()) {
+            char c = html.charAt(i);
+            if (c == '<' && !unclosedTail) {
+                int close = html.indexOf('>', i + 1);
+                if (close < 0) {
+                    unclosedTail = true;
+                    out.put('<');
+                    i++;
+                    continue;
+                }
+                int skipTo = close + 1;
+                String block = rawTextBlock(html, i, close);
+                if (block != null && !(block.equals("script") ? noScriptClose : noStyleClose)) {
+                    int end = findClosing(html, close + 1, block);
+                    if (end >= 0) skipTo = end;
+                    else if (block.equals("script")) noScriptClose = true;
+                    else noStyleClose = true;
+                }
+                out.put(' ');
+                i = skipTo;
+            } else if (c == '&') {
+                i = entity(html, i, out);
+            } else {
+                out.put(c);
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    /** 开标签是 {@code <script…} / {@code <style…} 时返回小写标签名，否则 null */
+    private static String rawTextBlock(String html, int lt, int gt) {
+        if (regionIs(html, lt + 1, gt, "script")) return "script";
+        if (regionIs(html, lt + 1, gt, "style")) return "style";
+        return null;
+    }
+
+    /** 从 from 起找 {@code </name…>}，返回其后一位；找不到返回 -1 */
+    private static int findClosing(String html, int from, String name) {
+        int i = from;
+        while (true) {
+            int lt = html.indexOf("</", i);
+            if (lt < 0) return -1;
+            int gt = html.indexOf('>', lt + 2);
+            if (gt < 0) return -1;
+            if (regionIs(html, lt + 2, gt, name)) return gt + 1;
+            i = lt + 2;
+        }
+    }
+
+    private static boolean regionIs(String html, int start, int limit, String name) {
+        return start + name.length() <= limit && html.regionMatches(true, start, name, 0, name.length());
+    }
+
+    /** 解析 amp 处的实体并写出，返回下一个读取位置；不是合法实体时原样输出 {@code &} */
+    private static int entity(String html, int amp, Out out) {
+        int semi = -1;
+        int limit = Math.min(html.length(), amp + 2 + MAX_ENTITY_LENGTH);
+        for (int j = amp + 1; j < limit; j++) {
+            char c = html.charAt(j);
+            if (c == ';') { semi = j; break; }
+            if (!Character.isLetterOrDigit(c) && c != '#') break;
+        }
+        if (semi > amp + 1) {
+            String name = html.substring(amp + 1, semi);
+            if (name.charAt(0) == '#') {
+                int cp = codePoint(name);
+                if (cp >= 0) {
+                    if (cp == 0xA0) out.put(' ');
+                    else out.putCodePoint(cp);
+                    return semi + 1;
+                }
+            } else {
+                Character ch = ENTITIES.get(name.toLowerCase(Locale.ROOT));
+                if (ch != null) {
+                    out.put(ch);
+                    return semi + 1;
+                }
+            }
+        }
+        out.put('&');
+        return amp + 1;
+    }
+
+    private static int codePoint(String name) {
+        try {
+            int cp = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X')
+                    ? Integer.parseInt(name.substring(2), 16)
+                    : Integer.parseInt(name.substring(1));
+            return Character.isValidCodePoint(cp) && cp != 0 ? cp : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 输出缓冲：跳过开头空白；中间的空白先挂起，遇到后续非空白字符才写出（等价于最后 trim），
+     * 写满 max 个字符即停止。
+     */
+    private static final class Out {
+        private final StringBuilder sb;
+        private final int max;
+        private final StringBuilder ws = new StringBuilder();   // 挂起的空白
+
+        Out(int capacity, int max) {
+            this.sb = new StringBuilder(capacity);
+            this.max = max;
+        }
+
+        boolean full() { return sb.length() >= max; }
+
+        void put(char c) {
+            if (c <= ' ') {
+                if (sb.length() > 0) ws.append(c);
+                return;
+            }
+            if (ws.length() > 0) {
+                int room = max - sb.length();
+                sb.append(ws, 0, Math.min(room, ws.length()));
+                ws.setLength(0);
+                if (full()) return;
+            }
+            sb.append(c);
+        }
+
+        void putCodePoint(int cp) {
+            if (Character.isBmpCodePoint(cp)) {
+                put((char) cp);
+            } else {
+                put(Character.highSurrogate(cp));
+                put(Character.lowSurrogate(cp));
+            }
+        }
+
+        @Override
+        public String toString() { return sb.toString(); }
+    }
+}
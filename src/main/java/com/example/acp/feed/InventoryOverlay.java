@@ -0,0 +1,87 @@
+package com.example.acp.feed;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实时库存覆盖层：feed 行 id → (可售状态, 库存数)。
+ * - 由独立的库存轮询（Wix inventoryItems）整体校准，下单成功时就地扣减
+ * - 校准：轮询里没有库存数据的行、重映射拿到新值的行，清掉轮询/重映射开始前写入的条目；
+ *   每次发布时丢掉已不在 feed 里的行
+ * - 读无锁（ConcurrentHashMap），条目不可变，更新靠 compute 原子替换
+ * - 叠加在快照行之上：查价与 feed 输出都先看这里，没有条目才用映射时的值
+ *
+ * 以行 id 为键而不是 offer_id：offer_id 里带着价格，价格一变就对不上了。
+ */
+final class InventoryOverlay {
+
+    /** 一条覆盖：可售状态 + 库存数 + 写入时间（毫秒） */
+    static final class Entry {
+        final String availability;
+        final int quantity;
+        final long at;
+
+        Entry(String availability, int quantity) {
+            this.availability = availability;
+            this.quantity = quantity;
+            this.at = System.currentTimeMillis();
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    Entry get(String rowId) {
+        return rowId == null ? null : entries.get(rowId);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /** 叠加覆盖后的行（无覆盖或值相同返回原行） */
+    FeedItem apply(FeedItem row) {
+        Entry e = get(row.getId());
+        return e == null ? row : row.withStock(e.availability, e.quantity);
+    }
+
+    /** 叠加覆盖后的价格条目 */
+    FeedSnapshot.PriceEntry apply(String rowId, FeedSnapshot.PriceEntry base) {
+        if (base == null) return null;
+        Entry e = get(rowId);
+        return e == null ? base : base.withStock(e.availability, e.quantity);
+    }
+
+    /** 写入轮询结果；对外可见的值（覆盖后）有变化时返回 true */
+    boolean put(FeedItem row, String availability, int quantity) {
+        Entry prev = entries.put(row.getId(), new Entry(availability, quantity));
+        String shownAvailability = prev != null ? prev.availability : row.getAvailability();
+        int shownQuantity = prev != null ? prev.quantity : row.getInventoryQuantity();
+        return !availability.equals(shownAvailability) || quantity != shownQuantity;
+    }
+
+    /** 清掉 before 之前写入的条目（之后写入的，如轮询期间的下单扣减，保留）；对外可见值有变化时返回 true */
+    boolean clearIfOlder(FeedItem row, long before) {
+        Entry prev = entries.get(row.getId());
+        if (prev == null || prev.at >= before || !entries.remove(row.getId(), prev)) return false;
+        return !prev.availability.equals(row.getAvailability()) || prev.quantity != row.getInventoryQuantity();
+    }
+
+    /** 只保留仍在 feed 里的行 */
+    void retainRows(Set<String> rowIds) {
+        entries.keySet().retainAll(rowIds);
+    }
+
+    /**
+     * 下单扣减：以当前覆盖值（没有则用快照里的值）为基数减去 qty，减到 0 时标记缺货。
+     * 预售行保持 preorder。返回扣减后的条目。
+     */
+    Entry decrement(String rowId, int qty, FeedSnapshot.PriceEntry base) {
+        return entries.compute(rowId, (id, prev) -> {
+            String availability = prev != null ? prev.availability : base.availability;
+            int left = Math.max(0, (prev != null ? prev.quantity : base.inventoryQuantity) - qty);
+            if (left == 0 && !"preorder".equals(availability)) availability = "out_of_stock";
+            return new Entry(availability, left);
+        });
+    }
+}
@@ -1,20 +1,390 @@
 package com.example.acp.feed;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api")
 public class ProductFeedController {
 
-    private final ProductFeedService feedService;
+    // Tomcat sendfile 约定的 request 属性（NIO 连接器支持时由容器设置 support=true）
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // 分页大小：默认 / 上限
+    private static final int DEFAULT_PAGE_LIMIT = 100;
+    private static final int MAX_PAGE_LIMIT = 1000;
+
+    // ?site=all：所有站点的合并视图
+    private static final String ALL_SITES = "all";
 
-    public ProductFeedController(ProductFeedService feedService) {
-        this.feedService = feedService;
+    private final FeedSites feedSites;
+
+    public ProductFeedController(FeedSites feedSites) {
+        this.feedSites = feedSites;
     }
 
+    /**
+     * 默认输出 JSON：直接写快照里预序列化好的字节（客户端支持 gzip 时给压缩版），
+     * 并带强 ETag + Last-Modified；If-None-Match / If-Modified-Since 命中时返回 304。
+     *
+     * 通过 ?format=ndjson|csv|tsv 或 Accept（application/x-ndjson、text/csv、text/tab-separated-values）
+     * 可改为下载同一版本的导出文件，文件内容经 sendfile / FileChannel.transferTo 直接送出，不经过堆。
+     *
+     * 带 limit / cursor 或任一过滤参数（availability、product_category、item_group_id、updated_since）时，
+     * 改为返回分页切片，见 {@link #pagedFeed}。
+     *
+     * 多站点：?site=名称 取某个站点的 feed（缺省为主站点），?site=all 取所有站点的合并视图（只有 JSON）。
+     */
     @GetMapping("/product_feed")
-    public Map<String, Object> getProductFeed() {
-        return feedService.getFeedResponse();
+    public ResponseEntity<?> getProductFeed(
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "site", required = false) String site,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "availability", required = false) String availability,
+            @RequestParam(value = "product_category", required = false) String productCategory,
+            @RequestParam(value = "item_group_id", required = false) String itemGroupId,
+            @RequestParam(value = "updated_since", required = false) String updatedSince,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest webRequest,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        boolean merged = ALL_SITES.equals(site);
+        ProductFeedService feedService = merged ? null : feedSites.site(site);
+        if (!merged && feedService == null) return unknownSite(site);
+        FeedSnapshot snap = merged ? feedSites.mergedSnapshot() : feedService.getSnapshot();
+
+        FeedExporter.Format exportFormat;
+        try {
+            exportFormat = negotiate(format, accept);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        boolean paged = limit != null || cursor != null || availability != null
+                || productCategory != null || itemGroupId != null || updatedSince != null;
+        if (paged) {
+            if (exportFormat != null) {
+                return error(HttpStatus.BAD_REQUEST, "unsupported_parameters", "Pagination and filters are only available for JSON");
+            }
+            return pagedFeed(snap, limit, cursor, availability, productCategory, itemGroupId, updatedSince);
+        }
+        if (exportFormat != null) {
+            if (merged) {
+                return error(HttpStatus.BAD_REQUEST, "unsupported_parameters", "Exports are only available per site");
+            }
+            serveExport(snap, exportFormat, webRequest, request, response);
+            return null;
+        }
+
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String etag = gzip ? snap.getGzipEtag() : snap.getEtag();
+
+        // 命中则框架已写好 304 及 ETag/Last-Modified 头
+        if (webRequest.checkNotModified(etag, snap.getLastModified())) return null;
+
+        ResponseEntity.BodyBuilder resp = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(etag)
+                .lastModified(snap.getLastModified())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return resp.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snap.getGzipJson());
+        }
+        return resp.body(snap.getJson());
+    }
+
+    /**
+     * 分页 + 过滤：
+     * - 过滤走快照里预建的索引，结果保持 feed 原顺序
+     * - cursor 是不透明串，绑定快照版本；快照已更新时返回 410，客户端需从头再取
+     */
+    private ResponseEntity<?> pagedFeed(FeedSnapshot snap, Integer limit, String cursor, String availability,
+                                        String productCategory, String itemGroupId, String updatedSince) {
+        int pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : limit;
+        if (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT) {
+            return error(HttpStatus.BAD_REQUEST, "invalid_limit", "limit must be between 1 and " + MAX_PAGE_LIMIT);
+        }
+
+        Long since = null;
+        if (updatedSince != null) {
+            since = parseTimestamp(updatedSince);
+            if (since == null) {
+                return error(HttpStatus.BAD_REQUEST, "invalid_updated_since", "updated_since must be RFC 3339 or epoch millis");
+            }
+        }
+
+        int fromPos = 0;
+        if (cursor != null) {
+            long[] c = decodeCursor(cursor);
+            if (c == null) return error(HttpStatus.BAD_REQUEST, "invalid_cursor", "Malformed cursor");
+            if (c[0] != snap.getVersion()) {
+                return error(HttpStatus.GONE, "cursor_expired", "Feed has been refreshed; restart pagination without cursor");
+            }
+            fromPos = (int) c[1];
+        }
+
+        FeedSnapshot.Page page = snap.page(availability, productCategory, itemGroupId, since, fromPos, pageLimit);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("products", page.products);
+        body.put("generated_at", snap.getGeneratedAt());
+        body.put("version", snap.getVersion());
+        body.put("next_cursor", page.nextPosition < 0 ? null : encodeCursor(snap.getVersion(), page.nextPosition));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * 增量变更：返回 since 版本之后到最新版的净行级变化（按行 id）：
+     * { "since", "version", "generated_at",
+     *   "added": [{id, hash, product}], "changed": [{id, hash, product}], "removed": [{id, hash}] }
+     * hash 是行内容的哈希（16 位十六进制），客户端可用来校验本地副本。
+     * since 已超出保留范围或不认识时返回 410，客户端需重新全量拉取 /api/product_feed。
+     */
+    @GetMapping("/product_feed/changes")
+    public ResponseEntity<?> getChanges(@RequestParam(value = "since", required = false) String since,
+                                        @RequestParam(value = "site", required = false) String site) {
+        if (ALL_SITES.equals(site)) {
+            return error(HttpStatus.BAD_REQUEST, "unsupported_parameters", "Changes are only available per site");
+        }
+        ProductFeedService feedService = feedSites.site(site);
+        if (feedService == null) return unknownSite(site);
+        long sinceVersion;
+        try {
+            sinceVersion = Long.parseLong(since == null ? "" : since.trim());
+        } catch (NumberFormatException e) {
+            return error(HttpStatus.BAD_REQUEST, "invalid_since", "since must be a feed version number");
+        }
+        FeedChangeLog.Delta delta = feedService.changesSince(sinceVersion);
+        if (delta == null) {
+            return error(HttpStatus.GONE, "changes_expired",
+                    "Changes since version " + sinceVersion + " are no longer available; resync from /api/product_feed");
+        }
+
+        List<Map<String, Object>> added = new ArrayList<>();
+        List<Map<String, Object>> changed = new ArrayList<>();
+        List<Map<String, Object>> removed = new ArrayList<>();
+        for (FeedChangeLog.Change c : delta.changes) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", c.id);
+            m.put("hash", String.format("%016x", c.hash));
+            if (c.row != null) m.put("product", c.row);
+            switch (c.op) {
+                case ADDED:   added.add(m); break;
+                case CHANGED: changed.add(m); break;
+                case REMOVED: removed.add(m); break;
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("since", delta.fromVersion);
+        body.put("version", delta.toVersion);
+        body.put("generated_at", feedService.getSnapshot().getGeneratedAt());
+        body.put("added", added);
+        body.put("changed", changed);
+        body.put("removed", removed);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * 类目规则热更新（走 RequestAuthFilter 的 Bearer + 签名校验）：
+     * body: { "rules": "kw1|kw2=>类目;kw3=>类目", "default_category": "可选" }
+     * 新规则立即编译生效，下一次 feed 刷新起按新规则映射。?site=名称 只改该站点，缺省改所有站点。
+     */
+    @PutMapping("/admin/category_rules")
+    public ResponseEntity<?> reloadCategoryRules(@RequestBody Map<String, Object> body,
+                                                 @RequestParam(value = "site", required = false) String site) {
+        Object rules = body == null ? null : body.get("rules");
+        if (!(rules instanceof String)) {
+            return error(HttpStatus.BAD_REQUEST, "invalid_rules", "rules must be a string");
+        }
+        Object def = body.get("default_category");
+        String defaultCategory = def instanceof String ? (String) def : null;
+        if (site == null || site.isBlank()) {
+            for (ProductFeedService svc : feedSites.all()) svc.reloadCategoryRules((String) rules, defaultCategory);
+            return ResponseEntity.ok(feedSites.site(null).getCategoryRules());
+        }
+        ProductFeedService feedService = feedSites.site(site);
+        if (feedService == null) return unknownSite(site);
+        feedService.reloadCategoryRules((String) rules, defaultCategory);
+        return ResponseEntity.ok(feedService.getCategoryRules());
+    }
+
+    @GetMapping("/admin/category_rules")
+    public ResponseEntity<?> getCategoryRules(@RequestParam(value = "site", required = false) String site) {
+        ProductFeedService feedService = feedSites.site(site);
+        if (feedService == null) return unknownSite(site);
+        return ResponseEntity.ok(feedService.getCategoryRules());
+    }
+
+    /** 各站点当前的快照版本、行数与生成时间 */
+    @GetMapping("/admin/feed/sites")
+    public List<Map<String, Object>> getSites() {
+        return feedSites.status();
+    }
+
+    /**
+     * 单品定向刷新（受 Bearer + Signature 保护）：同步重新拉取该商品及其变体并发布新版本快照（?site= 指定站点，缺省主站点）。
+     * 商品在 Wix 已删除时从 feed 中移除；拉取 Wix 失败返回 502。
+     */
+    @PostMapping("/admin/feed/products/{productId}/refresh")
+    public ResponseEntity<?> refreshProduct(@PathVariable String productId,
+                                            @RequestParam(value = "site", required = false) String site) {
+        ProductFeedService feedService = feedSites.site(site);
+        if (feedService == null) return unknownSite(site);
+        Map<String, Object> result = feedService.refreshProducts(List.of(productId)).get(0);
+        if ("error".equals(result.get("status"))) {
+            return error(HttpStatus.BAD_GATEWAY, "upstream_error", String.valueOf(result.get("message")));
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /** cursor = base64url("版本:下一行下标") */
+    private static String encodeCursor(long version, int position) {
+        String raw = version + ":" + position;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+            int i = raw.indexOf(':');
+            if (i <= 0) return null;
+            long version = Long.parseLong(raw.substring(0, i));
+            long pos = Long.parseLong(raw.substring(i + 1));
+            if (pos < 0 || pos > Integer.MAX_VALUE) return null;
+            return new long[]{version, pos};
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** RFC 3339 / ISO-8601 时间或纯数字毫秒；解析失败返回 null */
+    private static Long parseTimestamp(String s) {
+        String v = s.trim();
+        try {
+            if (v.chars().allMatch(Character::isDigit)) return Long.parseLong(v);
+            return OffsetDateTime.parse(v).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            try { return Instant.parse(v).toEpochMilli(); } catch (Exception ignore) { return null; }
+        }
+    }
+
+    private static ResponseEntity<Map<String, Object>> unknownSite(String site) {
+        return error(HttpStatus.NOT_FOUND, "unknown_site", "Unknown site: " + site);
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, String code, String message) {
+        return ResponseEntity.status(status).body(Map.of("error", code, "message", message));
+    }
+
+    /** 输出导出文件：容器支持 sendfile 就交给它零拷贝发送，否则 FileChannel.transferTo */
+    private void serveExport(FeedSnapshot snap, FeedExporter.Format format, WebRequest webRequest,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path file = snap.getExportFile(format);
+        if (file == null || !Files.isReadable(file)) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "60");
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "feed export not available yet");
+            return;
+        }
+
+        String etag = snap.getEtag().substring(0, snap.getEtag().length() - 1) + "-" + format.ext + "\"";
+        if (webRequest.checkNotModified(etag, snap.getLastModified())) return;
+
+        long size = Files.size(file);
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(format.contentType);
+        response.setContentLengthLong(size);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, snap.getLastModified());
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        response.setHeader("X-Feed-Version", String.valueOf(snap.getVersion()));
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, size);
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long pos = 0;
+            while (pos < size) {
+                long n = ch.transferTo(pos, size - pos, out);
+                if (n <= 0) break;
+                pos += n;
+            }
+        }
+    }
+
+    /**
+     * 选择导出格式：?format= 优先，其次按 Accept 中出现的先后；返回 null 表示默认 JSON。
+     * 未知的 format 参数抛 IllegalArgumentException（→ 406）。
+     */
+    static FeedExporter.Format negotiate(String format, String accept) {
+        if (format != null && !format.isBlank()) {
+            switch (format.trim().toLowerCase(Locale.ROOT)) {
+                case "json":   return null;
+                case "ndjson":
+                case "jsonl":  return FeedExporter.Format.NDJSON;
+                case "csv":    return FeedExporter.Format.CSV;
+                case "tsv":    return FeedExporter.Format.TSV;
+                default:       throw new IllegalArgumentException("unsupported format: " + format);
+            }
+        }
+        if (accept == null) return null;
+        for (String part : accept.split(",")) {
+            String type = part.trim().split(";")[0].trim().toLowerCase(Locale.ROOT);
+            switch (type) {
+                case "application/json":
+                case "*/*":
+                case "application/*":          return null;
+                case "application/x-ndjson":
+                case "application/jsonl":      return FeedExporter.Format.NDJSON;
+                case "text/csv":               return FeedExporter.Format.CSV;
+                case "text/tab-separated-values": return FeedExporter.Format.TSV;
+                default:                       // 继续看下一个
+            }
+        }
+        return null;
+    }
+
+    /** Accept-Encoding 里有 gzip 且未被 q=0 显式拒绝 */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] kv = part.trim().split(";");
+            if (!"gzip".equalsIgnoreCase(kv[0].trim())) continue;
+            for (int i = 1; i < kv.length; i++) {
+                String q = kv[i].trim().replace(" ", "");
+                if (q.equals("q=0") || q.equals("q=0.0") || q.equals("q=0.00") || q.equals("q=0.000")) return false;
+            }
+            return true;
+        }
+        return false;
     }
 }
@@ -1,13 +1,35 @@
 package com.example.acp.feed;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 /**
  * 将 Wix 原始商品映射为 OpenAI Product Feed Spec。
@@ -37,9 +59,15 @@ public class ProductFeedService {
     // 库存兜底数（当 Wix 不跟踪库存或缺少数量时）
     private static final int    DEFAULT_INVENTORY = parseInt(getenv("DEFAULT_INVENTORY", "999"), 999);
 
+    // 描述纯文本的最大长度
+    private static final int    DESCRIPTION_MAX_CHARS = 5000;
+
     // 当库存状态为 PREORDER 且无具体可用日期时，向后推几天
     private static final int    PREORDER_OFFSET_DAYS = parseInt(getenv("PREORDER_AVAIL_DAYS", "7"), 7);
 
+    // 促销期：Wix 只给折后价、不给起止时间，从映射当天起算 7 天
+    private static final int    SALE_WINDOW_DAYS = 7;
+
     // 产品目录映射规则（关键词 => 类目路径）
     private static final String CATEGORY_RULES_RAW =
             System.getenv().getOrDefault("CATEGORY_RULES",
@@ -47,306 +75,742 @@ public class ProductFeedService {
                   + "sweater|knit|毛衣=>Apparel & Accessories > Clothing > Outerwear & Coats > Sweaters");
     private static final String DEFAULT_CATEGORY =
             System.getenv().getOrDefault("DEFAULT_CATEGORY", "Apparel & Accessories");
-
-    // ==== 缓存最新 feed 数据 ====
-    private final AtomicReference<List<Map<String, Object>>> cached =
-            new AtomicReference<>(List.of());
-    private volatile String lastGeneratedAt = OffsetDateTime.now(ZoneOffset.UTC).toString();
+    // 可选：规则文件（格式同 CATEGORY_RULES，可换行分隔）；每次刷新前检查修改时间，变了就热加载
+    private static final String CATEGORY_RULES_FILE = getenv("CATEGORY_RULES_FILE", "");
+
+    // 变体并发拉取的并行度（= 同时在途的 Wix 变体请求上限）
+    private static final int VARIANT_FETCH_PARALLELISM =
+            Math.max(1, parseInt(getenv("VARIANT_FETCH_PARALLELISM", "8"), 8));
+
+    // 映射阶段（HTML 转文本、类目匹配、图片、变体展开，纯 CPU）的并行度，默认 = CPU 核数
+    private static final int MAP_PARALLELISM = Math.max(1, parseInt(
+            getenv("FEED_MAP_PARALLELISM", String.valueOf(Runtime.getRuntime().availableProcessors())),
+            Runtime.getRuntime().availableProcessors()));
+    // 映射用的 fork/join 池：纯计算、不做 IO，所有站点共用一个，线程数不超过核数
+    private static final ForkJoinPool MAP_POOL = new ForkJoinPool(MAP_PARALLELISM);
+
+    // 增量刷新：指纹未变的商品直接复用上次映射的行；但行里有按“映射当天”算的日期（促销期/预售日），
+    // 且库存变化未必会更新商品的 lastUpdated，所以缓存行超过该时长后强制重映射（日期随之前移）
+    private static final long ROW_CACHE_MAX_AGE_MS =
+            Math.max(0, parseInt(getenv("FEED_ROW_MAX_AGE_MINUTES", "1440"), 1440)) * 60_000L;
+
+    private static final ObjectMapper FINGERPRINT_MAPPER = new ObjectMapper();
+
+    // 流式导出（NDJSON/CSV/TSV）落盘目录与保留版本数
+    static final String EXPORT_DIR =
+            getenv("FEED_EXPORT_DIR", Path.of(System.getProperty("java.io.tmpdir"), "acp-feed-export").toString());
+    private static final int EXPORT_KEEP_VERSIONS = parseInt(getenv("FEED_EXPORT_KEEP", "3"), 3);
+
+    // 已发布快照的落盘位置（重启后先从这里恢复，再由后台刷新替换）
+    private static final String SNAPSHOT_FILE =
+            getenv("FEED_SNAPSHOT_FILE", Path.of(EXPORT_DIR, "feed-snapshot.ndjson.gz").toString());
+
+    // 库存覆盖层变化后重发快照的最小间隔：期间的扣减/轮询变化合并成一次；查价始终实时读覆盖层，不受影响
+    private static final long OVERLAY_PUBLISH_MIN_MS =
+            Math.max(0, parseInt(getenv("INVENTORY_PUBLISH_MIN_MS", "60000"), 60000));
+
+    // 保留最近多少次发布的行级变更（/api/product_feed/changes 能追溯的版本数）
+    private static final int CHANGES_KEEP = Math.max(1, parseInt(getenv("FEED_CHANGES_KEEP", "64"), 64));
+
+    // ==== 缓存最新 feed 快照（feed 行 + 价格索引 + 生成时间，一次性原子发布） ====
+    private final AtomicReference<FeedSnapshot> cached =
+            new AtomicReference<>(FeedSnapshot.empty(OffsetDateTime.now(ZoneOffset.UTC).toString()));
+
+    // 每次发布新快照后调用（FeedSites 据此重建合并视图）；监听方只应排个任务，不在发布线程里干活
+    private final List<Runnable> publishListeners = new CopyOnWriteArrayList<>();
+
+    // 主站点名（单站点部署时就是唯一的站点）
+    static final String PRIMARY_SITE = getenv("WIX_SITE_NAME", "default");
+
+    // 快照版本号（单调递增）与导出器
+    private final AtomicLong versionSeq = new AtomicLong();
+    private final FeedExporter exporter;
+    private final FeedSnapshotStore snapshotStore;
+    private final Path snapshotFile;
+    private final FeedChangeLog changeLog = new FeedChangeLog(CHANGES_KEEP);
+
+    // ==== 类目规则（预编译的自动机，热更新时整体替换） ====
+    private volatile CategoryMatcher categoryMatcher = CategoryMatcher.compile(CATEGORY_RULES_RAW, DEFAULT_CATEGORY);
+    private long categoryRulesFileMtime = Long.MIN_VALUE;
+    // 规则代数：每次热更新 +1（在 publishLock 内）；按旧代数映射的行发布时不进增量缓存
+    private volatile long rulesGeneration = 0;
+
+    // ==== 增量刷新缓存：productId → (指纹, 已映射的行)；只在发布时整体替换 ====
+    private volatile Map<String, ProductRows> productCache = Map.of();
+
+    // ==== 当前快照按商品分组的行（单品定向刷新在此基础上写时复制） ====
+    private volatile List<ProductRows> publishedParts = List.of();
+
+    // 发布锁：全量刷新与单品刷新的“替换快照”互斥
+    private final Object publishLock = new Object();
+    // 单品刷新记录（productId → 行 + 发布版本），全量刷新发布时据此补上期间的单品更新；只在 publishLock 内访问
+    private final Map<String, Patch> patches = new HashMap<>();
+
+    // 待定向刷新的商品（webhook 触发，合并去重后由单线程批量处理）
+    private final Set<String> pendingProductRefresh = ConcurrentHashMap.newKeySet();
+    // 单线程：定向刷新与（延后的）覆盖层发布都在这里排队
+    private final ScheduledExecutorService productRefreshPool;
+
+    // ==== 实时库存覆盖层（独立轮询 + 下单扣减），叠加在快照行之上 ====
+    private final InventoryOverlay overlay = new InventoryOverlay();
+    // 覆盖层有变化、已排上一次延后发布（合并成一次）；上次覆盖层发布的时间
+    private final AtomicBoolean overlayPublishPending = new AtomicBoolean();
+    private volatile long lastOverlayPublish = 0;
+
+    // 站点名（多站点时区分各自的快照/日志；主站点来自 WIX_SITE_NAME）
+    private final String site;
 
     // 注入真实的 WixClient（带 @Component 注解）
     private final WixClient wixClient;
 
+    // 全店共享的商家/政策/配送块（所有 feed 行引用同一个实例）
+    private final FeedItem.Merchant merchant;
+
+    // 变体预取专用线程池（固定大小，即并发上限）
+    private final ExecutorService variantFetchPool;
+
+    @Autowired
     public ProductFeedService(WixClient wixClient) {
+        this(PRIMARY_SITE, wixClient, Path.of(EXPORT_DIR), Path.of(SNAPSHOT_FILE));
+    }
+
+    /** 额外站点：独立的 Wix 凭据、导出目录与快照文件；由 FeedSites 创建、恢复与调度 */
+    ProductFeedService(String site, WixClient wixClient, Path exportDir, Path snapshotFile) {
+        this.site = site;
         this.wixClient = wixClient;
+        this.exporter = new FeedExporter(exportDir, EXPORT_KEEP_VERSIONS);
+        this.snapshotFile = snapshotFile;
+        this.snapshotStore = new FeedSnapshotStore(snapshotFile);
+        this.merchant = new FeedItem.Merchant(
+                BRAND_DEFAULT,
+                MATERIAL_DEFAULT,
+                parseShippingLines(SHIPPING_LINES),
+                SELLER_NAME,
+                ensureHttps(SELLER_URL),
+                nonEmpty(RETURNS_URL) ? ensureHttps(RETURNS_URL) : null,
+                RETURN_WINDOW,
+                nonEmpty(PRIVACY_URL) ? ensureHttps(PRIVACY_URL) : null,
+                nonEmpty(TOS_URL) ? ensureHttps(TOS_URL) : null);
+        AtomicInteger seq = new AtomicInteger();
+        this.variantFetchPool = Executors.newFixedThreadPool(VARIANT_FETCH_PARALLELISM, r -> {
+            Thread t = new Thread(r, "wix-variant-fetch-" + site + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.productRefreshPool = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wix-product-refresh-" + site);
+            t.setDaemon(true);
+            return t;
+        });
     }
 
-    /** 每 15 分钟刷新一次产品 feed，符合 OpenAI 的刷新建议。 */
-    @Scheduled(initialDelay = 0, fixedRate = 15 * 60 * 1000)
+    /**
+     * 启动时（调度器开始前）从磁盘恢复上次发布的快照：重启后立即有完整 feed 和价格索引，
+     * 增量缓存也一并恢复，首次后台刷新只重映射有变化的商品。
+     */
+    @PostConstruct
+    public void restoreSnapshot() {
+        long start = System.currentTimeMillis();
+        reloadCategoryRulesFileIfChanged();
+        FeedSnapshotStore.Loaded loaded = snapshotStore.load(merchant, mappingSignature());
+        if (loaded == null) return;
+
+        versionSeq.set(loaded.version);
+        cached.set(buildSnapshot(loaded.version, loaded.parts, loaded.generatedAt, exporter.existing(loaded.version)));
+        publishedParts = loaded.parts;
+        productCache = loaded.cache;
+        firePublished();
+        System.out.println("Product feed [" + site + "] v" + loaded.version + " restored from " + snapshotFile + ": "
+                + cached.get().getProducts().size() + " rows, " + loaded.cache.size() + " cached products in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        variantFetchPool.shutdownNow();
+        productRefreshPool.shutdownNow();
+    }
+
+    /** 默认每 15 分钟刷新一次产品 feed，符合 OpenAI 的刷新建议（FEED_REFRESH_MS 可调；额外站点由 FeedSites 调度）。 */
+    @Scheduled(initialDelay = 0, fixedRateString = "${FEED_REFRESH_MS:900000}")
     public void refreshFeed() {
+        reloadCategoryRulesFileIfChanged();
+        CategoryMatcher matcher;
+        long generation;
+        synchronized (publishLock) {
+            matcher = categoryMatcher;
+            generation = rulesGeneration;
+        }
+        long version = versionSeq.incrementAndGet();
+        FeedExporter.ExportWriter export = exporter.begin(version);
         try {
-            List<WixProduct> wixProducts = wixClient.fetchProducts();
-            List<Map<String, Object>> mapped = new ArrayList<>();
-
-            for (WixProduct p : wixProducts) {
-                // ---------- 先准备“基底 item”（除 id/offer_id/变体专属字段） ----------
-                Map<String, Object> base = new LinkedHashMap<>();
-
-                // Flags
-                base.put("enable_search", "true");
-                base.put("enable_checkout", "true");
-
-                // Basic
-                String parentId = nonEmpty(p.getSku()) ? p.getSku() : p.getId();
-                String baseTitleStr = safeTitle(p.getName());
-                base.put("title", baseTitleStr);
-                base.put("description", stripHtml(p.getDescription()));
-                String detailUrl = ensureHttps(buildProductUrl(p));
-                base.put("link", detailUrl);
-                if (nonEmpty(p.getSku())) base.put("mpn", p.getSku());
-
-                // Item info
-                base.put("condition", "new");
-                base.put("brand", BRAND_DEFAULT);
-                base.put("material", MATERIAL_DEFAULT);
-                base.put("product_category", mapCategory(p));
-                String weightStr = formatWeight(p.getWeight());
-                base.put("weight", (weightStr != null ? weightStr : WEIGHT_DEFAULT));
-
-                // Media
-                String mainImageUrl = extractMainImage(p);
-                if (nonEmpty(mainImageUrl)) base.put("image_link", mainImageUrl);
-                List<String> extraImages = extractAdditionalImages(p, mainImageUrl);
-                if (!extraImages.isEmpty()) base.put("additional_image_link", extraImages);
-
-                // Price（父级）
-                Map<String, Object> basePriceMap = new LinkedHashMap<>();
-                if (p.getPriceData() != null) {
-                    basePriceMap.put("amount", p.getPriceData().getPrice());
-                    basePriceMap.put("currency", p.getPriceData().getCurrency());
+            List<ProductRows> parts = new ArrayList<>();
+            Map<String, ProductRows> previous = productCache;
+            Map<String, ProductRows> nextCache = new HashMap<>(Math.max(16, previous.size() * 4 / 3 + 1));
+            long now = System.currentTimeMillis();
+            int productCount = 0, remapped = 0, mapFailed = 0, rowCount = 0;
+
+            // 按页流式拉取，每页三段：并行算指纹 → 只为指纹变化的商品并发预取变体 → 并行重映射；
+            // 并行阶段按页内下标写各自的结果槽，最后按原商品顺序串行合并（缓存、导出、行顺序都与串行时一致）
+            for (List<WixProduct> page : wixClient.productPages()) {
+                int n = page.size();
+                String[] fingerprints = new String[n];
+                parallelFor(n, i -> {
+                    WixProduct p = page.get(i);
+                    if (p != null) fingerprints[i] = fingerprint(p);
+                });
+                List<WixProduct> changed = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    WixProduct p = page.get(i);
+                    if (p != null && !isReusable(previous.get(p.getId()), fingerprints[i], now)) changed.add(p);
                 }
-                base.put("price", basePriceMap);
-
-                if (p.getPriceData() != null
-                        && p.getPriceData().getDiscountedPrice() != null
-                        && p.getPriceData().getDiscountedPrice() < p.getPriceData().getPrice()) {
-                    Map<String, Object> sale = new LinkedHashMap<>();
-                    sale.put("amount", p.getPriceData().getDiscountedPrice());
-                    sale.put("currency", p.getPriceData().getCurrency());
-                    base.put("sale_price", sale);
-
-                    String start = OffsetDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
-                    String end   = OffsetDateTime.now(ZoneOffset.UTC).plusDays(7).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
-                    base.put("sale_price_effective_date", start + "/" + end);
-                }
-
-                // Availability & inventory（父级兜底）
-                String availabilityStr = mapAvailability(p.getStock() != null ? p.getStock().getInventoryStatus() : null);
-                int invQty = DEFAULT_INVENTORY;
-                if (p.getStock() != null) {
-                    if (p.getStock().isTrackInventory()) {
-                        invQty = p.getStock().isInStock() ? DEFAULT_INVENTORY : 0;
+                PrefetchResult variants = prefetchVariants(changed);
+
+                // 单个商品映射抛异常只记在它自己的槽里，不会经外层 catch 让整轮刷新失败
+                ProductRows[] mappedRows = new ProductRows[n];
+                Exception[] mapErrors = new Exception[n];
+                parallelFor(n, i -> {
+                    WixProduct p = page.get(i);
+                    if (p == null) return;
+                    String fp = fingerprints[i];
+                    ProductRows prev = p.getId() != null ? previous.get(p.getId()) : null;
+                    if (isReusable(prev, fp, now) || (variants.failed.contains(p.getId()) && prev != null)) return;
+                    try {
+                        List<FeedItem> out = new ArrayList<>();
+                        mapProduct(p, variants.byProduct.get(p.getId()), matcher, out);
+                        mappedRows[i] = new ProductRows(fp, out, now, updatedAt(p, prev, fp, now));
+                    } catch (Exception e) {
+                        mapErrors[i] = e;
+                    }
+                });
+
+                for (int i = 0; i < n; i++) {
+                    WixProduct p = page.get(i);
+                    if (p == null) continue;
+                    ProductRows prev = p.getId() != null ? previous.get(p.getId()) : null;
+                    boolean fetchFailed = variants.failed.contains(p.getId());
+
+                    ProductRows rows = mappedRows[i];
+                    if (rows == null) {
+                        if (mapErrors[i] != null) {
+                            mapFailed++;
+                            System.out.println("[Feed] map failed for product " + p.getId()
+                                    + (prev != null ? ", keeping previous rows: " : ", skipped: ") + mapErrors[i]);
+                            if (prev == null) continue;
+                        }
+                        // 指纹未变直接复用；变体拉取失败或映射出错时也沿用上次结果（保留旧映射时间，下轮继续重试）
+                        rows = prev;
+                        nextCache.put(p.getId(), prev);
                     } else {
-                        invQty = DEFAULT_INVENTORY;
+                        remapped++;
+                        // 变体拉取失败且没有旧结果：本轮先用兜底映射，但不进缓存
+                        if (!fetchFailed && fingerprints[i] != null) nextCache.put(p.getId(), rows);
+                        // 重映射拿到了 Wix 的新值：本轮开始前写入的覆盖条目作废
+                        for (FeedItem row : rows.rows) overlay.clearIfOlder(row, rows.mappedAt);
                     }
+                    parts.add(rows);
+                    rowCount += rows.rows.size();
+                    // 行一产出就流式写入导出文件
+                    for (FeedItem row : rows.rows) export.write(overlay.apply(row));
                 }
-                base.put("availability", availabilityStr);
-                if ("preorder".equals(availabilityStr)) {
-                    String availDate = OffsetDateTime.now(ZoneOffset.UTC)
-                            .plusDays(PREORDER_OFFSET_DAYS)
-                            .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
-                    base.put("availability_date", availDate);
+                productCount += page.size();
+            }
+
+            String generatedAt = OffsetDateTime.now(ZoneOffset.UTC).toString();
+            long startVersion = version;
+            synchronized (publishLock) {
+                // 刷新期间发布过单品更新：以单品结果为准
+                for (Map.Entry<String, Patch> e : patches.entrySet()) {
+                    if (e.getValue().version <= startVersion) continue;
+                    parts = replaceProduct(parts, e.getKey(), e.getValue().rows);
+                    putOrRemove(nextCache, e.getKey(), e.getValue().rows);
                 }
-                base.put("inventory_quantity", Math.max(0, invQty));
-
-                // Fulfillment
-                base.put("shipping", parseShippingLines(SHIPPING_LINES));
-
-                // Merchant & returns
-                base.put("seller_name", SELLER_NAME);
-                base.put("seller_url", ensureHttps(SELLER_URL));
-                if (nonEmpty(RETURNS_URL)) base.put("return_policy", ensureHttps(RETURNS_URL));
-                base.put("return_window", RETURN_WINDOW);
-                if (nonEmpty(PRIVACY_URL)) base.put("seller_privacy_policy", ensureHttps(PRIVACY_URL));
-                if (nonEmpty(TOS_URL))     base.put("seller_tos", ensureHttps(TOS_URL));
-
-                // ===== 变体逻辑：先尝试真实变体，其次兜底 Size，最后才输出父级单品 =====
-                boolean wroteVariant = false;
-                boolean hasOptions = (p.getProductOptions() != null && !p.getProductOptions().isEmpty());
-
-                if (p.isManageVariants() && hasOptions) {
-                    // 拉取真实变体
-                    List<Map<String, Object>> realVariants = wixClient.fetchVariantsByProductId(p.getId());
-
-                    // 解析 choices → 签名（判定是否有可区分属性）
-                    Set<String> signatures = new LinkedHashSet<>();
-                    List<Map<String, String>> allChoicePairs = new ArrayList<>();
-                    for (Map<String, Object> v : realVariants) {
-                        // 调试没有变体价格的原因
-                        System.out.println("[FeedDebug] VARIANT_KEYS=" + v.keySet());
-                        System.out.println("[FeedDebug] price=" + v.get("price") + ", priceData=" + v.get("priceData") + ", converted=" + v.get("convertedPriceData"));
-                        Map<String, Object> inner = (Map<String, Object>) v.get("variant");
-                        System.out.println("[FeedDebug] INNER_KEYS=" + (inner == null ? "null" : inner.keySet()));
-                        System.out.println("[FeedDebug] inner.price=" + (inner == null ? null : inner.get("price"))
-        + ", inner.priceData=" + (inner == null ? null : inner.get("priceData")));
-
-                        Map<String, String> pairs = extractChoicePairsFromVariant(v);
-                        allChoicePairs.add(pairs);
-                        signatures.add(buildChoiceSignature(pairs));
-                    }
-                    boolean allEmptyOrSame = signatures.isEmpty()
-                            || (signatures.size() == 1 && (signatures.iterator().next().isEmpty()));
+                patches.clear();
+                // 期间有过其它发布（单品更新 / 库存覆盖层）：换新版本号并按最终结果重写导出，版本号不回退
+                FeedExporter.Export exported;
+                if (versionSeq.get() != startVersion) {
+                    export.abort();
+                    version = versionSeq.incrementAndGet();
+                    exported = exportParts(version, parts);
+                } else {
+                    exported = export.commit();
+                }
+                // 刷新期间规则被热更新过：本轮的行按旧规则映射，不能进缓存
+                publish(version, parts, generatedAt, exported, nextCache, generation);
+            }
+            System.out.println("Product feed [" + site + "] v" + version + " refreshed (with variants): " + rowCount + " rows from " + productCount
+                    + " products (" + remapped + " remapped, " + (productCount - remapped - mapFailed) + " reused"
+                    + (mapFailed > 0 ? ", " + mapFailed + " failed to map" : "") + ")");
+        } catch (Exception e) {
+            // 失败时保留上一版快照不动
+            export.abort();
+            System.out.println("Product feed [" + site + "] refresh failed, keeping v" + cached.get().getVersion() + ": " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /** 在映射池上对下标 [0, n) 并行执行 body；各下标只写自己的结果槽，返回时全部完成且结果可见 */
+    private static void parallelFor(int n, IntConsumer body) {
+        if (MAP_PARALLELISM == 1 || n <= IndexRange.LEAF) {
+            for (int i = 0; i < n; i++) body.accept(i);
+            return;
+        }
+        MAP_POOL.invoke(new IndexRange(0, n, body));
+    }
 
-                    if (!realVariants.isEmpty() && !allEmptyOrSame) {
-                        // 真的有可区分的选项：按变体展开（只要写出了任意变体，就不再输出父级行）
-                        String groupId = safeId(p.getId());
-                        Set<String> seenSig = new HashSet<>();
+    /** 二分下标区间的 fork/join 任务 */
+    private static final class IndexRange extends RecursiveAction {
+        // 单个商品映射只要几十微秒，几个一组再分叉，摊薄任务开销
+        static final int LEAF = 4;
 
-                        for (int i = 0; i < realVariants.size(); i++) {
-                            Map<String, Object> v = realVariants.get(i);
-                            Map<String, String> pairs = allChoicePairs.get(i);
-                            String sig = buildChoiceSignature(pairs);
+        private final int from;
+        private final int to;
+        private final IntConsumer body;
 
-                            if (sig.isEmpty()) continue;  // 跳过没有区分属性的“伪变体”
-                            if (!seenSig.add(sig)) continue; // 去重：同签名只保留一条
+        IndexRange(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
 
-                            Map<String, Object> variant = new LinkedHashMap<>(base);
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF) {
+                for (int i = from; i < to; i++) body.accept(i);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new IndexRange(from, mid, body), new IndexRange(mid, to, body));
+        }
+    }
 
-                            // 变体 ID / SKU
-                            String variantObjId = (v.get("id") != null ? String.valueOf(v.get("id")) : null);
-                            Map<String, Object> inner = (Map<String, Object>) v.get("variant");
-                            String variantSku = inner != null && inner.get("sku") != null ? String.valueOf(inner.get("sku")) : null;
+    /**
+     * 原子发布一版快照，记录与上一版的行级变更，并落盘（调用方持有 publishLock）。
+     * cache 按规则代数 generation 映射；期间规则被热更新过则丢弃，避免旧规则的行回到缓存。
+     */
+    private void publish(long version, List<ProductRows> parts, String generatedAt, FeedExporter.Export export,
+                         Map<String, ProductRows> cache, long generation) {
+        if (generation != rulesGeneration) cache = Map.of();
+        Set<String> rowIds = new HashSet<>();
+        for (ProductRows part : parts) {
+            for (FeedItem row : part.rows) rowIds.add(row.getId());
+        }
+        overlay.retainRows(rowIds);
+        FeedSnapshot next = buildSnapshot(version, parts, generatedAt, export);
+        FeedSnapshot prev = cached.getAndSet(next);
+        changeLog.record(prev, next);
+        publishedParts = parts;
+        productCache = cache;
+        snapshotStore.save(version, generatedAt, mappingSignature(), parts, cache);
+        firePublished();
+    }
 
-                            if (variantSku != null && !variantSku.isBlank()) {
-                                variant.put("mpn", variantSku); // 无 GTIN 时，用 mpn 满足“id/gtin/mpn 之一”
-                            }
+    /** 注册发布监听（见 publishListeners） */
+    void addPublishListener(Runnable listener) {
+        publishListeners.add(listener);
+    }
 
-                            // 覆盖价格（若有）
-                            // ---- 变体价格（先 V3，再 V1 兼容）----
-                            // 覆盖价格（若有）
-                            // ---- 变体价格（先 V3，再 V1 兼容）----
-@SuppressWarnings("unchecked")
-Map<String, Object> v3Price = (Map<String, Object>) v.get("price");
-boolean wroteVariantPrice = false;
-// ...（V3 读取逻辑保持不变）...
+    private void firePublished() {
+        for (Runnable l : publishListeners) {
+            try {
+                l.run();
+            } catch (Exception e) {
+                System.out.println("Product feed [" + site + "] publish listener failed: " + e);
+            }
+        }
+    }
 
-if (!wroteVariantPrice) {
-    // 兼容旧站（V1/V2）：Wix 把价格放在里层 variant 对象
-    
+    /** 按商品分组的行整体写一份导出（单品刷新后用；全量刷新走流式写入） */
+    private FeedExporter.Export exportParts(long version, List<ProductRows> parts) {
+        FeedExporter.ExportWriter w = exporter.begin(version);
+        for (ProductRows part : parts) {
+            for (FeedItem row : part.rows) w.write(overlay.apply(row));
+        }
+        return w.commit();
+    }
 
-    Map<String, Object> priceData = null;
-    if (inner != null) {
-        priceData = (Map<String, Object>) inner.get("priceData");
-        if (priceData == null) {
-            priceData = (Map<String, Object>) inner.get("convertedPriceData");
+    /** 拼出快照行（叠加库存覆盖层），以及每行对应的商品更新时间（供 updated_since 索引） */
+    private FeedSnapshot buildSnapshot(long version, List<ProductRows> parts, String generatedAt,
+                                              FeedExporter.Export export) {
+        int rowCount = 0;
+        for (ProductRows part : parts) rowCount += part.rows.size();
+        List<FeedItem> mapped = new ArrayList<>(rowCount);
+        long[] rowUpdatedAt = new long[rowCount];
+        for (ProductRows part : parts) {
+            for (FeedItem row : part.rows) {
+                rowUpdatedAt[mapped.size()] = part.updatedAt;
+                mapped.add(overlay.apply(row));
+            }
         }
+        return FeedSnapshot.of(version, mapped, rowUpdatedAt, generatedAt, export);
     }
-    // 少数旧返回仍可能在顶层，作为兜底再试一次
-    if (priceData == null) {
-        priceData = (Map<String, Object>) v.get("priceData");
-        if (priceData == null) priceData = (Map<String, Object>) v.get("convertedPriceData");
+
+    /** 影响映射结果的配置签名：变了则落盘的增量缓存作废 */
+    private String mappingSignature() {
+        CategoryMatcher m = categoryMatcher;
+        return String.join("\u0001", m.getSource(), m.getDefaultCategory(), WEIGHT_DEFAULT,
+                String.valueOf(DEFAULT_INVENTORY), String.valueOf(PREORDER_OFFSET_DAYS),
+                String.valueOf(DESCRIPTION_MAX_CHARS));
     }
 
-    if (priceData != null) {
-        Double vPrice = asDouble(priceData.get("price"));
-        Double vSale  = asDouble(priceData.get("discountedPrice"));
-        String vCurr  = priceData.get("currency") != null ? String.valueOf(priceData.get("currency")) : null;
+    // ============ 单品定向刷新 ============
 
-        if (vPrice != null && vCurr != null) {
-            Map<String, Object> variantPrice = new LinkedHashMap<>();
-            variantPrice.put("amount", vPrice);
-            variantPrice.put("currency", vCurr);
-            variant.put("price", variantPrice);
+    /** 单品刷新结果：rows 为 null 表示商品已被删除 */
+    private static final class Patch {
+        final ProductRows rows;
+        final long version;
+
+        Patch(ProductRows rows, long version) {
+            this.rows = rows;
+            this.version = version;
         }
-        if (vSale != null && vCurr != null && vPrice != null && vSale < vPrice) {
-            Map<String, Object> sale = new LinkedHashMap<>();
-            sale.put("amount", vSale);
-            sale.put("currency", vCurr);
-            variant.put("sale_price", sale);
+    }
+
+    /**
+     * 异步定向刷新（webhook 用）：同一商品在处理前重复到达只算一次，
+     * 单线程把积压的商品一起拉取、一起发布一版快照。
+     */
+    public void refreshProductAsync(String productId) {
+        if (productId == null || productId.isBlank()) return;
+        if (!pendingProductRefresh.add(productId.trim())) return;
+        productRefreshPool.execute(() -> {
+            List<String> batch = new ArrayList<>(pendingProductRefresh);
+            if (batch.isEmpty()) return;   // 已被前一个任务一并处理
+            pendingProductRefresh.removeAll(batch);
+            try {
+                refreshProducts(batch);
+            } catch (Exception e) {
+                System.out.println("[Feed] product refresh failed for " + batch + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 只重新拉取给定商品（及其变体）并重映射，写时复制地替换当前快照中这些商品的行：
+     * 价格索引、过滤索引、预序列化字节与导出都随新版本一起发布，不触发全量刷新。
+     * 返回每个商品的结果：updated / removed / not_found / error。
+     */
+    public List<Map<String, Object>> refreshProducts(Collection<String> productIds) {
+        CategoryMatcher matcher;
+        long generation;
+        synchronized (publishLock) {
+            matcher = categoryMatcher;
+            generation = rulesGeneration;
         }
+        long now = System.currentTimeMillis();
+        Map<String, ProductRows> fetched = new LinkedHashMap<>();
+        List<Map<String, Object>> results = new ArrayList<>();
+
+        for (String productId : new LinkedHashSet<>(productIds)) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("product_id", productId);
+            try {
+                WixProduct p = wixClient.fetchProduct(productId);
+                ProductRows rows = null;
+                if (p != null) {
+                    List<WixVariant> variants = null;
+                    if (needsRealVariants(p)) {
+                        PrefetchResult pr = fetchVariantBatch(List.of(p.getId()));
+                        if (pr.failed.contains(p.getId())) throw new IllegalStateException("variants fetch failed");
+                        variants = pr.byProduct.get(p.getId());
+                    }
+                    List<FeedItem> out = new ArrayList<>();
+                    mapProduct(p, variants, matcher, out);
+                    String fp = fingerprint(p);
+                    rows = new ProductRows(fp, out, now, updatedAt(p, productCache.get(productId), fp, now));
+                }
+                fetched.put(productId, rows);
+                r.put("status", rows != null ? "updated" : "removed");
+                r.put("rows", rows != null ? rows.rows.size() : 0);
+            } catch (Exception e) {
+                r.put("status", "error");
+                r.put("message", String.valueOf(e.getMessage()));
+            }
+            results.add(r);
+        }
+        if (fetched.isEmpty()) return results;
+
+        synchronized (publishLock) {
+            List<ProductRows> parts = publishedParts;
+            Map<String, ProductRows> cache = new HashMap<>(productCache);
+            boolean changed = false;
+            for (Map.Entry<String, ProductRows> e : fetched.entrySet()) {
+                List<ProductRows> next = replaceProduct(parts, e.getKey(), e.getValue());
+                if (next == parts) continue;   // 删除了一个本来就不在 feed 里的商品
+                parts = next;
+                changed = true;
+                putOrRemove(cache, e.getKey(), e.getValue());
+            }
+            if (!changed) {
+                for (Map<String, Object> r : results) {
+                    if ("removed".equals(r.get("status"))) r.put("status", "not_found");
+                }
+                return results;
+            }
+            for (ProductRows rows : fetched.values()) {
+                if (rows == null) continue;
+                for (FeedItem row : rows.rows) overlay.clearIfOlder(row, rows.mappedAt);
+            }
+            long version = versionSeq.incrementAndGet();
+            for (Map.Entry<String, ProductRows> e : fetched.entrySet()) patches.put(e.getKey(), new Patch(e.getValue(), version));
+            publish(version, parts, OffsetDateTime.now(ZoneOffset.UTC).toString(), exportParts(version, parts),
+                    cache, generation);
+            for (Map<String, Object> r : results) r.put("version", version);
+            System.out.println("Product feed [" + site + "] v" + version + " patched: " + fetched.keySet() + " in "
+                    + (System.currentTimeMillis() - now) + " ms");
+        }
+        return results;
+    }
+
+    /**
+     * 返回替换了某个商品行的新列表（原列表不动）：rows 为 null 表示删除；原来没有则追加到末尾。
+     * 没有任何变化（删除不存在的商品）时返回原列表。
+     */
+    private static List<ProductRows> replaceProduct(List<ProductRows> parts, String productId, ProductRows rows) {
+        List<ProductRows> out = new ArrayList<>(parts.size() + 1);
+        boolean found = false;
+        for (ProductRows part : parts) {
+            if (productId.equals(part.productId())) {
+                if (!found && rows != null) out.add(rows);
+                found = true;
+            } else {
+                out.add(part);
+            }
+        }
+        if (!found) {
+            if (rows == null) return parts;
+            out.add(rows);
+        }
+        return out;
     }
-}
 
+    private static void putOrRemove(Map<String, ProductRows> cache, String productId, ProductRows rows) {
+        if (rows != null && rows.fingerprint != null) cache.put(productId, rows);
+        else cache.remove(productId);
+    }
 
+    // ============ 增量刷新 ============
 
-                            
-
-                            // 覆盖库存（若有）
-                            @SuppressWarnings("unchecked")
-                            Map<String, Object> inv = (Map<String, Object>) v.get("inventory");
-                            if (inv != null) {
-                                Boolean inStock = asBool(inv.get("inStock"));
-                                Integer qtyVar  = asInt(inv.get("quantity"));
-                                if (inStock != null) {
-                                    variant.put("availability", inStock ? "in_stock" : "out_of_stock");
-                                    variant.put("inventory_quantity", inStock ? (qtyVar != null ? qtyVar : DEFAULT_INVENTORY) : 0);
-                                }
-                            }
-
-                            // 区分属性（size / color / 其他）
-                            if (!pairs.isEmpty()) {
-                                for (Map.Entry<String, String> e : pairs.entrySet()) {
-                                    String k = e.getKey();
-                                    String vs = e.getValue();
-                                    if ("size".equals(k)) {
-                                        variant.put("size", vs);
-                                    } else if ("color".equals(k)) {
-                                        variant.put("color", vs);
-                                    } else {
-                                        @SuppressWarnings("unchecked")
-                                        Map<String, Object> attrs = (Map<String, Object>) variant.getOrDefault("attributes", new LinkedHashMap<>());
-                                        attrs.put(k, vs);
-                                        variant.put("attributes", attrs);
-                                    }
-                                }
-                            }
-
-                            // 分组与最终 ID/offer_id
-                            variant.put("item_group_id", groupId);
-                            variant.put("item_group_title", baseTitleStr);
-                            String idPart = (variantSku != null && !variantSku.isBlank())
-                                    ? variantSku
-                                    : (variantObjId != null ? variantObjId : ("v-" + UUID.randomUUID()));
-                            variant.put("id", safeId(parentId + "-" + idPart));
-
-                            @SuppressWarnings("unchecked")
-                            Map<String, Object> pr = (Map<String, Object>) variant.get("price");
-                            String offerId = variant.get("id") + "-" +
-                                    (pr != null ? String.valueOf(pr.get("amount")) : "0") + "-" +
-                                    (pr != null ? String.valueOf(pr.get("currency")) : "usd");
-                            variant.put("offer_id", offerId);
-
-                            mapped.add(variant);
-                        }
+    /** 单个商品的映射结果缓存：指纹 + 行 + 映射时间 + 商品更新时间 */
+    static final class ProductRows {
+        final String fingerprint;
+        final List<FeedItem> rows;
+        final long mappedAt;
+        final long updatedAt;
+
+        ProductRows(String fingerprint, List<FeedItem> rows, long mappedAt, long updatedAt) {
+            this.fingerprint = fingerprint;
+            this.rows = Collections.unmodifiableList(rows);
+            this.mappedAt = mappedAt;
+            this.updatedAt = updatedAt;
+        }
+
+        /** 所属 Wix 商品 id（同一商品的行共享同一个 Product 块） */
+        String productId() {
+            return rows.isEmpty() ? null : rows.get(0).getProduct().getProductId();
+        }
+    }
 
-                        wroteVariant = true;
-                        // 关键：一旦写出变体，不再输出父级行
-                        continue;
+    /**
+     * 商品更新时间：优先 Wix lastUpdated；解析不了时，指纹未变则沿用上次的时间，否则记为本次映射时间。
+     */
+    private long updatedAt(WixProduct p, ProductRows prev, String fingerprint, long now) {
+        OffsetDateTime lastUpdated = parseLastUpdated(p);
+        if (lastUpdated != null) return lastUpdated.toInstant().toEpochMilli();
+        if (prev != null && fingerprint != null && fingerprint.equals(prev.fingerprint)) return prev.updatedAt;
+        return now;
+    }
+
+    /** 缓存行可复用：指纹一致且未超过最大缓存时长 */
+    private boolean isReusable(ProductRows prev, String fingerprint, long now) {
+        return prev != null && fingerprint != null
+                && fingerprint.equals(prev.fingerprint)
+                && now - prev.mappedAt < ROW_CACHE_MAX_AGE_MS;
+    }
+
+    /**
+     * 商品指纹：id 为空时不缓存（返回 null）。
+     * 优先用 Wix 的 lastUpdated；没有则对整份商品 JSON 做 SHA-256。
+     */
+    private String fingerprint(WixProduct p) {
+        if (p.getId() == null) return null;
+        if (nonEmpty(p.getLastUpdated())) return "u:" + p.getLastUpdated().trim();
+        try {
+            byte[] json = FINGERPRINT_MAPPER.writeValueAsBytes(p);
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            StringBuilder sb = new StringBuilder("h:");
+            for (int i = 0; i < 16; i++) sb.append(String.format("%02x", digest[i]));
+            return sb.toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 把单个 Wix 商品映射为若干 feed 行并追加到 mapped：
+     * 先尝试真实变体（realVariants 由预取阶段提供），其次按 Size 兜底展开，最后输出父级单品。
+     * 同一商品的所有行共享一个 FeedItem.Product 块，商家/政策信息共享 merchant。
+     */
+    void mapProduct(WixProduct p, List<WixVariant> realVariants, CategoryMatcher matcher,
+                            List<FeedItem> mapped) {
+        // ---------- 先准备“基底”（同一商品所有行共享的字段） ----------
+        // id 只由商品本身决定；日期按 UTC 天截断：同一天内重映射得到逐字节相同的行，变更流里不会出现假的更新
+        String productKey = p.getId() != null ? p.getId() : anonymousId(p);
+        String parentId = nonEmpty(p.getSku()) ? p.getSku() : productKey;
+        OffsetDateTime today = LocalDate.now(ZoneOffset.UTC).atStartOfDay().atOffset(ZoneOffset.UTC);
+        String baseTitleStr = safeTitle(p.getName());
+        String weightStr = formatWeight(p.getWeight());
+        String mainImageUrl = extractMainImage(p);
+
+        // Price（父级）
+        FeedItem.Money basePrice = p.getPriceData() != null
+                ? FeedItem.Money.of(p.getPriceData().getPrice(), p.getPriceData().getCurrency())
+                : FeedItem.Money.EMPTY;
+        FeedItem.Money baseSale = null;
+        String saleEffectiveDate = null;
+        if (p.getPriceData() != null
+                && p.getPriceData().getDiscountedPrice() != null
+                && p.getPriceData().getDiscountedPrice() < p.getPriceData().getPrice()) {
+            baseSale = FeedItem.Money.of(p.getPriceData().getDiscountedPrice(), p.getPriceData().getCurrency());
+            saleEffectiveDate = today.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME) + "/"
+                    + today.plusDays(SALE_WINDOW_DAYS).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        }
+
+        // Availability & inventory（父级兜底）
+        String availabilityStr = mapAvailability(p.getStock() != null ? p.getStock().getInventoryStatus() : null);
+        int invQty = DEFAULT_INVENTORY;
+        if (p.getStock() != null) {
+            if (p.getStock().isTrackInventory()) {
+                invQty = p.getStock().isInStock() ? DEFAULT_INVENTORY : 0;
+            } else {
+                invQty = DEFAULT_INVENTORY;
+            }
+        }
+        String availDate = null;
+        if ("preorder".equals(availabilityStr)) {
+            availDate = today.plusDays(PREORDER_OFFSET_DAYS).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        }
+
+        FeedItem.Product product = new FeedItem.Product(
+                merchant,
+                p.getId(),
+                safeId(productKey),
+                baseTitleStr,
+                stripHtml(p.getDescription()),
+                ensureHttps(buildProductUrl(p)),
+                nonEmpty(p.getSku()) ? p.getSku() : null,
+                mapCategory(p, matcher),
+                weightStr != null ? weightStr : WEIGHT_DEFAULT,
+                nonEmpty(mainImageUrl) ? mainImageUrl : null,
+                extractAdditionalImages(p, mainImageUrl),
+                basePrice,
+                baseSale,
+                saleEffectiveDate,
+                availabilityStr,
+                availDate,
+                Math.max(0, invQty));
+
+        // ===== 变体逻辑：先尝试真实变体，其次兜底 Size，最后才输出父级单品 =====
+        if (needsRealVariants(p) && realVariants != null) {
+
+            // 解析 choices → 签名（判定是否有可区分属性）
+            Set<String> signatures = new LinkedHashSet<>();
+            List<Map<String, String>> allChoicePairs = new ArrayList<>();
+            for (WixVariant v : realVariants) {
+                Map<String, String> pairs = extractChoicePairsFromVariant(v);
+                allChoicePairs.add(pairs);
+                signatures.add(buildChoiceSignature(pairs));
+            }
+            boolean allEmptyOrSame = signatures.isEmpty()
+                    || (signatures.size() == 1 && (signatures.iterator().next().isEmpty()));
+
+            if (!realVariants.isEmpty() && !allEmptyOrSame) {
+                // 真的有可区分的选项：按变体展开（只要写出了任意变体，就不再输出父级行）
+                Set<String> seenSig = new HashSet<>();
+
+                for (int i = 0; i < realVariants.size(); i++) {
+                    WixVariant v = realVariants.get(i);
+                    Map<String, String> pairs = allChoicePairs.get(i);
+                    String sig = buildChoiceSignature(pairs);
+
+                    if (sig.isEmpty()) continue;  // 跳过没有区分属性的“伪变体”
+                    if (!seenSig.add(sig)) continue; // 去重：同签名只保留一条
+
+                    // 变体 ID / SKU
+                    String variantObjId = v.getId();
+                    String variantSku = v.getSku();
+                    // 无 GTIN 时，用 mpn 满足“id/gtin/mpn 之一”
+                    String variantMpn = (variantSku != null && !variantSku.isBlank()) ? variantSku : null;
+
+                    // ---- 变体价格：Wix 把价格放在里层 variant 对象（V1/V2），少数旧返回在顶层（优先级见 WixVariant） ----
+                    FeedItem.Money variantPrice = null;
+                    FeedItem.Money variantSale = null;
+                    WixVariant.PriceData priceData = v.getPriceData();
+                    if (priceData != null) {
+                        Double vPrice = priceData.getPrice();
+                        Double vSale  = priceData.getDiscountedPrice();
+                        String vCurr  = priceData.getCurrency();
+
+                        if (vPrice != null && vCurr != null) variantPrice = FeedItem.Money.of(vPrice, vCurr);
+                        if (vSale != null && vCurr != null && vPrice != null && vSale < vPrice) {
+                            variantSale = FeedItem.Money.of(vSale, vCurr);
+                        }
                     }
-                }
 
-                // ---------- 若没有真实变体：尝试“按 Size 兜底展开”；成功就不再输出父级 ----------
-                List<String> sizeChoices = extractSizeChoices(p);
-                if (!wroteVariant && sizeChoices != null && !sizeChoices.isEmpty()) {
-                    String groupId = safeId(p.getId());
-                    for (String size : sizeChoices) {
-                        Map<String, Object> variant = new LinkedHashMap<>(base);
-                        String variantId = safeId(parentId + "-sz-" + slug(size));
-                        variant.put("id", variantId);
-                        variant.put("item_group_id", groupId);
-                        variant.put("item_group_title", baseTitleStr);
-                        variant.put("size", size);
-
-                        String offerId = variantId + "-" +
-                                (p.getPriceData() != null ? p.getPriceData().getPrice() : "0") + "-" +
-                                (p.getPriceData() != null ? p.getPriceData().getCurrency() : "usd");
-                        variant.put("offer_id", offerId);
-
-                        mapped.add(variant);
+                    // 覆盖库存（若有）
+                    String variantAvailability = null;
+                    Integer variantQty = null;
+                    WixVariant.Inventory inv = v.getInventory();
+                    if (inv != null) {
+                        Boolean inStock = inv.getInStock();
+                        Integer qtyVar  = inv.getQuantity();
+                        if (inStock != null) {
+                            variantAvailability = inStock ? "in_stock" : "out_of_stock";
+                            variantQty = inStock ? (qtyVar != null ? qtyVar : DEFAULT_INVENTORY) : 0;
+                        }
                     }
-                    wroteVariant = true;
-                    continue; // 兜底展开后也不再输出父级行
-                }
 
-                // ---------- 到这里仍未写出任何变体 ⇒ 输出父级单品 ----------
-                if (!wroteVariant) {
-                    Map<String, Object> single = new LinkedHashMap<>(base);
-                    single.put("id", safeId(parentId));
-                    String offerId = single.get("id") + "-" +
-                            (p.getPriceData() != null ? p.getPriceData().getPrice() : "0") + "-" +
-                            (p.getPriceData() != null ? p.getPriceData().getCurrency() : "usd");
-                    single.put("offer_id", offerId);
-                    mapped.add(single);
+                    // 最终 ID/offer_id
+                    String idPart = variantMpn != null
+                            ? variantSku
+                            : (variantObjId != null ? variantObjId : ("v-" + i));
+                    String variantId = safeId(parentId + "-" + idPart);
+                    FeedItem.Money pr = variantPrice != null ? variantPrice : basePrice;
+                    String offerId = variantId + "-" + pr.getAmount() + "-" + pr.getCurrency();
+
+                    mapped.add(new FeedItem(product, FeedItem.Kind.VARIANT, variantId, offerId, variantMpn,
+                            variantPrice, variantSale, variantAvailability, variantQty, pairs, variantObjId));
                 }
+
+                // 关键：一旦写出变体，不再输出父级行
+                return;
             }
+        }
 
-            cached.set(Collections.unmodifiableList(mapped));
-            lastGeneratedAt = OffsetDateTime.now(ZoneOffset.UTC).toString();
-            System.out.println("Product feed refreshed (with variants): " + mapped.size());
-        } catch (Exception e) {
-            e.printStackTrace();
+        // ---------- 若没有真实变体：尝试“按 Size 兜底展开”；成功就不再输出父级 ----------
+        List<String> sizeChoices = extractSizeChoices(p);
+        if (sizeChoices != null && !sizeChoices.isEmpty()) {
+            for (String size : sizeChoices) {
+                String variantId = safeId(parentId + "-sz-" + slug(size));
+                String offerId = variantId + "-" +
+                        (p.getPriceData() != null ? p.getPriceData().getPrice() : "0") + "-" +
+                        (p.getPriceData() != null ? p.getPriceData().getCurrency() : "usd");
+                mapped.add(new FeedItem(product, FeedItem.Kind.SIZE_VARIANT, variantId, offerId,
+                        null, null, null, null, null, Map.of("size", size)));
+            }
+            return; // 兜底展开后也不再输出父级行
         }
+
+        // ---------- 到这里仍未写出任何变体 ⇒ 输出父级单品 ----------
+        String singleId = safeId(parentId);
+        String offerId = singleId + "-" +
+                (p.getPriceData() != null ? p.getPriceData().getPrice() : "0") + "-" +
+                (p.getPriceData() != null ? p.getPriceData().getCurrency() : "usd");
+        mapped.add(new FeedItem(product, FeedItem.Kind.SINGLE, singleId, offerId,
+                null, null, null, null, null, null));
     }
 
+
     /**
      * Controller 调用该方法返回 JSON
      * 返回结构：
@@ -356,12 +820,280 @@ if (!wroteVariantPrice) {
      * }
      */
     public Map<String, Object> getFeedResponse() {
+        FeedSnapshot snap = cached.get();
         Map<String, Object> resp = new LinkedHashMap<>();
-        resp.put("products", cached.get());
-        resp.put("generated_at", lastGeneratedAt);
+        resp.put("products", snap.getProducts());
+        resp.put("generated_at", snap.getGeneratedAt());
         return resp;
     }
 
+    /**
+     * 从 version 之后到最新一版的净行级变更；version 太旧（已滚出保留范围）或不认识时返回 null，
+     * 客户端需全量重拉 feed。
+     */
+    FeedChangeLog.Delta changesSince(long version) {
+        return changeLog.since(version);
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    /** 当前快照（含预序列化字节与 ETag），供 Controller 直接输出 */
+    public FeedSnapshot getSnapshot() {
+        return cached.get();
+    }
+
+    /** 按 feed 行 id 查价格/库存（O(1)，读当前快照的索引，库存以实时覆盖层为准）；找不到返回 null */
+    public FeedSnapshot.PriceEntry findPrice(String id) {
+        return overlay.apply(id, cached.get().findPrice(id));
+    }
+
+    // ============ 实时库存覆盖层 ============
+
+    /** Wix 未管理变体的商品，库存挂在这个默认变体上 */
+    private static final String DEFAULT_VARIANT_ID = "00000000-0000-0000-0000-000000000000";
+
+    /**
+     * 库存轮询（默认每分钟，INVENTORY_REFRESH_MS 可调）：只拉 Wix 库存条目、不拉商品与变体详情，
+     * 按 (productId, variantId) 对到当前快照的行写入覆盖层；Wix 没有库存数据的行清掉本轮之前的覆盖
+     * （例如不跟踪库存的行上的下单扣减）。可见值有变化才排一次延后发布（不重映射）。
+     */
+    @Scheduled(initialDelayString = "${INVENTORY_REFRESH_MS:60000}", fixedDelayString = "${INVENTORY_REFRESH_MS:60000}")
+    public void refreshInventory() {
+        List<ProductRows> parts = publishedParts;
+        if (parts.isEmpty()) return;
+        long started = System.currentTimeMillis();
+        List<WixInventoryItem> items;
+        try {
+            items = wixClient.queryInventoryItems();
+        } catch (Exception e) {
+            System.out.println("[Feed] inventory refresh failed for " + site + ": " + e.getMessage());
+            return;
+        }
+
+        Map<String, WixInventoryItem> byProduct = new HashMap<>(Math.max(16, items.size() * 4 / 3 + 1));
+        for (WixInventoryItem item : items) {
+            if (item.getProductId() != null) byProduct.put(item.getProductId(), item);
+        }
+
+        int matched = 0, changed = 0;
+        for (ProductRows part : parts) {
+            WixInventoryItem item = byProduct.get(part.productId());
+            Map<String, WixInventoryItem.Variant> variants = new HashMap<>();
+            if (item != null) {
+                for (WixInventoryItem.Variant v : item.getVariants()) variants.put(v.getVariantId(), v);
+            }
+            WixInventoryItem.Variant productLevel = variants.size() == 1
+                    ? variants.values().iterator().next()
+                    : variants.get(DEFAULT_VARIANT_ID);
+
+            for (FeedItem row : part.rows) {
+                WixInventoryItem.Variant v = row.variantId != null ? variants.get(row.variantId) : productLevel;
+                Boolean inStock = v != null ? v.getInStock() : null;
+                if (inStock == null) {
+                    // Wix 没有这一行的库存数据：以快照里的映射值为准
+                    if (overlay.clearIfOlder(row, started)) changed++;
+                    continue;
+                }
+                Integer qty = v.getQuantity();
+                int quantity = !inStock ? 0 : (item.isTrackQuantity() && qty != null ? Math.max(0, qty) : DEFAULT_INVENTORY);
+                String availability = "preorder".equals(row.getAvailability())
+                        ? "preorder"
+                        : (inStock ? "in_stock" : "out_of_stock");
+                matched++;
+                if (overlay.put(row, availability, quantity)) changed++;
+            }
+        }
+        if (changed > 0) requestOverlayPublish();
+        System.out.println("[Feed] inventory refreshed: " + items.size() + " items, " + matched + " rows matched, "
+                + changed + " changed in " + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    /**
+     * 下单成功后扣减库存（覆盖层立即生效，查价马上看到；feed 快照随后合并重发）。
+     * 行不存在返回 null，否则返回扣减后的价格/库存。
+     */
+    public FeedSnapshot.PriceEntry decrementStock(String id, int qty) {
+        if (id == null || qty <= 0) return null;
+        FeedSnapshot.PriceEntry base = cached.get().findPrice(id);
+        if (base == null) return null;
+        overlay.decrement(id, qty, base);
+        requestOverlayPublish();
+        return findPrice(id);
+    }
+
+    /** 排一次覆盖层发布：距上次不足 INVENTORY_PUBLISH_MIN_MS 时延后，期间的变化合并成一次 */
+    private void requestOverlayPublish() {
+        if (!overlayPublishPending.compareAndSet(false, true)) return;
+        long delay = Math.max(0, lastOverlayPublish + OVERLAY_PUBLISH_MIN_MS - System.currentTimeMillis());
+        productRefreshPool.schedule(() -> {
+            overlayPublishPending.set(false);
+            publishOverlay();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 行不变、只把覆盖层重新叠加，发布一版只换库存的快照：库存没变的行沿用上一版的实例，
+     * 序列化字节与哈希直接复制；导出文件与落盘快照都不重写（落盘的是未叠加覆盖层的映射结果，本来就没变）。
+     * 没有任何可见变化时不发布。
+     */
+    void publishOverlay() {
+        synchronized (publishLock) {
+            List<ProductRows> parts = publishedParts;
+            FeedSnapshot prev = cached.get();
+            List<FeedItem> prevRows = prev.getProducts();
+            if (parts.isEmpty()) return;
+
+            List<FeedItem> rows = new ArrayList<>(prevRows.size());
+            int changed = 0;
+            for (ProductRows part : parts) {
+                for (FeedItem row : part.rows) {
+                    FeedItem shown = overlay.apply(row);
+                    FeedItem old = rows.size() < prevRows.size() ? prevRows.get(rows.size()) : null;
+                    // 上一版与 publishedParts 同时发布，同位置就是同一基础行叠加覆盖的结果
+                    if (old != null && Objects.equals(old.getAvailability(), shown.getAvailability())
+                            && old.getInventoryQuantity() == shown.getInventoryQuantity()) {
+                        shown = old;
+                    } else {
+                        changed++;
+                    }
+                    rows.add(shown);
+                }
+            }
+            if (changed == 0 && rows.size() == prevRows.size()) return;
+
+            long version = versionSeq.incrementAndGet();
+            String generatedAt = OffsetDateTime.now(ZoneOffset.UTC).toString();
+            FeedSnapshot next = rows.size() == prevRows.size()
+                    ? FeedSnapshot.withStock(version, prev, rows, generatedAt)
+                    : buildSnapshot(version, parts, generatedAt, prev.getExport());
+            cached.set(next);
+            changeLog.record(prev, next);
+            lastOverlayPublish = System.currentTimeMillis();
+            firePublished();
+            System.out.println("Product feed [" + site + "] v" + version + " restocked: " + changed + " rows");
+        }
+    }
+
+    // ============ 类目规则热更新 ============
+
+    /**
+     * 运行时替换类目规则（格式同 CATEGORY_RULES）；defaultCategory 为空时沿用当前默认类目。
+     * 已缓存的行按旧规则映射，一并清空，下一次刷新全部按新规则重映射。
+     * 在 publishLock 内换规则并递增规则代数：正在进行的刷新发布时发现代数变了，就不会把旧规则的行写回缓存。
+     */
+    public CategoryMatcher reloadCategoryRules(String rules, String defaultCategory) {
+        synchronized (publishLock) {
+            String def = (defaultCategory == null || defaultCategory.isBlank())
+                    ? categoryMatcher.getDefaultCategory() : defaultCategory.trim();
+            CategoryMatcher next = CategoryMatcher.compile(rules, def);
+            categoryMatcher = next;
+            productCache = Map.of();
+            rulesGeneration++;
+            System.out.println("[Feed] category rules reloaded: " + next.ruleCount() + " rules, "
+                    + next.keywordCount() + " keywords");
+            return next;
+        }
+    }
+
+    /** 当前生效的类目匹配器（映射时按刷新开始时的实例使用） */
+    CategoryMatcher getCategoryMatcher() {
+        return categoryMatcher;
+    }
+
+    /** 当前生效的类目规则 */
+    public Map<String, Object> getCategoryRules() {
+        CategoryMatcher m = categoryMatcher;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("rules", m.getSource());
+        out.put("default_category", m.getDefaultCategory());
+        out.put("rule_count", m.ruleCount());
+        out.put("keyword_count", m.keywordCount());
+        return out;
+    }
+
+    /** 配了 CATEGORY_RULES_FILE 时，文件修改时间变化就重新加载 */
+    private void reloadCategoryRulesFileIfChanged() {
+        if (CATEGORY_RULES_FILE.isEmpty()) return;
+        Path file = Path.of(CATEGORY_RULES_FILE);
+        try {
+            long mtime = Files.getLastModifiedTime(file).toMillis();
+            if (mtime == categoryRulesFileMtime) return;
+            reloadCategoryRules(Files.readString(file), null);
+            categoryRulesFileMtime = mtime;
+        } catch (Exception e) {
+            System.out.println("[Feed] category rules file not loaded (" + CATEGORY_RULES_FILE + "): " + e.getMessage());
+        }
+    }
+
+    // ============ 变体预取 ============
+
+    /** 是否需要拉取真实变体：开启了变体管理且有规格选项 */
+    private boolean needsRealVariants(WixProduct p) {
+        return p.isManageVariants() && p.getProductOptions() != null && !p.getProductOptions().isEmpty();
+    }
+
+    /** 预取结果：productId → 变体列表，以及拉取失败的 productId */
+    private static final class PrefetchResult {
+        final Map<String, List<WixVariant>> byProduct = new HashMap<>();
+        final Set<String> failed = new HashSet<>();
+    }
+
+    /**
+     * 拉取所有需要真实变体的商品的变体列表：按 WixClient.getVariantBatchSize() 分批，
+     * 每批一次批量查询（内部翻页），各批在 variantFetchPool 上并发（并发度 = VARIANT_FETCH_PARALLELISM）。
+     * 某批批量查询失败时，该批退回逐个商品查询；单个商品仍失败则视为无变体，并记入 failed 供增量缓存判断。
+     */
+    private PrefetchResult prefetchVariants(List<WixProduct> products) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (WixProduct p : products) {
+            if (p != null && needsRealVariants(p)) ids.add(p.getId());
+        }
+
+        List<CompletableFuture<PrefetchResult>> futures = new ArrayList<>();
+        int batchSize = wixClient.getVariantBatchSize();
+        List<String> all = new ArrayList<>(ids);
+        for (int from = 0; from < all.size(); from += batchSize) {
+            List<String> batch = all.subList(from, Math.min(all.size(), from + batchSize));
+            futures.add(CompletableFuture.supplyAsync(() -> fetchVariantBatch(batch), variantFetchPool));
+        }
+
+        PrefetchResult out = new PrefetchResult();
+        for (CompletableFuture<PrefetchResult> f : futures) {
+            PrefetchResult r = f.join();
+            out.byProduct.putAll(r.byProduct);
+            out.failed.addAll(r.failed);
+        }
+        return out;
+    }
+
+    /** 一批商品的变体：先批量查询，失败再逐个查询；站点不支持批量接口时直接逐个查询 */
+    private PrefetchResult fetchVariantBatch(List<String> ids) {
+        PrefetchResult out = new PrefetchResult();
+        if (wixClient.supportsBulkVariants()) {
+            try {
+                out.byProduct.putAll(wixClient.queryVariantsBulk(ids));
+                return out;
+            } catch (Exception e) {
+                // 接口不支持时 WixClient 已记下并打过日志，这里只记临时失败
+                if (wixClient.supportsBulkVariants()) {
+                    System.out.println("[Feed] bulk variants failed for " + ids.size() + " products, falling back per product: " + e.getMessage());
+                }
+            }
+        }
+        for (String id : ids) {
+            try {
+                out.byProduct.put(id, wixClient.queryVariants(id));
+            } catch (Exception ex) {
+                System.out.println("[Feed] prefetch variants failed for " + id + ": " + ex.getMessage());
+                out.byProduct.put(id, Collections.emptyList());
+                out.failed.add(id);
+            }
+        }
+        return out;
+    }
+
     // ============ 辅助方法 ============
 
     private static String getenv(String k, String def) {
@@ -377,14 +1109,9 @@ if (!wroteVariantPrice) {
         return s != null && !s.trim().isEmpty();
     }
 
-    private String stripHtml(String html) {
-        if (html == null) return "";
-        String text = html.replaceAll("(?is)<script.*?>.*?</script>", " ")
-                .replaceAll("(?is)<style.*?>.*?</style>", " ")
-                .replaceAll("<[^>]*>", " ")
-                .replace("&nbsp;", " ")
-                .trim();
-        return text.length() > 5000 ? text.substring(0, 5000) : text;
+    /** 描述 HTML → 纯文本（单趟扫描，写满 DESCRIPTION_MAX_CHARS 即停） */
+    String stripHtml(String html) {
+        return HtmlText.toText(html, DESCRIPTION_MAX_CHARS);
     }
 
     private String ensureHttps(String url) {
@@ -395,11 +1122,34 @@ if (!wroteVariantPrice) {
     }
 
     private String safeId(String id) {
-        if (id == null) return UUID.randomUUID().toString();
-        String v = id.trim();
+        String v = id == null ? "" : id.trim();
         return v.length() > 100 ? v.substring(0, 100) : v;
     }
 
+    /** Wix 没给 id 的商品：按名称 + slug + 链接的哈希生成稳定 id（同一商品每次相同） */
+    private String anonymousId(WixProduct p) {
+        String key = Optional.ofNullable(p.getName()).orElse("") + "\u0001"
+                + Optional.ofNullable(p.getSlug()).orElse("") + "\u0001" + buildProductUrl(p);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder("p-");
+            for (int i = 0; i < 8; i++) sb.append(String.format("%02x", digest[i]));
+            return sb.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Wix lastUpdated（UTC）；没有或解析不了返回 null */
+    private OffsetDateTime parseLastUpdated(WixProduct p) {
+        if (!nonEmpty(p.getLastUpdated())) return null;
+        try {
+            return OffsetDateTime.parse(p.getLastUpdated().trim()).withOffsetSameInstant(ZoneOffset.UTC);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private String safeTitle(String title) {
         if (title == null || title.trim().isEmpty()) return "Untitled";
         String t = title.trim();
@@ -472,30 +1222,13 @@ if (!wroteVariantPrice) {
         return list;
     }
 
-    /** 依据标题/slug（可按需扩：tags、collections）做可配置的类目映射 */
-    private String mapCategory(WixProduct p) {
+    /** 依据标题/slug（可按需扩：tags、collections）做可配置的类目映射；规则已预编译，对文本只扫一遍 */
+    String mapCategory(WixProduct p, CategoryMatcher matcher) {
         String name = Optional.ofNullable(p.getName()).orElse("");
         String slug = Optional.ofNullable(p.getSlug()).orElse("");
 
         String text = (name + " " + slug).toLowerCase(Locale.ROOT);
-
-        for (String rule : CATEGORY_RULES_RAW.split(";")) {
-            String r = rule.trim();
-            if (r.isEmpty() || !r.contains("=>")) continue;
-
-            String[] kv = r.split("=>", 2);
-            String keys = kv[0].trim().toLowerCase(Locale.ROOT);
-            String categoryPath = kv[1].trim();
-
-            for (String k : keys.split("\\|")) {
-                String key = k.trim();
-                if (key.isEmpty()) continue;
-                if (text.contains(key)) {
-                    return categoryPath;
-                }
-            }
-        }
-        return DEFAULT_CATEGORY;
+        return matcher.match(text);
     }
 
     /** 提取 Size 选项（兜底用；真实变体优先） */
@@ -524,69 +1257,6 @@ if (!wroteVariantPrice) {
         return t.isEmpty() ? "na" : t;
     }
 
-    /* ---------- 安全取值（基础类型） ---------- */
-    private Double asDouble(Object o) {
-        if (o == null) return null;
-        if (o instanceof Number) return ((Number) o).doubleValue();
-        try { return Double.valueOf(String.valueOf(o)); } catch (Exception e) { return null; }
-    }
-    private Integer asInt(Object o) {
-        Double d = asDouble(o);
-        return d == null ? null : d.intValue();
-    }
-    private Boolean asBool(Object o) {
-        if (o == null) return null;
-        if (o instanceof Boolean) return (Boolean) o;
-        if (o instanceof String) return Boolean.parseBoolean((String) o);
-        return null;
-    }
-
-    /* ---------- 安全取值（沿路径） ---------- */
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> map(Map<String, Object> m, String... path) {
-        Object cur = m;
-        for (String k : path) {
-            if (!(cur instanceof Map)) return null;
-            cur = ((Map<String, Object>) cur).get(k);
-            if (cur == null) return null;
-        }
-        return (Map<String, Object>) cur;
-    }
-    private String str(Map<String, Object> m, String... path) {
-        Object cur = m;
-        for (String k : path) {
-            if (!(cur instanceof Map)) return null;
-            cur = ((Map<?, ?>) cur).get(k);
-            if (cur == null) return null;
-        }
-        return String.valueOf(cur);
-    }
-    private Double num(Map<String, Object> m, String... path) {
-        Object cur = m;
-        for (String k : path) {
-            if (!(cur instanceof Map)) return null;
-            cur = ((Map<?, ?>) cur).get(k);
-            if (cur == null) return null;
-        }
-        if (cur instanceof Number) return ((Number) cur).doubleValue();
-        try { return Double.valueOf(String.valueOf(cur)); } catch (Exception e) { return null; }
-    }
-    private Integer intVal(Map<String, Object> m, String... path) {
-        Double n = num(m, path);
-        return n == null ? null : n.intValue();
-    }
-    private Boolean bool(Map<String, Object> m, String... path) {
-        Object cur = m;
-        for (String k : path) {
-            if (!(cur instanceof Map)) return null;
-            cur = ((Map<?, ?>) cur).get(k);
-            if (cur == null) return null;
-        }
-        if (cur instanceof Boolean) return (Boolean) cur;
-        if (cur instanceof String) return Boolean.parseBoolean((String) cur);
-        return null;
-    }
-
     /* ---------- 规格归一化与解析 ---------- */
     /** 规格名归一化：size/color（含中文“尺寸/尺码/颜色/顏色”）；其他统一为小写、空白转下划线 */
     private String normalizeOptionName(String k) {
@@ -599,49 +1269,20 @@ if (!wroteVariantPrice) {
         return t;
     }
 
-    /** 解析变体 choices：兼容 Map 与 List 两种结构，输出为标准键名（size/color/…），中文同样归一化 */
-    @SuppressWarnings("unchecked")
-    private Map<String, String> extractChoicePairsFromVariant(Map<String, Object> v) {
+    /** 变体 choices（WixJson 已把 Map / List 两种结构读成名/值对）→ 标准键名（size/color/…），中文同样归一化 */
+    Map<String, String> extractChoicePairsFromVariant(WixVariant v) {
         Map<String, String> out = new LinkedHashMap<>();
         if (v == null) return out;
-        Object choicesObj = v.get("choices");
-        if (choicesObj == null) return out;
-
-        if (choicesObj instanceof Map) {
-            Map<?, ?> m = (Map<?, ?>) choicesObj;
-            for (Map.Entry<?, ?> e : m.entrySet()) {
-                if (e.getKey() == null || e.getValue() == null) continue;
-                String normKey = normalizeOptionName(String.valueOf(e.getKey()).trim());
-                String val = String.valueOf(e.getValue()).trim();
-                if (!normKey.isEmpty() && !val.isEmpty()) out.put(normKey, val);
-            }
-        } else if (choicesObj instanceof List) {
-            List<?> arr = (List<?>) choicesObj;
-            for (Object o : arr) {
-                if (!(o instanceof Map)) continue;
-                Map<String, Object> one = (Map<String, Object>) o;
-
-                String rawName = null;
-                if (one.get("name") != null) rawName = String.valueOf(one.get("name"));
-                else if (one.get("option") != null) rawName = String.valueOf(one.get("option"));
-                else if (one.get("optionName") != null) rawName = String.valueOf(one.get("optionName"));
-
-                String rawVal = null;
-                if (one.get("value") != null) rawVal = String.valueOf(one.get("value"));
-                else if (one.get("selection") != null) rawVal = String.valueOf(one.get("selection"));
-                else if (one.get("choice") != null) rawVal = String.valueOf(one.get("choice"));
-
-                if (rawName == null || rawVal == null) continue;
-                String normKey = normalizeOptionName(rawName.trim());
-                String val = rawVal.trim();
-                if (!normKey.isEmpty() && !val.isEmpty()) out.put(normKey, val);
-            }
+        for (String[] choice : v.getChoices()) {
+            String normKey = normalizeOptionName(choice[0].trim());
+            String val = choice[1].trim();
+            if (!normKey.isEmpty() && !val.isEmpty()) out.put(normKey, val);
         }
         return out;
     }
 
     /** 把 choices 生成签名，用于判断“是否有区分属性”和去重；例如 size=small|color=green */
-    private String buildChoiceSignature(Map<String, String> pairs) {
+    String buildChoiceSignature(Map<String, String> pairs) {
         if (pairs == null || pairs.isEmpty()) return "";
         List<String> parts = new ArrayList<>();
         pairs.entrySet().stream()
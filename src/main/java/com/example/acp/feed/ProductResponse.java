@@ -0,0 +1,25 @@
+package com.example.acp.feed;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * 用于反序列化 Wix Stores API 单个商品的根对象（GET /stores/v1/products/{id}），
+ * 只关注 product，忽略其它未知属性。
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ProductResponse {
+    private WixProduct product;
+
+    public WixProduct getProduct() {
+        return product;
+    }
+
+    public void setProduct(WixProduct product) {
+        this.product = product;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductResponse{product=" + product + "}";
+    }
+}
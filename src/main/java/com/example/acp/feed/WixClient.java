@@ -1,12 +1,17 @@
 package com.example.acp.feed;
 
+import com.example.acp.http.OutboundHttpClient;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
-import java.net.http.HttpHeaders;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.function.Consumer;
 
 @Component
 public class WixClient {
@@ -17,83 +22,369 @@ public class WixClient {
     @Value("${wix.site.id}")
     private String siteId;
 
-    private static final String API_BASE = "https://www.wixapis.com";
-    private final RestTemplate restTemplate = new RestTemplate();
+    /** Wix API 根地址（测试时可指向本地替身） */
+    @Value("${wix.api.base:https://www.wixapis.com}")
+    private String apiBase;
 
-    /** 产品列表：保持 v1 */
-    public List<WixProduct> fetchProducts() {
-        String url = API_BASE + "/stores/v1/products/query";
-        final org.springframework.http.HttpHeaders headers = new org.springframework.http.HttpHeaders();
-        headers.set(org.springframework.http.HttpHeaders.AUTHORIZATION, apiKey);
-        headers.set("wix-site-id", siteId);
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+    private final RestTemplate restTemplate;
 
-        Map<String, Object> body = new HashMap<>();
-        body.put("query", new HashMap<>());
+    @Autowired
+    public WixClient(OutboundHttpClient http) {
+        // 共享连接池：一次刷新的上百次 Wix 调用复用同一批 keep-alive 连接
+        this.restTemplate = http.restTemplate();
+    }
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
+    /** forSite 的副本与基准测试里的替身客户端用 */
+    WixClient(RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
+    }
+
+    public String getSiteId() {
+        return siteId;
+    }
+
+    /** 另一个 Wix 站点的客户端：换站点 id 与 API key，其余配置和连接池沿用当前实例 */
+    WixClient forSite(String siteId, String apiKey) {
+        WixClient c = new WixClient(restTemplate);
+        c.apiKey = apiKey;
+        c.siteId = siteId;
+        c.apiBase = apiBase;
+        c.productPageSize = productPageSize;
+        c.variantBatchSize = variantBatchSize;
+        c.variantPageSize = variantPageSize;
+        c.variantBulkPath = variantBulkPath;
+        return c;
+    }
+
+    /** 产品分页大小（Wix v1 products/query 单页上限 100） */
+    @Value("${wix.products.page-size:100}")
+    private int productPageSize;
+
+    /** 分页安全上限，防止对端 metadata 异常时无限翻页 */
+    private static final int MAX_PRODUCT_PAGES = 10_000;
+
+    /** 字段投影：只让 Wix 返回 ProductFeedService 实际映射用到的字段 */
+    static final List<String> PRODUCT_FIELDS = List.of(
+            "id", "name", "slug", "visible", "productType", "description", "sku", "weight",
+            "manageVariants", "productOptions", "stock", "priceData", "media", "productPageUrl", "lastUpdated");
+
+    /** 产品列表：保持 v1；一次性取回全部分页（出错返回空列表） */
+    public List<WixProduct> fetchProducts() {
+        List<WixProduct> all = new ArrayList<>();
         try {
-            ResponseEntity<ProductsResponse> resp =
-                    restTemplate.exchange(url, HttpMethod.POST, entity, ProductsResponse.class);
-            ProductsResponse pr = resp.getBody();
-            if (resp.getStatusCode() == HttpStatus.OK && pr != null && pr.getProducts() != null) {
-                System.out.println(">>> products count = " + pr.getProducts().size());
-                return pr.getProducts();
+            for (List<WixProduct> page : productPages()) {
+                all.addAll(page);
             }
         } catch (Exception e) {
             System.out.println(">>> fetchProducts error: " + e.getMessage());
+            return Collections.emptyList();
         }
-        return Collections.emptyList();
+        System.out.println(">>> products count = " + all.size());
+        return all;
     }
 
-    /** 变体查询：回到 stores-reader v1，并按 productId 过滤 */
-    @SuppressWarnings("unchecked")
-    public List<Map<String, Object>> fetchVariantsByProductId(String productId) {
-        String url = API_BASE + "/stores-reader/v1/products/" + productId + "/variants/query";
+    /**
+     * 产品分页流：按 offset 逐页请求 /stores/v1/products/query，迭代到哪页才请求哪页。
+     * - 调用方处理完一页即可释放，内存占用与单页大小成正比
+     * - 任一页请求失败会在迭代时抛出异常（不会悄悄返回半份目录）
+     */
+    public Iterable<List<WixProduct>> productPages() {
+        int limit = Math.max(1, Math.min(100, productPageSize));
+        return () -> new ProductPageIterator(limit);
+    }
 
-        final org.springframework.http.HttpHeaders headers = new org.springframework.http.HttpHeaders();
-        headers.set(org.springframework.http.HttpHeaders.AUTHORIZATION, apiKey);
+    /** 拉取单页产品，边解析边把商品交给 sink；非 200 或空体直接抛异常 */
+    private WixJson.Page queryProductsPage(int offset, int limit, Consumer<WixProduct> sink) {
+        String url = apiBase + "/stores/v1/products/query";
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, apiKey);
         headers.set("wix-site-id", siteId);
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
 
-        // v1 查询体：{ "query": { "filter": { "productId": "<id>" }, "paging": { "limit": 1000 } } }
-        Map<String, Object> filter = new HashMap<>();
-        filter.put("productId", productId);
+        // v1 查询体：{ "query": { "paging": { "limit": 100, "offset": 0 }, "fields": [...] } }
         Map<String, Object> paging = new HashMap<>();
-        paging.put("limit", 1000);
+        paging.put("limit", limit);
+        paging.put("offset", offset);
         Map<String, Object> query = new HashMap<>();
         query.put("paging", paging);
+        query.put("fields", PRODUCT_FIELDS);
         Map<String, Object> body = new HashMap<>();
-        body.put("query", query);   
+        body.put("query", query);
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
+        return postForStream(url, body, headers, "products query at offset " + offset,
+                in -> WixJson.readProducts(in, sink));
+    }
+
+    /** 响应体读取方式：直接拿到输入流做流式解析 */
+    private interface BodyReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    /** POST JSON，响应体不经 HttpMessageConverter 整体绑定，直接交给 reader 流式解析；非 200 抛异常 */
+    private <T> T postForStream(String url, Object body, HttpHeaders headers,
+                                String what, BodyReader<T> reader) {
+        return restTemplate.execute(url, HttpMethod.POST,
+                restTemplate.httpEntityCallback(new HttpEntity<>(body, headers)),
+                response -> {
+                    if (response.getStatusCode().value() != HttpStatus.OK.value()) {
+                        throw new IllegalStateException(what + " non-OK: " + response.getStatusCode());
+                    }
+                    return reader.read(response.getBody());
+                });
+    }
+
+    /** offset 分页迭代器：本页不满、拿到空页或已达 totalResults 时结束 */
+    private final class ProductPageIterator implements Iterator<List<WixProduct>> {
+        private final int limit;
+        private int offset = 0;
+        private int pages = 0;
+        private boolean done = false;
+        private List<WixProduct> next;
+
+        ProductPageIterator(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) next = fetchNext();
+            return next != null;
+        }
+
+        @Override
+        public List<WixProduct> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            List<WixProduct> page = next;
+            next = null;
+            return page;
+        }
+
+        private List<WixProduct> fetchNext() {
+            if (pages >= MAX_PRODUCT_PAGES) {
+                System.out.println("[WixClient] product paging stopped at page cap " + MAX_PRODUCT_PAGES);
+                done = true;
+                return null;
+            }
+            List<WixProduct> page = new ArrayList<>(limit);
+            WixJson.Page info = queryProductsPage(offset, limit, page::add);
+            pages++;
+            offset += info.count;
+
+            Integer total = info.totalResults;
+            if (info.count < limit || (total != null && offset >= total)) done = true;
+            return page.isEmpty() ? null : page;
+        }
+    }
+
+    /**
+     * 按 id 取单个商品（GET /stores/v1/products/{id}），供单品定向刷新使用。
+     * 商品不存在（404）返回 null；其它失败抛异常。
+     */
+    public WixProduct fetchProduct(String productId) {
+        String url = apiBase + "/stores/v1/products/{id}";
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, apiKey);
+        headers.set("wix-site-id", siteId);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
 
         try {
-            ResponseEntity<Map> resp = restTemplate.exchange(url, HttpMethod.POST, entity, Map.class);
-            if (resp.getStatusCode() != HttpStatus.OK || resp.getBody() == null) {
-                System.out.println("[WixClient] variants non-OK: " + resp.getStatusCode());
-                return Collections.emptyList();
+            ResponseEntity<ProductResponse> resp = restTemplate.exchange(
+                    url, HttpMethod.GET, new HttpEntity<>(headers), ProductResponse.class, productId);
+            ProductResponse pr = resp.getBody();
+            if (resp.getStatusCode() != HttpStatus.OK || pr == null) {
+                throw new IllegalStateException("product non-OK: " + resp.getStatusCode() + " for product " + productId);
+            }
+            return pr.getProduct();
+        } catch (HttpClientErrorException.NotFound e) {
+            return null;
+        }
+    }
+
+    /** 批量变体查询：每次请求覆盖的商品数 */
+    @Value("${wix.variants.batch-size:100}")
+    private int variantBatchSize;
+
+    /** 批量变体查询：每页变体数（Wix query 单页上限 100） */
+    @Value("${wix.variants.page-size:100}")
+    private int variantPageSize;
+
+    /**
+     * 批量变体查询路径：Catalog V1 的 Store Variants 查询（返回的 id 是 "productId-variantId" 组合键）。
+     * 站点不支持时配成空串，直接逐个商品查询。
+     */
+    @Value("${wix.variants.bulk-path:/stores/v1/variants/query}")
+    private String variantBulkPath;
+
+    /** 单批变体的分页安全上限 */
+    private static final int MAX_VARIANT_PAGES = 10_000;
+
+    /** 批量接口返回过 404/400：本客户端之后不再尝试，调用方直接逐个商品查询 */
+    private volatile boolean bulkVariantsUnsupported;
+
+    public int getVariantBatchSize() {
+        return Math.max(1, variantBatchSize);
+    }
+
+    /** 批量变体接口是否可用（未配置或已返回过 404/400 时为 false） */
+    public boolean supportsBulkVariants() {
+        return !bulkVariantsUnsupported && variantBulkPath != null && !variantBulkPath.isBlank();
+    }
+
+    /**
+     * 批量变体查询：POST {wix.variants.bulk-path}，filter 为 {"productId": {"$in": [...]}}，
+     * 按 offset 翻页直到取完（单个商品超过一页的变体也能取全），再按 productId 拆回各商品。
+     * - 返回的 Map 对每个传入的 id 都有值（没有变体时为空列表），变体保持返回顺序
+     * - 返回条目的 "id" 是 "productId-variantId" 组合键，这里统一改回 variantId，与单商品接口一致
+     * - 响应流式解析，每个变体解析完直接放进所属商品的列表
+     * - 调用方负责按 getVariantBatchSize() 分批；任一页失败抛异常
+     * - 返回 404/400 说明站点不支持该接口：记下后 supportsBulkVariants() 变为 false，只打一次日志
+     */
+    public Map<String, List<WixVariant>> queryVariantsBulk(Collection<String> productIds) {
+        Map<String, List<WixVariant>> byProduct = new LinkedHashMap<>();
+        for (String id : productIds) byProduct.put(id, new ArrayList<>());
+        if (byProduct.isEmpty()) return byProduct;
+
+        String url = apiBase + variantBulkPath.trim();
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, apiKey);
+        headers.set("wix-site-id", siteId);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+
+        int limit = Math.max(1, Math.min(100, variantPageSize));
+        int offset = 0;
+        int total = 0;
+        for (int pages = 0; pages < MAX_VARIANT_PAGES; pages++) {
+            // { "query": { "filter": { "productId": { "$in": [...] } }, "paging": { "limit": 100, "offset": 0 } } }
+            Map<String, Object> filter = new HashMap<>();
+            filter.put("productId", Map.of("$in", new ArrayList<>(byProduct.keySet())));
+            Map<String, Object> paging = new HashMap<>();
+            paging.put("limit", limit);
+            paging.put("offset", offset);
+            Map<String, Object> query = new HashMap<>();
+            query.put("filter", filter);
+            query.put("paging", paging);
+            Map<String, Object> body = new HashMap<>();
+            body.put("query", query);
+
+            WixJson.Page page;
+            try {
+                page = postForStream(url, body, headers, "bulk variants at offset " + offset,
+                        in -> WixJson.readVariants(in, true, v -> {
+                            List<WixVariant> target = v.getProductId() != null ? byProduct.get(v.getProductId()) : null;
+                            if (target != null) target.add(v);   // 不是本批请求的商品就丢掉
+                        }));
+            } catch (HttpClientErrorException.NotFound | HttpClientErrorException.BadRequest e) {
+                if (!bulkVariantsUnsupported) {
+                    bulkVariantsUnsupported = true;
+                    System.out.println("[WixClient] bulk variants endpoint " + variantBulkPath + " unsupported ("
+                            + e.getStatusCode() + "), using per-product variant queries from now on");
+                }
+                throw e;
             }
-            Map<String, Object> m = resp.getBody();
-            List<Map<String, Object>> variants = Collections.emptyList();
-
-            // v1 常见返回键为 "variants"；有些环境下也可能是 "items"（双重兼容）
-            Object arr = m.get("variants");
-            if (arr instanceof List) {
-                variants = (List<Map<String, Object>>) arr;
-            } else if (m.get("items") instanceof List) {
-                variants = (List<Map<String, Object>>) m.get("items");
-            } else {
-                System.out.println("[WixClient] no variants list, keys=" + m.keySet());
+            total += page.count;
+            offset += page.count;
+
+            Integer totalResults = page.totalResults;
+            if (page.count < limit || (totalResults != null && offset >= totalResults)) {
+                System.out.println("[WixClient] bulk variants for " + byProduct.size() + " products = " + total
+                        + " in " + (pages + 1) + " page(s)");
+                return byProduct;
             }
+        }
+        System.out.println("[WixClient] bulk variant paging stopped at page cap " + MAX_VARIANT_PAGES);
+        return byProduct;
+    }
 
-            System.out.println("[WixClient] variants size for product " + productId + " = " + variants.size());
-            return variants;
+    /**
+     * 库存查询：POST /stores/v2/inventoryItems/query，按 offset 翻页取全部库存条目（响应流式解析）。
+     * 每条含 productId、trackQuantity 与各变体的 inStock / quantity；
+     * 未管理变体的商品只有一个默认变体（variantId 为全 0）。任一页失败抛异常。
+     */
+    public List<WixInventoryItem> queryInventoryItems() {
+        String url = apiBase + "/stores/v2/inventoryItems/query";
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, apiKey);
+        headers.set("wix-site-id", siteId);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+
+        List<WixInventoryItem> all = new ArrayList<>();
+        int limit = 100;
+        int offset = 0;
+        for (int pages = 0; pages < MAX_PRODUCT_PAGES; pages++) {
+            Map<String, Object> paging = new HashMap<>();
+            paging.put("limit", limit);
+            paging.put("offset", offset);
+            Map<String, Object> query = new HashMap<>();
+            query.put("paging", paging);
+            Map<String, Object> body = new HashMap<>();
+            body.put("query", query);
+
+            WixJson.Page page = postForStream(url, body, headers, "inventory query at offset " + offset,
+                    in -> WixJson.readInventoryItems(in, all::add));
+            offset += page.count;
+
+            Integer total = page.totalResults;
+            if (page.count < limit || (total != null && offset >= total)) break;
+        }
+        return all;
+    }
+
+    /** 变体查询：回到 stores-reader v1，并按 productId 过滤（出错返回空列表） */
+    public List<WixVariant> fetchVariantsByProductId(String productId) {
+        try {
+            return queryVariants(productId);
         } catch (Exception e) {
             System.out.println("[WixClient] fetchVariantsByProductId error: " + e.getMessage());
             return Collections.emptyList();
         }
     }
+
+    /**
+     * 同 fetchVariantsByProductId，但请求失败时抛异常，供需要区分“无变体”与“拉取失败”的调用方使用。
+     * 批量接口不可用时每个商品都走这里：按 offset 翻页直到 totalResults（变体多于一页的商品也能取全）；任一页失败抛异常。
+     */
+    public List<WixVariant> queryVariants(String productId) {
+        String url = apiBase + "/stores-reader/v1/products/" + productId + "/variants/query";
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, apiKey);
+        headers.set("wix-site-id", siteId);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+
+        // 商品已在路径里，查询体只带分页：{ "query": { "paging": { "limit": 100, "offset": 0 } } }
+        // v1 常见返回键为 "variants"；有些环境下也可能是 "items"（双重兼容，见 WixJson.readVariants）
+        List<WixVariant> variants = new ArrayList<>();
+        int limit = Math.max(1, Math.min(100, variantPageSize));
+        int offset = 0;
+        for (int pages = 0; pages < MAX_VARIANT_PAGES; pages++) {
+            Map<String, Object> paging = new HashMap<>();
+            paging.put("limit", limit);
+            paging.put("offset", offset);
+            Map<String, Object> query = new HashMap<>();
+            query.put("paging", paging);
+            Map<String, Object> body = new HashMap<>();
+            body.put("query", query);
+
+            WixJson.Page page = postForStream(url, body, headers,
+                    "variants for product " + productId + " at offset " + offset,
+                    in -> WixJson.readVariants(in, false, variants::add));
+            if (!page.found) {
+                System.out.println("[WixClient] no variants list for product " + productId);
+                return variants;
+            }
+            offset += page.count;
+
+            Integer totalResults = page.totalResults;
+            if (page.count < limit || (totalResults != null && offset >= totalResults)) {
+                System.out.println("[WixClient] variants size for product " + productId + " = " + variants.size());
+                return variants;
+            }
+        }
+        System.out.println("[WixClient] variant paging for product " + productId + " stopped at page cap " + MAX_VARIANT_PAGES);
+        return variants;
+    }
 }
@@ -0,0 +1,40 @@
+package com.example.acp.feed;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对应 Wix stores v2 inventoryItems 查询返回的单个库存条目（由 WixJson 流式解析填充）：
+ * - productId / trackQuantity
+ * - variants：每个变体的 variantId、inStock、quantity；未管理变体的商品只有一个默认变体（variantId 为全 0）
+ */
+public class WixInventoryItem {
+
+    private String productId;
+    private boolean trackQuantity;
+    private final List<Variant> variants = new ArrayList<>(4);
+
+    public String getProductId() { return productId; }
+    void setProductId(String productId) { this.productId = productId; }
+
+    public boolean isTrackQuantity() { return trackQuantity; }
+    void setTrackQuantity(boolean trackQuantity) { this.trackQuantity = trackQuantity; }
+
+    public List<Variant> getVariants() { return variants; }
+
+    /** 单个变体的库存；inStock / quantity 缺失或类型不对时为 null */
+    public static class Variant {
+        private String variantId;
+        private Boolean inStock;
+        private Integer quantity;
+
+        public String getVariantId() { return variantId; }
+        void setVariantId(String variantId) { this.variantId = variantId; }
+
+        public Boolean getInStock() { return inStock; }
+        void setInStock(Boolean inStock) { this.inStock = inStock; }
+
+        public Integer getQuantity() { return quantity; }
+        void setQuantity(Integer quantity) { this.quantity = quantity; }
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.acp.feed;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Wix 查询响应的流式解析（Jackson token 流，直接读响应体）：
+ * - 数组里每解析完一个商品 / 变体就交给 sink，不先把整份响应绑定成 Map 或大 DTO
+ * - 只认 feed 映射用到的字段，其余子树 skipChildren 跳过，不物化
+ * - 取值宽松程度与原先按 Map 取值一致：数字可以是字符串，布尔可以是 "true"/"false"，类型不对当作缺失
+ */
+final class WixJson {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /** 单个商品仍交给 databind（字段多、结构固定），但只绑定当前数组元素 */
+    private static final ObjectReader PRODUCT_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(WixProduct.class);
+
+    private WixJson() {}
+
+    /** 一页的读取结果：数组元素数（翻页用）、totalResults、是否出现了目标数组 */
+    static final class Page {
+        int count;
+        Integer totalResults;
+        boolean found;
+    }
+
+    /** 产品查询响应：{ "products": [...], "totalResults": n } */
+    static Page readProducts(InputStream in, Consumer<WixProduct> sink) throws IOException {
+        Page page = new Page();
+        try (JsonParser p = FACTORY.createParser(in)) {
+            expectObject(p, "products");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken t = p.nextToken();
+                if ("products".equals(field) && t == JsonToken.START_ARRAY) {
+                    page.found = true;
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        page.count++;
+                        if (p.currentToken() == JsonToken.START_OBJECT) sink.accept(PRODUCT_READER.readValue(p));
+                        else p.skipChildren();
+                    }
+                } else if ("totalResults".equals(field) && t.isNumeric()) {
+                    page.totalResults = p.getIntValue();
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 变体查询响应：列表键通常是 "variants"，有些环境下是 "items"（两者都有时取 variants）。
+     * variantIdAsId：批量接口的 "id" 是 "productId-variantId" 组合键，为 true 时改用 variantId。
+     */
+    static Page readVariants(InputStream in, boolean variantIdAsId, Consumer<WixVariant> sink) throws IOException {
+        Page page = new Page();
+        List<WixVariant> items = null;   // "items" 先于 "variants" 出现时暂存，最后没有 variants 才用
+        int itemsCount = 0;
+        try (JsonParser p = FACTORY.createParser(in)) {
+            expectObject(p, "variants");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken t = p.nextToken();
+                if ("variants".equals(field) && t == JsonToken.START_ARRAY) {
+                    page.found = true;
+                    items = null;
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        page.count++;
+                        WixVariant v = readVariant(p, variantIdAsId);
+                        if (v != null) sink.accept(v);
+                    }
+                } else if ("items".equals(field) && t == JsonToken.START_ARRAY && !page.found) {
+                    items = new ArrayList<>();
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        itemsCount++;
+                        WixVariant v = readVariant(p, variantIdAsId);
+                        if (v != null) items.add(v);
+                    }
+                } else if ("totalResults".equals(field) && t.isNumeric()) {
+                    page.totalResults = p.getIntValue();
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        if (!page.found && items != null) {
+            page.found = true;
+            page.count = itemsCount;
+            for (WixVariant v : items) sink.accept(v);
+        }
+        return page;
+    }
+
+    /** 库存查询响应：{ "inventoryItems": [...], "totalResults": n }；每个条目解析完就交给 sink */
+    static Page readInventoryItems(InputStream in, Consumer<WixInventoryItem> sink) throws IOException {
+        Page page = new Page();
+        try (JsonParser p = FACTORY.createParser(in)) {
+            expectObject(p, "inventoryItems");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken t = p.nextToken();
+                if ("inventoryItems".equals(field) && t == JsonToken.START_ARRAY) {
+                    page.found = true;
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        page.count++;
+                        WixInventoryItem item = readInventoryItem(p);
+                        if (item != null) sink.accept(item);
+                    }
+                } else if ("totalResults".equals(field) && t.isNumeric()) {
+                    page.totalResults = p.getIntValue();
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return page;
+    }
+
+    private static void expectObject(JsonParser p, String what) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalStateException("expected JSON object in " + what + " response");
+        }
+    }
+
+    /** 当前 token 为变体对象的开始；不是对象时跳过并返回 null */
+    private static WixVariant readVariant(JsonParser p, boolean variantIdAsId) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        WixVariant v = new WixVariant();
+        String variantId = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "id":                 v.setId(text(p)); break;
+                case "variantId":          variantId = text(p); break;
+                case "productId":          v.setProductId(text(p)); break;
+                case "choices":            readChoices(p, v); break;
+                case "variant":            readInner(p, v); break;
+                case "priceData":          v.setPriceData(readPrice(p)); break;
+                case "convertedPriceData": v.setConvertedPriceData(readPrice(p)); break;
+                case "inventory":          v.setInventory(readInventory(p)); break;
+                default:                   p.skipChildren();
+            }
+        }
+        if (variantIdAsId && variantId != null) v.setId(variantId);
+        return v;
+    }
+
+    /** 当前 token 为库存条目对象的开始；不是对象时跳过并返回 null */
+    private static WixInventoryItem readInventoryItem(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        WixInventoryItem item = new WixInventoryItem();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "productId":     item.setProductId(text(p)); break;
+                case "trackQuantity": item.setTrackQuantity(Boolean.TRUE.equals(bool(p))); break;
+                case "variants":      readInventoryVariants(p, item); break;
+                default:              p.skipChildren();
+            }
+        }
+        return item;
+    }
+
+    private static void readInventoryVariants(JsonParser p, WixInventoryItem item) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            WixInventoryItem.Variant v = new WixInventoryItem.Variant();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                switch (field) {
+                    case "variantId": v.setVariantId(text(p)); break;
+                    case "inStock":   v.setInStock(bool(p)); break;
+                    case "quantity": {
+                        Double q = number(p);
+                        v.setQuantity(q == null ? null : q.intValue());
+                        break;
+                    }
+                    default:          p.skipChildren();
+                }
+            }
+            item.getVariants().add(v);
+        }
+    }
+
+    /** 里层 variant 对象：sku 与价格 */
+    private static void readInner(JsonParser p, WixVariant v) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "sku":                v.setSku(text(p)); break;
+                case "priceData":          v.setInnerPriceData(readPrice(p)); break;
+                case "convertedPriceData": v.setInnerConvertedPriceData(readPrice(p)); break;
+                default:                   p.skipChildren();
+            }
+        }
+    }
+
+    private static WixVariant.PriceData readPrice(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        WixVariant.PriceData d = new WixVariant.PriceData();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "price":           d.setPrice(number(p)); break;
+                case "discountedPrice": d.setDiscountedPrice(number(p)); break;
+                case "currency":        d.setCurrency(text(p)); break;
+                default:                p.skipChildren();
+            }
+        }
+        return d;
+    }
+
+    private static WixVariant.Inventory readInventory(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        WixVariant.Inventory inv = new WixVariant.Inventory();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if ("inStock".equals(field)) {
+                inv.setInStock(bool(p));
+            } else if ("quantity".equals(field)) {
+                Double q = number(p);
+                inv.setQuantity(q == null ? null : q.intValue());
+            } else {
+                p.skipChildren();
+            }
+        }
+        return inv;
+    }
+
+    /**
+     * choices 两种结构：{ "Size": "Small", ... } 或 [{ "name"/"option"/"optionName", "value"/"selection"/"choice" }, ...]；
+     * 这里只取原始名/值对，归一化交给调用方
+     */
+    private static void readChoices(JsonParser p, WixVariant v) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.START_OBJECT) {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                p.nextToken();
+                String value = text(p);
+                if (value != null) v.addChoice(name, value);
+            }
+        } else if (t == JsonToken.START_ARRAY) {
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                if (p.currentToken() != JsonToken.START_OBJECT) {
+                    p.skipChildren();
+                    continue;
+                }
+                String name = null, option = null, optionName = null;
+                String value = null, selection = null, choice = null;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    p.nextToken();
+                    switch (field) {
+                        case "name":       name = text(p); break;
+                        case "option":     option = text(p); break;
+                        case "optionName": optionName = text(p); break;
+                        case "value":      value = text(p); break;
+                        case "selection":  selection = text(p); break;
+                        case "choice":     choice = text(p); break;
+                        default:           p.skipChildren();
+                    }
+                }
+                String rawName = name != null ? name : (option != null ? option : optionName);
+                String rawVal = value != null ? value : (selection != null ? selection : choice);
+                if (rawName != null && rawVal != null) v.addChoice(rawName, rawVal);
+            }
+        } else {
+            p.skipChildren();
+        }
+    }
+
+    /** 标量转字符串（小数按 Double 的写法，与先绑定再 String.valueOf 一致）；null / 对象 / 数组返回 null */
+    private static String text(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_NUMBER_FLOAT) return String.valueOf(p.getDoubleValue());
+        if (t != null && t.isScalarValue() && t != JsonToken.VALUE_NULL) return p.getText();
+        p.skipChildren();
+        return null;
+    }
+
+    /** 布尔或 "true"/"false" 字符串；其它返回 null */
+    private static Boolean bool(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_TRUE || t == JsonToken.VALUE_FALSE) return t == JsonToken.VALUE_TRUE;
+        if (t == JsonToken.VALUE_STRING) return Boolean.parseBoolean(p.getText());
+        p.skipChildren();
+        return null;
+    }
+
+    /** 数字或数字字符串；其它返回 null */
+    private static Double number(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t != null && t.isNumeric()) return p.getDoubleValue();
+        if (t == JsonToken.VALUE_STRING) {
+            try { return Double.valueOf(p.getText()); } catch (NumberFormatException e) { return null; }
+        }
+        p.skipChildren();
+        return null;
+    }
+}
@@ -15,6 +15,7 @@ public class WixProduct {
     private Double weight;
     private boolean manageVariants;
     private List<ProductOption> productOptions;
+    private String lastUpdated;   // Wix 最近修改时间（ISO-8601），用作增量刷新的指纹
     
     // 嵌套对象
     private StockInfo stock;
@@ -66,6 +67,9 @@ public class WixProduct {
 public List<ProductOption> getProductOptions() { return productOptions; }
 public void setProductOptions(List<ProductOption> productOptions) { this.productOptions = productOptions; }
 
+    public String getLastUpdated() { return lastUpdated; }
+    public void setLastUpdated(String lastUpdated) { this.lastUpdated = lastUpdated; }
+
     // 嵌套类：库存信息
     public static class StockInfo {
         private boolean trackInventory;
@@ -0,0 +1,82 @@
+package com.example.acp.feed;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对应 Wix stores-reader 变体查询返回的单个变体（由 WixJson 流式解析填充，只保留 feed 映射用到的字段）：
+ * - id：变体 id（批量接口里是 variantId，组合键 "productId-variantId" 不保留）
+ * - choices：原始规格名/值对，按返回顺序；归一化由 ProductFeedService 负责
+ * - 价格：Wix 把价格放在里层 variant 对象（priceData / convertedPriceData），少数旧返回在顶层，按这个优先级取
+ */
+public class WixVariant {
+
+    private String id;
+    private String productId;
+    private String sku;   // variant.sku
+    private final List<String[]> choices = new ArrayList<>(4);   // {规格名, 值}
+
+    // 价格候选（按优先级）：variant.priceData → variant.convertedPriceData → priceData → convertedPriceData
+    private PriceData innerPriceData;
+    private PriceData innerConvertedPriceData;
+    private PriceData priceData;
+    private PriceData convertedPriceData;
+
+    private Inventory inventory;
+
+    public String getId() { return id; }
+    void setId(String id) { this.id = id; }
+
+    public String getProductId() { return productId; }
+    void setProductId(String productId) { this.productId = productId; }
+
+    public String getSku() { return sku; }
+    void setSku(String sku) { this.sku = sku; }
+
+    public List<String[]> getChoices() { return choices; }
+    void addChoice(String name, String value) { choices.add(new String[]{name, value}); }
+
+    /** 生效的价格数据（按优先级取第一个存在的），都没有返回 null */
+    public PriceData getPriceData() {
+        if (innerPriceData != null) return innerPriceData;
+        if (innerConvertedPriceData != null) return innerConvertedPriceData;
+        if (priceData != null) return priceData;
+        return convertedPriceData;
+    }
+
+    void setInnerPriceData(PriceData p) { this.innerPriceData = p; }
+    void setInnerConvertedPriceData(PriceData p) { this.innerConvertedPriceData = p; }
+    void setPriceData(PriceData p) { this.priceData = p; }
+    void setConvertedPriceData(PriceData p) { this.convertedPriceData = p; }
+
+    public Inventory getInventory() { return inventory; }
+    void setInventory(Inventory inventory) { this.inventory = inventory; }
+
+    // 嵌套类：价格数据
+    public static class PriceData {
+        private Double price;
+        private Double discountedPrice;
+        private String currency;
+
+        public Double getPrice() { return price; }
+        void setPrice(Double price) { this.price = price; }
+
+        public Double getDiscountedPrice() { return discountedPrice; }
+        void setDiscountedPrice(Double discountedPrice) { this.discountedPrice = discountedPrice; }
+
+        public String getCurrency() { return currency; }
+        void setCurrency(String currency) { this.currency = currency; }
+    }
+
+    // 嵌套类：变体库存
+    public static class Inventory {
+        private Boolean inStock;
+        private Integer quantity;
+
+        public Boolean getInStock() { return inStock; }
+        void setInStock(Boolean inStock) { this.inStock = inStock; }
+
+        public Integer getQuantity() { return quantity; }
+        void setQuantity(Integer quantity) { this.quantity = quantity; }
+    }
+}
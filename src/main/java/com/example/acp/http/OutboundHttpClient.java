@@ -0,0 +1,109 @@
+package com.example.acp.http;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 出站 HTTP 共享客户端（WixClient / OrderEventPublisher 共用）：
+ * - 连接池 + keep-alive：同一目的地复用 TCP/TLS 连接，不再每次调用都握手
+ * - 每个目的地可单独配置连接数上限（outbound.http.routes），其余按默认上限
+ * - 建连 / 读 / 从池中取连接 三种超时
+ * - 自动带 Accept-Encoding: gzip, deflate，并透明解压响应
+ * - 空闲连接定期回收，连接最长存活 outbound.http.connection-ttl-seconds
+ */
+@Component
+public class OutboundHttpClient {
+
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
+
+    public OutboundHttpClient(
+            @Value("${outbound.http.max-total:64}") int maxTotal,
+            @Value("${outbound.http.max-per-route:16}") int maxPerRoute,
+            // 例：https://www.wixapis.com=32,https://api.openai.com=4
+            @Value("${outbound.http.routes:}") String routes,
+            @Value("${outbound.http.connect-timeout-ms:5000}") long connectTimeoutMs,
+            @Value("${outbound.http.read-timeout-ms:30000}") long readTimeoutMs,
+            @Value("${outbound.http.pool-timeout-ms:5000}") long poolTimeoutMs,
+            @Value("${outbound.http.idle-evict-seconds:30}") long idleEvictSeconds,
+            @Value("${outbound.http.connection-ttl-seconds:300}") long ttlSeconds
+    ) {
+        PoolingHttpClientConnectionManager pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(Math.max(1, maxTotal))
+                .setMaxConnPerRoute(Math.max(1, maxPerRoute))
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .setTimeToLive(TimeValue.ofSeconds(ttlSeconds))
+                        .build())
+                .build();
+        Map<HttpRoute, Integer> perRoute = parseRoutes(routes);
+        perRoute.forEach((route, max) -> pool.setMaxPerRoute(route, max));
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(poolTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(idleEvictSeconds))
+                .build();
+        this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+
+        System.out.println("[OutboundHttp] pool maxTotal=" + maxTotal + ", maxPerRoute=" + maxPerRoute
+                + (perRoute.isEmpty() ? "" : ", routes=" + perRoute.values().size())
+                + ", connect=" + connectTimeoutMs + "ms, read=" + readTimeoutMs + "ms");
+    }
+
+    /** 共享的 RestTemplate（线程安全，底层走连接池） */
+    public RestTemplate restTemplate() {
+        return restTemplate;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    /** "scheme://host[:port]=n" 逗号分隔；格式不对的项跳过 */
+    private static Map<HttpRoute, Integer> parseRoutes(String raw) {
+        Map<HttpRoute, Integer> out = new LinkedHashMap<>();
+        if (raw == null || raw.isBlank()) return out;
+        for (String part : raw.split(",")) {
+            String s = part.trim();
+            int eq = s.lastIndexOf('=');
+            if (eq <= 0) continue;
+            try {
+                URI uri = URI.create(s.substring(0, eq).trim());
+                int max = Integer.parseInt(s.substring(eq + 1).trim());
+                String scheme = uri.getScheme() == null ? "https" : uri.getScheme().toLowerCase();
+                int port = uri.getPort() > 0 ? uri.getPort() : ("https".equals(scheme) ? 443 : 80);
+                HttpHost host = new HttpHost(scheme, uri.getHost(), port);
+                // 与默认路由规划一致：https 目标为 secure 路由
+                out.put(new HttpRoute(host, null, "https".equals(scheme)), Math.max(1, max));
+            } catch (Exception e) {
+                System.out.println("[OutboundHttp] ignore route '" + s + "': " + e.getMessage());
+            }
+        }
+        return out;
+    }
+}
@@ -1,18 +1,18 @@
 package com.example.acp.service;
 
+import com.example.acp.checkout.CheckoutSession;
+import com.example.acp.checkout.FulfillmentOption;
+import com.example.acp.checkout.FulfillmentRates;
+import com.example.acp.checkout.LineItem;
+import com.example.acp.checkout.TaxRates;
+import com.example.acp.checkout.Total;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.time.Instant; 
-import java.time.temporal.ChronoUnit;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 
 
 /**
  * 构造与更新 Checkout Session 的静态工具。
- * STRIPE_ACCOUNT_ID / SHIP_STANDARD_CENTS / TAX_RATE_BPS / *URL 来自环境变量。
+ * STRIPE_ACCOUNT_ID / *URL 来自环境变量；配送选项与税率分别由 {@link FulfillmentRates} / {@link TaxRates} 按地址给出。
  */
 public class CheckoutBuilders {
 
@@ -20,12 +20,6 @@ public class CheckoutBuilders {
     private static final String STRIPE_ACCOUNT_ID =
             System.getenv().getOrDefault("STRIPE_ACCOUNT_ID", "acct_TEST123");
 
-    /** 运费（分）与税率（基点，万分制），来自环境变量 */
-    private static final int SHIP_STANDARD_CENTS =
-            Integer.parseInt(System.getenv().getOrDefault("SHIP_STANDARD_CENTS", "100"));   // 默认 $1.00
-    private static final int TAX_RATE_BPS =
-            Integer.parseInt(System.getenv().getOrDefault("TAX_RATE_BPS", "1000"));         // 默认 10%
-
     /** 可选：政策链接来自环境变量（有则加入 links） */
     private static final String TOS_URL =
             System.getenv().getOrDefault("TOS_URL", "https://chennuo2233.wixsite.com/albertselfsaling/terms");
@@ -34,241 +28,227 @@ public class CheckoutBuilders {
     private static final String RETURNS_URL =
             System.getenv().getOrDefault("RETURNS_URL", "");
 
+    /** payment_provider / links：由环境变量决定，全部会话共享同一份 */
+    private static final CheckoutSession.PaymentProvider PAYMENT_PROVIDER =
+            new CheckoutSession.PaymentProvider("stripe", STRIPE_ACCOUNT_ID, List.of("card"));
+    private static final List<CheckoutSession.Link> LINKS = buildLinks();
+
+    /** 有地址但运费表没有覆盖该地址 / 重量 / 金额的规则时写入的 message 类型 */
+    static final String NO_FULFILLMENT_MESSAGE = "fulfillment_unavailable";
+
     /** 创建新的会话（富状态） */
-    public static Map<String, Object> buildInitialSession(String sessionId, Map<String, Object> req) {
-        Map<String, Object> session = new HashMap<>();
-        session.put("id", sessionId);
-        session.put("created_time", Instant.now().toString());
-        session.put("updated_time", session.get("created_time"));
+    public static CheckoutSession buildInitialSession(String sessionId, Map<String, Object> req) {
+        CheckoutSession session = new CheckoutSession(sessionId);
+        String now0 = Instant.now().toString();
+        session.setCreatedTime(now0);
+        session.setUpdatedTime(now0);
 
         // 货币：优先取本次请求的 currency，其次默认 usd
-        String currency = String.valueOf(req.getOrDefault("currency", "usd")).toLowerCase();
-        session.put("currency", currency);
+        session.setCurrency(String.valueOf(req.getOrDefault("currency", "usd")).toLowerCase());
 
-        // 如果没有地址，则 not_ready_for_payment；有地址则 ready_for_payment
-        boolean hasAddress = req.containsKey("fulfillment_address");
-        session.put("status", hasAddress ? "ready_for_payment" : "not_ready_for_payment");
-        if (hasAddress) session.put("fulfillment_address", req.get("fulfillment_address"));
+        // 状态在算完配送选项后再定（见 recomputeStatus）
+        session.setStatus("not_ready_for_payment");
+        if (req.containsKey("fulfillment_address")) session.setFulfillmentAddress(asMap(req.get("fulfillment_address")));
 
-        // ── items → line_items ─────────────────────────────────────────────
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> items = (List<Map<String, Object>>) req.getOrDefault("items", List.of());
+        // ── items → line_items（有地址才计税；辖区只解析一次） ─────────────
+        TaxRates.Jurisdiction jurisdiction = jurisdiction(session);
+        List<LineItem> lineItems = new ArrayList<>();
+        for (Map<String, Object> it : requestItems(req)) {
+            lineItems.add(newLine("li_" + UUID.randomUUID(), it, jurisdiction));
+        }
+        session.setLineItems(lineItems);
 
-        List<Map<String, Object>> lineItems = new ArrayList<>();
-        int itemsBaseAmount = 0;
+        // ── fulfillment options + 选中项 ──────────────────────────────────
+        recomputeFulfillment(session, req.get("fulfillment_option_id"));
+        recomputeStatus(session);
 
-        for (Map<String, Object> it : items) {
-            String itemId = String.valueOf(it.get("id"));
-            int qty = ((Number) it.getOrDefault("quantity", 1)).intValue();
+        // ── totals / payment_provider / messages / links ──────────────────
+        recomputeTotals(session);
+        session.setPaymentProvider(PAYMENT_PROVIDER);
+        session.setLinks(LINKS);
 
-            // 用真单价（单位分）；没有就兜底 100
-            int unitPrice = ((Number) it.getOrDefault("unit_price_cents", 100)).intValue();
-            int base = unitPrice * qty;
-            int discount = 0;
+        return session;
+    }
 
-            int tax = 0;
-            if (hasAddress) {
-                tax = (int) Math.round(base * (TAX_RATE_BPS / 10000.0));
-            }
-            int total = base - discount + tax;
-
-            Map<String, Object> line = new HashMap<>();
-            line.put("id", "li_" + UUID.randomUUID());
-            line.put("item", Map.of("id", itemId, "quantity", qty));
-            line.put("base_amount", base);
-            line.put("discount", discount);
-            line.put("subtotal", base - discount);
-            line.put("tax", tax);
-            line.put("total", total);
-            lineItems.add(line);
-
-            itemsBaseAmount += base;
+    /**
+     * 合并更新请求，只重算受影响的部分（依赖关系：地址 → 行税 + 配送选项；选项 → 合计；行项 → 该行 + 配送选项）：
+     * - 改地址：重算每行的税与配送选项（并重新选中），再算合计
+     * - 只改 fulfillment_option_id：只重新选中并算合计
+     * - 改 items：按商品 id 与现有行对齐，没变的行原样保留，变了的行在原 id 上重算，新增的行才生成新 id；
+     *   购物车重量 / 金额可能跨档，配送选项随之重查（同档命中运费表缓存）
+     * 合计只是若干个整数求和，每次更新都重算一次。
+     */
+    public static void applyUpdates(CheckoutSession session, Map<String, Object> req) {
+        boolean addressChanged = req.containsKey("fulfillment_address")
+                && !Objects.equals(req.get("fulfillment_address"), session.getFulfillmentAddress());
+        if (addressChanged) session.setFulfillmentAddress(asMap(req.get("fulfillment_address")));
+        boolean hasAddress = session.getFulfillmentAddress() != null;
+        TaxRates.Jurisdiction jurisdiction = jurisdiction(session);
+
+        if (req.containsKey("currency")) {
+            session.setCurrency(String.valueOf(req.get("currency")).toLowerCase());
         }
-        session.put("line_items", lineItems);
-
-        // ── Fulfillment options（示例：不对运费计税） ───────────────────────
-        // ── Fulfillment options（从环境变量 SHIPPING_LINES 动态生成；读不到时回退 Standard） ──
-List<Map<String, Object>> fulfillmentOptions = new ArrayList<>();
-if (hasAddress) {
-    String shippingJson = System.getenv("SHIPPING_LINES");
-    Instant now = Instant.now();
-
-    if (shippingJson != null && !shippingJson.isBlank()) {
-        try {
-            ArrayNode arr = (ArrayNode) MAPPER.readTree(shippingJson);
-            for (JsonNode n : arr) {
-                Map<String, Object> opt = new HashMap<>();
-                opt.put("type", "shipping");
-                String id = n.path("id").asText();
-                opt.put("id", id == null || id.isBlank() ? "fo_" + UUID.randomUUID() : id);
-                opt.put("title", n.path("title").asText("Standard"));
-                opt.put("subtitle", n.path("subtitle").asText(""));
-                opt.put("carrier", n.path("carrier").asText(""));
-
-                int daysMin = n.path("days_min").asInt(4);
-                int daysMax = n.path("days_max").asInt(Math.max(daysMin, 5));
-                opt.put("earliest_delivery_time", now.plus(daysMin, ChronoUnit.DAYS)
-                        .truncatedTo(ChronoUnit.DAYS).toString());
-                opt.put("latest_delivery_time", now.plus(daysMax, ChronoUnit.DAYS)
-                        .truncatedTo(ChronoUnit.DAYS).toString());
-
-                int price = n.path("price_cents").asInt(SHIP_STANDARD_CENTS);
-                opt.put("subtotal", price);
-                opt.put("tax", 0);      // 示例：运费不计税（若你要计税，这里替换成计算值）
-                opt.put("total", price);
-                fulfillmentOptions.add(opt);
+
+        // 若这次请求显式携带了 items（允许空数组表示清空购物车），就以它为准；否则保留现有行项
+        boolean itemsChanged = req.get("items") instanceof List;
+        if (itemsChanged) {
+            session.setLineItems(mergeLines(session.getLineItems(), requestItems(req), jurisdiction));
+        }
+
+        if (addressChanged || (itemsChanged && hasAddress)) {
+            if (addressChanged) {
+                for (LineItem li : session.getLineItems()) li.setTax(lineTax(li, jurisdiction));
             }
-        } catch (Exception ignore) {
-            fulfillmentOptions.clear(); // 解析失败则走回退
+            Object requested = req.containsKey("fulfillment_option_id")
+                    ? req.get("fulfillment_option_id") : session.getFulfillmentOptionId();
+            recomputeFulfillment(session, requested);
+        } else if (hasAddress && req.containsKey("fulfillment_option_id")) {
+            Object requested = req.get("fulfillment_option_id");
+            session.setFulfillmentOptionId(pickSelectedFulfillmentId(session.getFulfillmentOptions(),
+                    requested != null ? String.valueOf(requested) : null));
         }
-    }
 
-    if (fulfillmentOptions.isEmpty()) {
-        // 回退：保留你原来的 Standard 逻辑（确保兼容）
-        Map<String, Object> standard = new HashMap<>();
-        standard.put("type", "shipping");
-        standard.put("id", "fulfillment_option_standard");
-        standard.put("title", "Standard");
-        standard.put("subtitle", "Arrives in 4-5 days");
-        standard.put("carrier", "USPS");
-        standard.put("earliest_delivery_time", now.plus(4, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS).toString());
-        standard.put("latest_delivery_time",   now.plus(5, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS).toString());
-        standard.put("subtotal", SHIP_STANDARD_CENTS);
-        standard.put("tax", 0);
-        standard.put("total", SHIP_STANDARD_CENTS);
-        fulfillmentOptions.add(standard);
+        recomputeStatus(session);
+        recomputeTotals(session);
+        session.setUpdatedTime(Instant.now().toString());
     }
 
-    session.put("fulfillment_options", fulfillmentOptions);
-
-    // 若请求带 fulfillment_option_id 就尊重请求；否则选最便宜
-    String requestedId = req.get("fulfillment_option_id") != null ? String.valueOf(req.get("fulfillment_option_id")) : null;
-    String selectedId = pickSelectedFulfillmentId(fulfillmentOptions, requestedId);
-    session.put("fulfillment_option_id", selectedId);
-} else {
-    session.put("fulfillment_options", fulfillmentOptions);
-}
-
-
+    // ── 重算步骤 ─────────────────────────────────────────────────────────
 
+    /** 请求里的 items（缺省为空） */
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> requestItems(Map<String, Object> req) {
+        Object items = req.get("items");
+        return items instanceof List ? (List<Map<String, Object>>) items : List.of();
+    }
 
+    /** 由请求 item 生成一行（用真单价，单位分；没有就兜底 100；重量、类目来自 feed，没有按 0 / 不分类目） */
+    private static LineItem newLine(String lineId, Map<String, Object> it, TaxRates.Jurisdiction jurisdiction) {
+        String itemId = String.valueOf(it.get("id"));
+        int qty = intValue(it.get("quantity"), 1);
+        int unitPrice = intValue(it.get("unit_price_cents"), 100);
+        Object category = it.get("product_category");
+        LineItem line = new LineItem(lineId, itemId, qty, unitPrice, intValue(it.get("weight_grams"), 0),
+                category instanceof String ? (String) category : null);
+        line.setTax(lineTax(line, jurisdiction));
+        return line;
+    }
 
-        // ── totals 计算 ────────────────────────────────────────────────────
-        int taxTotal = hasAddress ? (int) Math.round(itemsBaseAmount * (TAX_RATE_BPS / 10000.0)) : 0;
-        int fulfillmentTotal = 0;
-if (hasAddress) {
-    String selectedId = (String) session.get("fulfillment_option_id");
-    if (selectedId != null) {
-        for (Map<String, Object> o : fulfillmentOptions) {
-            if (selectedId.equals(o.get("id"))) {
-                fulfillmentTotal = ((Number)o.getOrDefault("total", 0)).intValue();
-                break;
+    /**
+     * 新 items 与现有行按商品 id 对齐（同一 id 出现多次时按先后一一对应）：
+     * 数量、单价、重量、类目都没变的行直接复用（税额不变，地址变了由调用方统一重算）；
+     * 变了的沿用原行 id 重算；对不上的才生成新行 id。
+     */
+    private static List<LineItem> mergeLines(List<LineItem> prev, List<Map<String, Object>> items,
+                                             TaxRates.Jurisdiction jurisdiction) {
+        Map<String, Deque<LineItem>> byItemId = new HashMap<>();
+        for (LineItem li : prev) {
+            byItemId.computeIfAbsent(li.getItemId(), k -> new ArrayDeque<>()).add(li);
+        }
+        List<LineItem> merged = new ArrayList<>(items.size());
+        for (Map<String, Object> it : items) {
+            Deque<LineItem> candidates = byItemId.get(String.valueOf(it.get("id")));
+            LineItem old = candidates != null ? candidates.poll() : null;
+            if (old == null) {
+                merged.add(newLine("li_" + UUID.randomUUID(), it, jurisdiction));
+            } else if (old.getQuantity() == intValue(it.get("quantity"), 1)
+                    && old.getUnitPriceCents() == intValue(it.get("unit_price_cents"), 100)
+                    && old.getWeightGrams() == intValue(it.get("weight_grams"), 0)
+                    && Objects.equals(old.getTaxCategory(), it.get("product_category"))) {
+                merged.add(old);
+            } else {
+                merged.add(newLine(old.getId(), it, jurisdiction));
             }
         }
+        return merged;
     }
-}
-
-        int subtotal = itemsBaseAmount;
-        int total = subtotal + taxTotal + fulfillmentTotal;
 
-        List<Map<String, Object>> totals = new ArrayList<>();
-        totals.add(Map.of("type", "items_base_amount", "display_text", "Item(s) total", "amount", itemsBaseAmount));
-        totals.add(Map.of("type", "subtotal", "display_text", "Subtotal", "amount", subtotal));
-        totals.add(Map.of("type", "tax", "display_text", "Tax", "amount", taxTotal));
-        if (hasAddress) {
-            totals.add(Map.of("type", "fulfillment", "display_text", "Fulfillment", "amount", fulfillmentTotal));
-        }
-        totals.add(Map.of("type", "total", "display_text", "Total", "amount", total));
-        session.put("totals", totals);
-
-        // ── 规范要求：payment_provider / messages / links ────────────────
-        session.put("payment_provider", Map.of(
-                "provider", "stripe",
-                "stripe_account_id", STRIPE_ACCOUNT_ID,
-                "supported_payment_methods", List.of("card")
-        ));
+    /** 收货地址所在税务辖区；没有地址时为 null（不计税） */
+    private static TaxRates.Jurisdiction jurisdiction(CheckoutSession session) {
+        Map<String, Object> address = session.getFulfillmentAddress();
+        return address == null ? null : TaxRates.current().resolve(address);
+    }
 
-        session.put("messages", new ArrayList<>());
+    private static int lineTax(LineItem line, TaxRates.Jurisdiction jurisdiction) {
+        if (jurisdiction == null) return 0;
+        return TaxRates.tax(line.getBaseAmount(), jurisdiction.ratePpm(line.getTaxCategory()));
+    }
 
-        // links：至少 terms_of_use；如有隐私/退货，也一并附上
-        List<Map<String, Object>> links = new ArrayList<>();
-        if (TOS_URL != null && !TOS_URL.isBlank()) {
-            links.add(Map.of("type", "terms_of_use", "url", TOS_URL));
+    /** 按当前地址 + 购物车重量 / 金额查运费表并选中（请求指定的优先，否则最便宜）；没有地址时清空 */
+    private static void recomputeFulfillment(CheckoutSession session, Object requestedOptionId) {
+        if (session.getFulfillmentAddress() == null) {
+            session.setFulfillmentOptions(List.of());
+            session.setFulfillmentOptionId(null);
+            return;
         }
-        if (PRIVACY_URL != null && !PRIVACY_URL.isBlank()) {
-            links.add(Map.of("type", "privacy_policy", "url", PRIVACY_URL));
+        long weight = 0;
+        long subtotal = 0;
+        for (LineItem li : session.getLineItems()) {
+            weight += (long) li.getWeightGrams() * li.getQuantity();
+            subtotal += li.getBaseAmount();
         }
-        if (RETURNS_URL != null && !RETURNS_URL.isBlank()) {
-            links.add(Map.of("type", "return_policy", "url", RETURNS_URL));
-        }
-        session.put("links", links);
+        List<FulfillmentOption> options = FulfillmentRates.current().options(session.getFulfillmentAddress(),
+                (int) Math.min(Integer.MAX_VALUE, weight), (int) Math.min(Integer.MAX_VALUE, subtotal));
+        session.setFulfillmentOptions(options);
+        String requestedId = requestedOptionId != null ? String.valueOf(requestedOptionId) : null;
+        session.setFulfillmentOptionId(pickSelectedFulfillmentId(options, requestedId));
+    }
 
-        return session;
+    /**
+     * 支付前的两种状态随地址与配送选项变化（completed / canceled 等保持不动）：
+     * 有地址且有可选的配送选项才 ready_for_payment；有地址却没有任何选项（如超出所有重量档）时
+     * not_ready_for_payment 并写一条 message，选项恢复后移除。
+     */
+    private static void recomputeStatus(CheckoutSession session) {
+        String status = session.getStatus();
+        if (!"ready_for_payment".equals(status) && !"not_ready_for_payment".equals(status)) return;
+        boolean hasAddress = session.getFulfillmentAddress() != null;
+        boolean unavailable = hasAddress && session.getFulfillmentOptions().isEmpty();
+        session.removeMessages(NO_FULFILLMENT_MESSAGE);
+        if (unavailable) {
+            session.addMessage(NO_FULFILLMENT_MESSAGE, "No shipping option is available for this address and cart.");
+        }
+        session.setStatus(hasAddress && !unavailable ? "ready_for_payment" : "not_ready_for_payment");
     }
 
-    /** 合并更新请求并重算 totals/line_items */
-    @SuppressWarnings("unchecked")
-    public static void applyUpdates(Map<String, Object> session, Map<String, Object> req) {
-        Map<String, Object> merged = new HashMap<>(session);
-
-        // 合并本次更新的地址/配送选项/货币
-        if (req.containsKey("fulfillment_address"))
-            merged.put("fulfillment_address", req.get("fulfillment_address"));
-        if (req.containsKey("fulfillment_option_id"))
-            merged.put("fulfillment_option_id", req.get("fulfillment_option_id"));
-        if (req.containsKey("currency"))
-            merged.put("currency", req.get("currency"));
-        else if (session.containsKey("currency"))
-            merged.put("currency", session.get("currency"));
-
-        // 若这次请求显式携带了 items（允许空数组表示清空购物车），就以它为准；
-        // 否则从现有 line_items 反推最小 items（id + quantity + unit_price_cents），以“保留购物车”
-        if (req.containsKey("items") && req.get("items") instanceof List) {
-            merged.put("items", req.get("items"));
-        } else {
-            List<Map<String, Object>> prevLines =
-                    (List<Map<String, Object>>) session.getOrDefault("line_items", List.of());
-            List<Map<String, Object>> derivedItems = new ArrayList<>();
-            for (Map<String, Object> li : prevLines) {
-                Object itemObj = li.get("item");
-                if (itemObj instanceof Map) {
-                    Map<String, Object> it = (Map<String, Object>) itemObj;
-                    int qty = ((Number) it.getOrDefault("quantity", 1)).intValue();
-                    int base = ((Number) li.getOrDefault("base_amount", 0)).intValue();
-                    int unitPrice = qty > 0 ? Math.max(0, base / qty) : base;
-
-                    Map<String, Object> minimal = new HashMap<>();
-                    minimal.put("id", it.get("id"));
-                    minimal.put("quantity", qty);
-                    minimal.put("unit_price_cents", unitPrice); // ✅ 把单价带回
-                    derivedItems.add(minimal);
-                }
-            }
-            merged.put("items", derivedItems);
+    /** 由行项 + 选中的配送选项算 totals（税 = 各行税额之和；各行类目税率可能不同） */
+    private static void recomputeTotals(CheckoutSession session) {
+        boolean hasAddress = session.getFulfillmentAddress() != null;
+        int itemsBaseAmount = 0;
+        int taxTotal = 0;
+        for (LineItem li : session.getLineItems()) {
+            itemsBaseAmount += li.getBaseAmount();
+            taxTotal += li.getTax();
         }
 
-        // 用合并后的请求重建完整会话（行项/税费/合计都会被重算）
-        Map<String, Object> rebuilt = buildInitialSession((String) session.get("id"), merged);
-        session.clear();
-        session.putAll(rebuilt);
-        session.put("created_time", String.valueOf(session.getOrDefault("created_time", Instant.now().toString())));
-        session.put("updated_time", Instant.now().toString());
+        FulfillmentOption selected = hasAddress ? session.getSelectedFulfillmentOption() : null;
+        int fulfillmentTotal = selected != null ? selected.getTotal() : 0;
+
+        int subtotal = itemsBaseAmount;
+        int total = subtotal + taxTotal + fulfillmentTotal;
+
+        List<Total> totals = new ArrayList<>(5);
+        totals.add(new Total(Total.Type.ITEMS_BASE_AMOUNT, itemsBaseAmount));
+        totals.add(new Total(Total.Type.SUBTOTAL, subtotal));
+        totals.add(new Total(Total.Type.TAX, taxTotal));
+        if (hasAddress) {
+            totals.add(new Total(Total.Type.FULFILLMENT, fulfillmentTotal));
+        }
+        totals.add(new Total(Total.Type.TOTAL, total));
+        session.setTotals(totals);
     }
 
     /** 把会话状态置为 completed，并生成订单对象 */
-    public static void markCompleted(Map<String, Object> session, Map<String, Object> req) {
-        session.put("status", "completed");
-        Map<String, Object> order = new HashMap<>();
-        order.put("id", "ord_" + UUID.randomUUID());
-        order.put("checkout_session_id", session.get("id"));
+    public static void markCompleted(CheckoutSession session, Map<String, Object> req) {
+        session.setStatus("completed");
+        String orderId = "ord_" + UUID.randomUUID();
+        String completed = Instant.now().toString();
         // 可替换为你的正式订单详情页
-        order.put("permalink_url", sellerBaseUrl() + "/orders/" + order.get("id"));
-        session.put("order", order);
-        String completed = java.time.Instant.now().toString();
-        session.put("completed_time", completed);
-        order.put("created_time", completed);
+        session.setOrder(new CheckoutSession.Order(
+                orderId, session.getId(), sellerBaseUrl() + "/orders/" + orderId, completed));
+        session.setCompletedTime(completed);
+    }
 
-    }  
     private static String sellerBaseUrl() {
             String base = System.getenv("SELLER_URL");
             if (base == null || base.isBlank()) {
@@ -284,24 +264,43 @@ if (hasAddress) {
                     return base;
                 }
     
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /** 从 options 中挑选选中的履约 ID：优先使用请求指定；否则选总价最低的 */
-    private static String pickSelectedFulfillmentId(List<Map<String, Object>> options, String requestedId) {
+    private static String pickSelectedFulfillmentId(List<FulfillmentOption> options, String requestedId) {
         if (requestedId != null && !requestedId.isBlank()) {
-            for (Map<String, Object> o : options) {
-                if (requestedId.equals(o.get("id"))) return requestedId;
+            for (FulfillmentOption o : options) {
+                if (requestedId.equals(o.getId())) return requestedId;
             }
         }
-    // 选最便宜
-    String bestId = null;
-    int best = Integer.MAX_VALUE;
-    for (Map<String, Object> o : options) {
-        int t = ((Number)o.getOrDefault("total", 0)).intValue();
-        if (t < best) { best = t; bestId = String.valueOf(o.get("id")); }
+        // 选最便宜
+        String bestId = null;
+        int best = Integer.MAX_VALUE;
+        for (FulfillmentOption o : options) {
+            if (o.getTotal() < best) { best = o.getTotal(); bestId = o.getId(); }
+        }
+        return bestId;
     }
-    return bestId;
-}
 
-    
+    private static List<CheckoutSession.Link> buildLinks() {
+        // links：至少 terms_of_use；如有隐私/退货，也一并附上
+        List<CheckoutSession.Link> links = new ArrayList<>();
+        if (TOS_URL != null && !TOS_URL.isBlank()) {
+            links.add(new CheckoutSession.Link("terms_of_use", TOS_URL));
+        }
+        if (PRIVACY_URL != null && !PRIVACY_URL.isBlank()) {
+            links.add(new CheckoutSession.Link("privacy_policy", PRIVACY_URL));
+        }
+        if (RETURNS_URL != null && !RETURNS_URL.isBlank()) {
+            links.add(new CheckoutSession.Link("return_policy", RETURNS_URL));
+        }
+        return List.copyOf(links);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object o) {
+        return o instanceof Map ? (Map<String, Object>) o : new HashMap<>();
+    }
+
+    private static int intValue(Object o, int defaultValue) {
+        return o instanceof Number ? ((Number) o).intValue() : defaultValue;
+    }
 }
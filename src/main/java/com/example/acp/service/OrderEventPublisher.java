@@ -1,5 +1,7 @@
 package com.example.acp.service;
 
+import com.example.acp.checkout.CheckoutSession;
+import com.example.acp.http.OutboundHttpClient;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,29 +34,31 @@ public class OrderEventPublisher {
 
     private final String webhookUrl;     // 来自 OPENAI_WEBHOOK_URL
     private final String webhookSecret;  // 来自 OPENAI_WEBHOOK_SECRET
-    private final RestTemplate http = new RestTemplate();
+    private final RestTemplate http;
     private final ObjectMapper mapper = new ObjectMapper();
 
     public OrderEventPublisher(
             @Value("${openai.webhook.url:}") String webhookUrl,
-            @Value("${openai.webhook.secret:}") String webhookSecret
+            @Value("${openai.webhook.secret:}") String webhookSecret,
+            OutboundHttpClient outboundHttp
     ) {
         this.webhookUrl = webhookUrl == null ? "" : webhookUrl.trim();      // 由 OPENAI_WEBHOOK_URL 提供
         this.webhookSecret = webhookSecret == null ? "" : webhookSecret.trim(); // 由 OPENAI_WEBHOOK_SECRET 提供
+        this.http = outboundHttp.restTemplate(); // 共享连接池
     }
 
     /** 对外：发送 order.created */
-    public void publishOrderCreated(Map<String, Object> session) {
+    public void publishOrderCreated(CheckoutSession session) {
         sendEvent("order.created", session);
     }
 
     /** 对外：发送 order.updated */
-    public void publishOrderUpdated(Map<String, Object> session) {
+    public void publishOrderUpdated(CheckoutSession session) {
         sendEvent("order.updated", session);
     }
 
     /** 核心发送逻辑 */
-    private void sendEvent(String eventType, Map<String, Object> session) {
+    private void sendEvent(String eventType, CheckoutSession session) {
         if (webhookUrl.isEmpty()) {
             log.debug("[OrderEventPublisher] OPENAI_WEBHOOK_URL 未配置，跳过事件 {}。", eventType);
             return; // 未配置则跳过（不影响主流程）
@@ -90,16 +94,16 @@ public class OrderEventPublisher {
     }
 
     /** 事件负载：贴近你当前会话结构，保持“权威状态” */
-    private Map<String, Object> buildPayload(String eventType, Map<String, Object> session) {
+    private Map<String, Object> buildPayload(String eventType, CheckoutSession session) {
         Map<String, Object> payload = new HashMap<>();
         payload.put("event_type", eventType);
         payload.put("occurred_at", OffsetDateTime.now().toString());
-        payload.put("checkout_session_id", session.get("id"));
-        payload.put("order", session.get("order"));
-        payload.put("currency", session.get("currency"));
-        payload.put("totals", session.get("totals"));
-        payload.put("line_items", session.get("line_items"));
-        payload.put("links", session.get("links"));
+        payload.put("checkout_session_id", session.getId());
+        payload.put("order", session.getOrder());
+        payload.put("currency", session.getCurrency());
+        payload.put("totals", session.getTotals());
+        payload.put("line_items", session.getLineItems());
+        payload.put("links", session.getLinks());
         return payload;
     }
 
@@ -1,6 +1,7 @@
 package com.example.acp.service;
 
-import com.example.acp.feed.ProductFeedService;
+import com.example.acp.feed.FeedSnapshot;
+import com.example.acp.feed.FeedSites;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
@@ -8,59 +9,44 @@ import java.util.*;
 @Service
 public class ProductService {
 
-    private final ProductFeedService feedService;
+    private final FeedSites feedSites;
 
-    public ProductService(ProductFeedService feedService) {
-        this.feedService = feedService;
+    public ProductService(FeedSites feedSites) {
+        this.feedSites = feedSites;
     }
 
-    /** 通过商品 id 查找单价（分）+ 币种 */
+    /** 通过商品 id 查找单价（分）+ 币种 + 库存；依次查各站点快照的 id 索引，库存以实时覆盖层为准 */
     public Optional<Price> findPriceById(String id) {
-        Object resp = feedService.getFeedResponse();
-        if (resp == null) return Optional.empty();
-
-        List<Map<String, Object>> items = extractItemList(resp);
-        if (items.isEmpty()) return Optional.empty();
-
-        return items.stream()
-                .filter(it -> id.equals(String.valueOf(it.get("id"))))
-                .findFirst()
-                .flatMap(this::mapToPrice);
+        FeedSnapshot.PriceEntry e = feedSites.findPrice(id);
+        if (e == null) return Optional.empty();
+        return Optional.of(new Price(e.unitCents, e.currency, e.availability, e.inventoryQuantity, e.weightGrams,
+                e.productCategory));
     }
 
-    /** 兼容多种返回结构：List 本身 / Map→items / Map→products */
-    @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> extractItemList(Object resp) {
-        if (resp instanceof List) return (List<Map<String, Object>>) resp;
-
-        if (resp instanceof Map) {
-            Map<String, Object> m = (Map<String, Object>) resp;
-            Object items = m.getOrDefault("items", m.get("products"));
-            if (items instanceof List) return (List<Map<String, Object>>) items;
+    /** 下单成功后扣减库存（立即反映到查价与下一版 feed）；商品不存在时忽略 */
+    public void decrementStock(String id, int quantity) {
+        FeedSnapshot.PriceEntry e = feedSites.decrementStock(id, quantity);
+        if (e != null) {
+            System.out.println("[ProductService] stock " + id + " -" + quantity + " -> " + e.inventoryQuantity + " (" + e.availability + ")");
         }
-        return Collections.emptyList();
-    }
-
-    /** 把 item Map 映射成 Price */
-    @SuppressWarnings("unchecked")
-    private Optional<Price> mapToPrice(Map<String, Object> item) {
-        Map<String, Object> priceObj = (Map<String, Object>) item.get("price");
-        if (priceObj == null) return Optional.empty();
-
-        double amount = ((Number) priceObj.getOrDefault("amount", 0)).doubleValue();
-        long cents = Math.round(amount * 100);
-        String currency = String.valueOf(priceObj.getOrDefault("currency", "usd")).toLowerCase();
-
-        return Optional.of(new Price((int) cents, currency));
     }
 
-    /** 值对象：单价（分）+ 币种 */
+    /** 值对象：单价（分）+ 币种 + 可售状态 + 库存数 + 单件重量（克）+ 类目 */
     public static final class Price {
         public final int unitCents;
         public final String currency;
-        public Price(int unitCents, String currency) {
+        public final String availability;
+        public final int inventoryQuantity;
+        public final int weightGrams;
+        public final String productCategory;
+        public Price(int unitCents, String currency, String availability, int inventoryQuantity, int weightGrams,
+                     String productCategory) {
             this.unitCents = unitCents;
             this.currency = currency;
+            this.availability = availability;
+            this.inventoryQuantity = inventoryQuantity;
+            this.weightGrams = weightGrams;
+            this.productCategory = productCategory;
         }
     }
 }
@@ -2,14 +2,19 @@ package com.example.acp.store;
 
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 极简幂等缓存（内存版）：
- * - tryBegin(key): 第一次请求占位，返回 true；并发重复返回 false。
- * - commit(key, body): 写入最终响应，并设置过期时间。
+ * - tryBegin(key): 第一次请求占位，返回 owner=true 的 Attempt；并发重复返回 owner=false，
+ *   两者拿到的是同一个完成句柄（CompletableFuture），commit 时完成。
+ * - commit(key, body): 写入最终响应，完成句柄（唤醒所有等待者），并设置过期时间。
+ * - abort(key): 占位方没能 commit（中途抛异常）时撤掉占位，等待者拿到 null，同键重试可重新占位。
  * - getIfReady(key): 若已有已完成的缓存且未过期，返回缓存响应；否则返回 null。
+ * - await(attempt): 并发重复请求等待首个请求的结果，最多等 IDEMPOTENCY_WAIT_MS（默认 1000ms），
+ *   超时得到 null。返回的是 future，控制器直接交给 Spring MVC 异步返回，不占 Tomcat 线程。
  *
  * 说明：
  * - 仅用于单实例/演示；生产推荐用共享存储（如 Redis）替代。
@@ -19,54 +24,102 @@ import java.util.concurrent.ConcurrentHashMap;
 public class IdempotencyStore {
 
     private static final long DEFAULT_TTL_MS = 5 * 60 * 1000L;
+    private static final long DEFAULT_WAIT_MS =
+            Long.parseLong(System.getenv().getOrDefault("IDEMPOTENCY_WAIT_MS", "1000"));
 
     private static final class Entry {
         volatile boolean inProgress;            // 是否占位中
         volatile long expiresAt;                // 过期时间戳（ms）
-        volatile Map<String, Object> body;      // 已完成时的响应体
+        volatile Object body;                   // 已完成时的响应体（会话对象或错误 Map）
+        final CompletableFuture<Object> done = new CompletableFuture<>();   // commit 时完成
+    }
+
+    /** 占位结果：是否由本请求负责处理 + 该 key 的完成句柄 */
+    public static final class Attempt {
+        private final boolean owner;
+        private final CompletableFuture<Object> result;
+
+        private Attempt(boolean owner, CompletableFuture<Object> result) {
+            this.owner = owner;
+            this.result = result;
+        }
+
+        /** true = 第一次占位成功，由本请求处理并 commit */
+        public boolean isOwner() { return owner; }
+
+        /** 首个请求 commit 的响应体（不要在返回的 future 上 complete / orTimeout，它被所有等待者共享） */
+        public CompletableFuture<Object> result() { return result; }
     }
 
     private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
     private final long ttlMs;
+    private final long waitMs;
 
     public IdempotencyStore() {
-        this(DEFAULT_TTL_MS);
+        this(DEFAULT_TTL_MS, DEFAULT_WAIT_MS);
     }
 
     public IdempotencyStore(long ttlMs) {
+        this(ttlMs, DEFAULT_WAIT_MS);
+    }
+
+    public IdempotencyStore(long ttlMs, long waitMs) {
         this.ttlMs = ttlMs;
+        this.waitMs = waitMs;
     }
 
-    /** 第一次请求占位；并发重复将返回 false（由调用方决定返回 409/425 或短暂重试） */
-    public boolean tryBegin(String key) {
-        long now = System.currentTimeMillis();
-        Entry fresh = new Entry();
-        fresh.inProgress = true;
-        fresh.expiresAt = now + ttlMs;
+    /** 第一次请求占位；并发重复拿到 owner=false 的 Attempt（由调用方 await 或直接返回 409） */
+    public Attempt tryBegin(String key) {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Entry fresh = new Entry();
+            fresh.inProgress = true;
+            fresh.expiresAt = now + ttlMs;
 
-        Entry prev = cache.putIfAbsent(key, fresh);
-        if (prev == null) return true;                  // 第一次占位成功
+            Entry prev = cache.putIfAbsent(key, fresh);
+            if (prev == null) return new Attempt(true, fresh.done);   // 第一次占位成功
 
-        // 发现旧条目：若已过期，替换为新占位
-        if (prev.expiresAt < now) {
-            cache.replace(key, prev, fresh);
-            return true;
+            // 发现旧条目：若已过期，替换为新占位（与其他请求竞争替换，输了就重新判断）
+            if (prev.expiresAt < now) {
+                if (cache.replace(key, prev, fresh)) return new Attempt(true, fresh.done);
+                continue;
+            }
+            // 旧条目未过期：已完成时句柄已完成，等待者立刻拿到结果
+            return new Attempt(false, prev.done);
         }
-        // 旧条目未过期：若已有完成体，调用方可以直接 getIfReady 返回它
-        return false;
     }
 
-    /** 写入最终响应体并标记完成（供后续相同 key 直接命中） */
-    public void commit(String key, Map<String, Object> body) {
+    /** 写入最终响应体并标记完成（供后续相同 key 直接命中），同时唤醒等待者 */
+    public void commit(String key, Object body) {
         long now = System.currentTimeMillis();
         Entry e = cache.computeIfAbsent(key, k -> new Entry());
-        e.inProgress = false;
         e.body = body;
         e.expiresAt = now + ttlMs;
+        e.inProgress = false;
+        e.done.complete(body);
+    }
+
+    /**
+     * 撤掉仍在占位中的条目并以 null 完成句柄（等待者按超时处理）；已 commit 的条目不动，
+     * 所以调用方可以无条件放在 finally 里。
+     */
+    public void abort(String key) {
+        Entry e = cache.get(key);
+        if (e == null || !e.inProgress) return;
+        cache.remove(key, e);
+        e.done.complete(null);
+    }
+
+    /**
+     * 等待该 key 首个请求的结果：commit 的瞬间完成；超过等待时限得到 null。
+     * 返回的是独立副本，超时不会影响其他等待者。
+     */
+    public CompletableFuture<Object> await(Attempt attempt) {
+        return attempt.result.copy().completeOnTimeout(null, waitMs, TimeUnit.MILLISECONDS);
     }
 
     /** 若已有“已完成且未过期”的缓存，返回它；否则返回 null */
-    public Map<String, Object> getIfReady(String key) {
+    public Object getIfReady(String key) {
         long now = System.currentTimeMillis();
         Entry e = cache.get(key);
         if (e == null) return null;
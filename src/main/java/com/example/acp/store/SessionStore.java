@@ -1,5 +1,6 @@
 package com.example.acp.store;
 
+import com.example.acp.checkout.CheckoutSession;
 import org.springframework.stereotype.Component;
 
 import java.util.Map;
@@ -12,14 +13,14 @@ import java.util.concurrent.ConcurrentHashMap;
 @Component
 public class SessionStore {
 
-    // checkout_session_id -> session(full state map)
-    private final ConcurrentHashMap<String, Map<String, Object>> store = new ConcurrentHashMap<>();
+    // checkout_session_id -> session(full state)
+    private final ConcurrentHashMap<String, CheckoutSession> store = new ConcurrentHashMap<>();
 
-    public Map<String, Object> get(String id) {
+    public CheckoutSession get(String id) {
         return store.get(id);
     }
 
-    public void put(String id, Map<String, Object> session) {
+    public void put(String id, CheckoutSession session) {
         store.put(id, session);
     }
 
@@ -28,12 +29,11 @@ public class SessionStore {
     }
 
     /** 新增：根据 payment_intent_id 找回会话（找不到返回 null） */
-    public Map<String, Object> findByPaymentIntentId(String paymentIntentId) {
+    public CheckoutSession findByPaymentIntentId(String paymentIntentId) {
         if (paymentIntentId == null || paymentIntentId.isBlank()) return null;
-        for (Map.Entry<String, Map<String, Object>> e : store.entrySet()) {
-            Map<String, Object> session = e.getValue();
-            Object pi = session.get("payment_intent_id");
-            if (pi != null && paymentIntentId.equals(pi.toString())) {
+        for (Map.Entry<String, CheckoutSession> e : store.entrySet()) {
+            CheckoutSession session = e.getValue();
+            if (paymentIntentId.equals(session.getPaymentIntentId())) {
                 return session;
             }
         }
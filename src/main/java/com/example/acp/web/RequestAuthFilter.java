@@ -60,7 +60,8 @@ public class RequestAuthFilter extends OncePerRequestFilter {
         // ======= 新增：路径白名单放行（Stripe Webhook + Product Feed）======
         // 说明：
         //  - /webhook/stripe 与 /webhook/stripe/** ：给 Stripe 回调使用，采用 Stripe-Signature 验签，不走本过滤器的 Bearer/HMAC。
-        //  - /product_feed ：你选择“拉取模式”，OpenAI 拉取时不携带你自定义签名头，这里直接放行。
+        //  - /webhook/wix ：Wix 商品变更通知，body 本身是 Wix 签名的 JWT，由控制器验签。
+        //  - /product_feed 与 /product_feed/**（如 /changes）：你选择“拉取模式”，OpenAI 拉取时不携带你自定义签名头，这里直接放行。
         String uri = request.getRequestURI();
         String ctx = request.getContextPath();
         if (ctx != null && !ctx.isEmpty() && uri.startsWith(ctx)) {
@@ -71,7 +72,9 @@ public class RequestAuthFilter extends OncePerRequestFilter {
         if (q >= 0) uri = uri.substring(0, q);
         
         if ("/api/product_feed".equals(uri)
+        || uri.startsWith("/api/product_feed/")
         || "/api/webhook/stripe".equals(uri)
+        || "/api/webhook/wix".equals(uri)
         || uri.startsWith("/api/webhook/stripe/")) {
             chain.doFilter(request, response);
             return;
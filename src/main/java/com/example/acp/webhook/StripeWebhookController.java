@@ -1,5 +1,7 @@
 package com.example.acp.webhook;
 
+import com.example.acp.checkout.CheckoutSession;
+import com.example.acp.store.IdempotencyStore;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.stripe.exception.SignatureVerificationException;
@@ -28,7 +30,7 @@ import java.util.Optional;
 public class StripeWebhookController {
     @Autowired private com.example.acp.store.SessionStore sessionStore;
     @Autowired private com.example.acp.service.OrderEventPublisher orderEventPublisher;
-    @Autowired private com.example.acp.store.IdempotencyStore idempotencyStore;
+    @Autowired private IdempotencyStore idempotencyStore;
 
     // 从环境/配置注入（Railway 上设置 STRIPE_WEBHOOK_SECRET 会映射到此）
     private final String signingSecret;
@@ -45,9 +47,10 @@ public class StripeWebhookController {
         this.toleranceSec = toleranceSec;
     }
 
+    /** 返回 ResponseEntity&lt;String&gt;；同一事件并发重复投递时返回异步等待的 CompletableFuture */
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> handle(HttpServletRequest request,
-                                         @RequestHeader(value = "Stripe-Signature", required = false) String sigHeader) {
+    public Object handle(HttpServletRequest request,
+                         @RequestHeader(value = "Stripe-Signature", required = false) String sigHeader) {
         // 前置校验：缺少必要头或密钥时直接返回
         if (signingSecret.isBlank()) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("missing webhook secret");
@@ -56,6 +59,7 @@ public class StripeWebhookController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("missing Stripe-Signature");
         }
 
+        String ownedKey = null;     // 本请求占到的幂等键；没能 commit 时在 finally 里撤掉
         try {
             // 1) 读取原始 body（字节 → UTF-8 字符串），保持与 Stripe 生成签名的原文一致
             String payload;
@@ -68,20 +72,19 @@ public class StripeWebhookController {
 
             // 3) 幂等去重（Stripe 有可能重试同一事件）
             String evtKey = "evt:" + event.getId();
-            Map<String, Object> seen = idempotencyStore.getIfReady(evtKey);
+            Object seen = idempotencyStore.getIfReady(evtKey);
             if (seen != null) {
                 return ResponseEntity.ok("ok"); // 已处理
             }
-            boolean begun = idempotencyStore.tryBegin(evtKey);
-            if (!begun) {
-                // 等待首个处理线程写入 commit，避免并发重复处理
-                for (int i = 0; i < 10; i++) {
-                    Map<String, Object> c = idempotencyStore.getIfReady(evtKey);
-                    if (c != null) return ResponseEntity.ok("ok");
-                    try { Thread.sleep(100); } catch (InterruptedException ignored) {}
-                }
-                return ResponseEntity.ok("ok");
+            IdempotencyStore.Attempt attempt = idempotencyStore.tryBegin(evtKey);
+            if (!attempt.isOwner()) {
+                // 异步等待首个处理线程 commit（不占 Tomcat 线程），避免并发重复处理；
+                // 拿到 null 说明首个处理失败已 abort 或等待超时，回 503 让 Stripe 重投，不能当成已送达
+                return idempotencyStore.await(attempt).thenApply(c -> c != null
+                        ? ResponseEntity.ok("ok")
+                        : ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("retry"));
             }
+            ownedKey = evtKey;
 
             // 4) 事件分发（保留你原有的业务逻辑）
             String type = event.getType();
@@ -132,6 +135,9 @@ public class StripeWebhookController {
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("error"); // 5xx
+        } finally {
+            // 处理失败返回 5xx 时撤掉占位，否则 Stripe 的重试会被当成“已在处理”直接回 ok，事件就丢了
+            if (ownedKey != null) idempotencyStore.abort(ownedKey);
         }
     }
 
@@ -165,17 +171,16 @@ public class StripeWebhookController {
     /** 把 PI 状态合并到会话并发送 order.updated */
     private void applyPiStatusAndPublish(String paymentIntentId, String paymentStatus, String failureMessage, String rawPayload) {
         try {
-            Map<String, Object> session = sessionStore.findByPaymentIntentId(paymentIntentId);
+            CheckoutSession session = sessionStore.findByPaymentIntentId(paymentIntentId);
             if (session == null) {
                 System.out.println("[Stripe Webhook] no session found for PI " + paymentIntentId);
                 return; // 找不到就跳过（可能是历史/测试事件）
             }
-            session.put("payment_status", paymentStatus);
+            session.setPaymentStatus(paymentStatus);
             if (failureMessage != null && !failureMessage.isBlank()) {
-                session.put("failure_message", failureMessage);
+                session.setFailureMessage(failureMessage);
             }
-            // 你已有的会话键就是 "id"
-            sessionStore.put(String.valueOf(session.get("id")), session);
+            sessionStore.put(session.getId(), session);
 
             // 发权威更新
             orderEventPublisher.publishOrderUpdated(session);
@@ -221,18 +226,17 @@ public class StripeWebhookController {
             else                                            refundStatus = "refunded";
 
             // 用 PI 反查会话（charge.refunded 事件里通常带有 payment_intent）
-            Map<String, Object> session = sessionStore.findByPaymentIntentId(paymentIntentId);
+            CheckoutSession session = sessionStore.findByPaymentIntentId(paymentIntentId);
             if (session == null) {
                 System.out.println("[Stripe Webhook] charge.refunded but no session found, pi=" + paymentIntentId + " ch=" + chargeId);
                 return; // 找不到就跳过（可能是与业务无关的测试事件）
             }
 
-            session.put("refund_status", refundStatus);
-            session.put("refund_amount", refundedAmt);
-            if (chargeId != null) session.put("charge_id", chargeId);
+            session.setRefund(refundStatus, refundedAmt);
+            if (chargeId != null) session.setChargeId(chargeId);
 
             // 持久化并广播权威更新
-            sessionStore.put(String.valueOf(session.get("id")), session);
+            sessionStore.put(session.getId(), session);
             orderEventPublisher.publishOrderUpdated(session);
         } catch (Exception e) {
             e.printStackTrace();
@@ -263,19 +267,18 @@ public class StripeWebhookController {
                 return;
             }
 
-            Map<String, Object> session = sessionStore.findByPaymentIntentId(paymentIntentId);
+            CheckoutSession session = sessionStore.findByPaymentIntentId(paymentIntentId);
             if (session == null) {
                 System.out.println("[Stripe Webhook] dispute " + disputeStatus + " but no session found, pi=" + paymentIntentId);
                 return;
             }
 
             // 合并争议状态
-            session.put("dispute_status", disputeStatus); // open / closed
-            if (disputeId != null) session.put("dispute_id", disputeId);
-            if (chargeId  != null) session.put("charge_id", chargeId);
+            session.setDispute(disputeStatus, disputeId); // open / closed
+            if (chargeId  != null) session.setChargeId(chargeId);
 
             // 持久化并发权威更新
-            sessionStore.put(String.valueOf(session.get("id")), session);
+            sessionStore.put(session.getId(), session);
             orderEventPublisher.publishOrderUpdated(session);
 
         } catch (Exception e) {
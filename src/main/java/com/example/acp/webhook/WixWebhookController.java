@@ -0,0 +1,137 @@
+package com.example.acp.webhook;
+
+import com.example.acp.feed.FeedSites;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.*;
+
+/**
+ * Wix 商品变更通知（ProductCreated / ProductChanged / ProductDeleted / 库存变更等）
+ * - Wix 把事件以 JWT（RS256）作为原始 body 推送；用应用后台提供的公钥（PEM）验签
+ * - 从负载（data 字段可能是多层嵌套的 JSON 字符串）里取出 productId，交给各站点的 feed 异步定向刷新
+ * - 立即返回 200，刷新在后台合并处理；Wix 重试同一事件只会多刷新一次，不影响结果
+ */
+@RestController
+@RequestMapping("/api/webhook/wix")
+public class WixWebhookController {
+
+    /** 嵌套 JSON 字符串最多展开几层 */
+    private static final int MAX_DEPTH = 6;
+
+    private final FeedSites feedSites;
+    private final PublicKey publicKey;   // 未配置时为 null，拒绝所有通知
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public WixWebhookController(
+            FeedSites feedSites,
+            @Value("${wix.webhook.public-key:}") String publicKeyPem
+    ) {
+        this.feedSites = feedSites;
+        this.publicKey = parsePublicKey(publicKeyPem);
+    }
+
+    @PostMapping(produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> handle(@RequestBody(required = false) String body) {
+        if (publicKey == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("missing webhook public key");
+        }
+        if (body == null || body.isBlank()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("empty body");
+        }
+
+        Map<String, Object> payload = verify(body.trim());
+        if (payload == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("invalid signature");
+        }
+
+        Set<String> productIds = new LinkedHashSet<>();
+        collectProductIds(payload, productIds, 0);
+        if (productIds.isEmpty()) {
+            return ResponseEntity.ok("ignored");
+        }
+        System.out.println("[WixWebhook] refresh " + productIds);
+        for (String id : productIds) feedSites.refreshProductAsync(id);
+        return ResponseEntity.ok("ok");
+    }
+
+    /** 校验 RS256 JWT，返回解码后的负载；格式不对或签名不符返回 null */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> verify(String jwt) {
+        String[] parts = jwt.split("\\.");
+        if (parts.length != 3) return null;
+        try {
+            Map<String, Object> header = mapper.readValue(Base64.getUrlDecoder().decode(parts[0]), Map.class);
+            if (!"RS256".equals(header.get("alg"))) return null;
+
+            Signature sig = Signature.getInstance("SHA256withRSA");
+            sig.initVerify(publicKey);
+            sig.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!sig.verify(Base64.getUrlDecoder().decode(parts[2]))) return null;
+
+            return mapper.readValue(Base64.getUrlDecoder().decode(parts[1]), Map.class);
+        } catch (Exception e) {
+            System.out.println("[WixWebhook] bad token: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 递归收集商品 id：
+     * - 任意层级的 "productId" 字符串
+     * - entityFqdn 指向商品的事件里的 "entityId"
+     * - 值是 JSON 对象字符串时先解析再继续（Wix 的 data 字段就是这样套的）
+     */
+    @SuppressWarnings("unchecked")
+    private void collectProductIds(Object node, Set<String> out, int depth) {
+        if (depth > MAX_DEPTH || node == null) return;
+        if (node instanceof Map) {
+            Map<String, Object> m = (Map<String, Object>) node;
+            Object pid = m.get("productId");
+            if (pid instanceof String && !((String) pid).isBlank()) out.add((String) pid);
+            Object fqdn = m.get("entityFqdn");
+            Object entityId = m.get("entityId");
+            if (fqdn instanceof String && ((String) fqdn).toLowerCase(Locale.ROOT).contains("product")
+                    && entityId instanceof String && !((String) entityId).isBlank()) {
+                out.add((String) entityId);
+            }
+            for (Object v : m.values()) collectProductIds(v, out, depth + 1);
+        } else if (node instanceof List) {
+            for (Object v : (List<Object>) node) collectProductIds(v, out, depth + 1);
+        } else if (node instanceof String) {
+            String s = ((String) node).trim();
+            if (s.startsWith("{") || s.startsWith("[")) {
+                try {
+                    collectProductIds(mapper.readValue(s, Object.class), out, depth + 1);
+                } catch (Exception ignore) {
+                    // 普通字符串，不是嵌套 JSON
+                }
+            }
+        }
+    }
+
+    /** PEM（或去掉头尾的 base64）→ RSA 公钥；为空或解析失败返回 null */
+    private static PublicKey parsePublicKey(String pem) {
+        if (pem == null || pem.isBlank()) return null;
+        try {
+            String b64 = pem
+                    .replace("-----BEGIN PUBLIC KEY-----", "")
+                    .replace("-----END PUBLIC KEY-----", "")
+                    .replace("\\n", "")   // 环境变量里常见的字面量 \n
+                    .replaceAll("\\s", "");
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(b64)));
+        } catch (Exception e) {
+            System.out.println("[WixWebhook] invalid wix.webhook.public-key: " + e.getMessage());
+            return null;
+        }
+    }
+}
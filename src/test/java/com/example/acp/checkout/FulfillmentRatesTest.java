@@ -0,0 +1,99 @@
+package com.example.acp.checkout;
+
+import com.example.acp.service.CheckoutBuilders;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 运费表：地址 → 区域的优先级、重量 / 金额档边界，以及没有可用选项时的会话状态 */
+class FulfillmentRatesTest {
+
+    private static final String RATES = """
+            { "zones": [
+                { "name": "us-west", "countries": ["US"], "regions": ["CA", "OR"], "postal_prefixes": ["97"],
+                  "rates": [ { "id": "west_light", "price_cents": 500, "min_weight_g": 0, "max_weight_g": 1000 },
+                             { "id": "west_heavy", "price_cents": 900, "min_weight_g": 1000, "max_weight_g": 5000 },
+                             { "id": "west_free", "price_cents": 0, "max_weight_g": 5000, "min_subtotal_cents": 10000 } ] },
+                { "name": "nyc", "countries": ["US"], "postal_prefixes": ["100"],
+                  "rates": [ { "id": "nyc", "price_cents": 700 } ] },
+                { "name": "nyc-south", "countries": ["US"], "postal_prefixes": ["1002"],
+                  "rates": [ { "id": "nyc_south", "price_cents": 800 } ] },
+                { "name": "us", "countries": ["US"], "rates": [ { "id": "us", "price_cents": 1000 } ] },
+                { "name": "rest", "countries": ["*"], "rates": [ { "id": "intl", "price_cents": 3000 } ] } ] }
+            """;
+
+    private final FulfillmentRates previous = FulfillmentRates.current();
+
+    @AfterEach
+    void restore() {
+        FulfillmentRates.reload(previous.getSource() == null ? "{\"zones\":[]}" : previous.getSource());
+    }
+
+    @Test
+    void zoneResolutionPrefersPostalThenRegionThenCountryThenWildcard() {
+        FulfillmentRates rates = FulfillmentRates.compile(RATES);
+
+        // 同一区域的州与邮编前缀都生效
+        assertThat(rates.resolve(address("US", "CA", "94105")).name).isEqualTo("us-west");
+        assertThat(rates.resolve(address("US", "WA", "97201")).name).isEqualTo("us-west");
+        // 邮编前缀最长匹配（与配置顺序无关），且优先于州
+        assertThat(rates.resolve(address("US", "CA", "10001")).name).isEqualTo("nyc");
+        assertThat(rates.resolve(address("US", "NY", "10025")).name).isEqualTo("nyc-south");
+        assertThat(rates.resolve(address("US", "NY", "10-025")).name).isEqualTo("nyc-south");
+        assertThat(rates.resolve(address("us", "tx", "75001")).name).isEqualTo("us");
+        assertThat(rates.resolve(address("DE", "", "10115")).name).isEqualTo("rest");
+        assertThat(rates.resolve(null).name).isEqualTo("rest");
+    }
+
+    @Test
+    void weightAndSubtotalBandsAreHalfOpen() {
+        FulfillmentRates rates = FulfillmentRates.compile(RATES);
+        Map<String, Object> ca = address("US", "CA", "94105");
+
+        assertThat(ids(rates.options(ca, 0, 0))).containsExactly("west_light");
+        assertThat(ids(rates.options(ca, 999, 9999))).containsExactly("west_light");
+        assertThat(ids(rates.options(ca, 1000, 9999))).containsExactly("west_heavy");
+        assertThat(ids(rates.options(ca, 1000, 10000))).containsExactly("west_heavy", "west_free");
+        assertThat(ids(rates.options(ca, 4999, 10000))).containsExactly("west_heavy", "west_free");
+        // 超出所有重量档：没有选项，不回退到别的区域
+        assertThat(rates.options(ca, 5000, 10000)).isEmpty();
+    }
+
+    @Test
+    void cartWithoutAnyRateIsNotReadyForPayment() {
+        FulfillmentRates.reload(RATES);
+        Map<String, Object> req = new HashMap<>();
+        req.put("fulfillment_address", address("US", "CA", "94105"));
+        req.put("items", List.of(item(3000)));
+        CheckoutSession session = CheckoutBuilders.buildInitialSession("cs_test", req);
+
+        assertThat(session.getFulfillmentOptions()).isEmpty();
+        assertThat(session.getFulfillmentOptionId()).isNull();
+        assertThat(session.getStatus()).isEqualTo("not_ready_for_payment");
+        assertThat(session.getMessages()).hasSize(1);
+
+        // 购物车减重回到重量档内：选项恢复，message 移除
+        CheckoutBuilders.applyUpdates(session, Map.of("items", List.of(item(400))));
+        assertThat(session.getFulfillmentOptionId()).isEqualTo("west_light");
+        assertThat(session.getStatus()).isEqualTo("ready_for_payment");
+        assertThat(session.getMessages()).isEmpty();
+    }
+
+    private static List<String> ids(List<FulfillmentOption> options) {
+        return options.stream().map(FulfillmentOption::getId).toList();
+    }
+
+    /** 2 件，每件 weightGrams 克 */
+    private static Map<String, Object> item(int weightGrams) {
+        return Map.of("id", "sku-1", "quantity", 2, "unit_price_cents", 1500, "weight_grams", weightGrams);
+    }
+
+    private static Map<String, Object> address(String country, String state, String postalCode) {
+        return Map.of("country", country, "state", state, "postal_code", postalCode);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.acp.checkout;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 税率表：嵌套邮编前缀的上级、类目路径回退与整数计税 */
+class TaxRatesTest {
+
+    // 9001 写在 900 前面：上级关系与行的先后无关
+    private static final String RATES = """
+            # country,state,postal_prefix,category,rate_percent
+            US,,,*,0
+            US,CA,9001,Apparel & Accessories,1
+            US,CA,,*,7.25
+            US,CA,900,*,9.5
+            US,CA,900,Electronics > Audio,8
+            US,NY,,Apparel & Accessories > Clothing,0
+            US,NY,,*,8.875
+            """;
+
+    private final TaxRates rates = TaxRates.compile(RATES);
+
+    @Test
+    void nestedPostalPrefixFallsBackToShorterPrefixBeforeState() {
+        TaxRates.Jurisdiction j = rates.resolve(address("CA", "90012"));
+        assertThat(j.getId()).isEqualTo("US-CA-9001");
+        assertThat(j.ratePpm("Apparel & Accessories > Shoes")).isEqualTo(10_000);
+        assertThat(j.ratePpm("Electronics")).isEqualTo(95_000);
+        assertThat(j.ratePpm("Electronics > Audio > Headphones")).isEqualTo(80_000);
+        assertThat(j.ratePpm(null)).isEqualTo(95_000);
+
+        assertThat(rates.resolve(address("CA", "900-77")).getId()).isEqualTo("US-CA-900");
+        assertThat(rates.resolve(address("CA", "94105")).ratePpm("Electronics")).isEqualTo(72_500);
+        assertThat(rates.resolve(address("TX", "75001")).ratePpm("Electronics")).isEqualTo(0);
+        assertThat(rates.resolve(Map.of("country", "DE")).ratePpm("Electronics")).isEqualTo(100_000);
+    }
+
+    @Test
+    void categoryRulesMatchOnlyWholePathSegments() {
+        TaxRates.Jurisdiction ny = rates.resolve(address("NY", "10001"));
+        assertThat(ny.ratePpm("Apparel & Accessories > Clothing")).isEqualTo(0);
+        assertThat(ny.ratePpm("apparel & accessories > clothing > Shirts")).isEqualTo(0);
+        // 同一前缀但不是整段：不能命中 Clothing 的免税规则
+        assertThat(ny.ratePpm("Apparel & Accessories > Clothing Accessories")).isEqualTo(88_750);
+        assertThat(ny.ratePpm("Apparel & Accessories")).isEqualTo(88_750);
+
+        assertThat(TaxRates.matchesPath("Electronics > Audio", "Electronics")).isTrue();
+        assertThat(TaxRates.matchesPath("Electronics Repair", "Electronics")).isFalse();
+    }
+
+    @Test
+    void taxRoundsHalfAwayFromZeroInCents() {
+        assertThat(TaxRates.tax(1000, 72_500)).isEqualTo(73);        // 72.5 → 73
+        assertThat(TaxRates.tax(999, 72_500)).isEqualTo(72);         // 72.4275 → 72
+        assertThat(TaxRates.tax(200, 87_500)).isEqualTo(18);         // 17.5 → 18
+        assertThat(TaxRates.tax(-200, 87_500)).isEqualTo(-18);
+        assertThat(TaxRates.tax(0, 95_000)).isEqualTo(0);
+        assertThat(TaxRates.tax(Integer.MAX_VALUE, 1_000_000)).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    private static Map<String, Object> address(String state, String postalCode) {
+        return Map.of("country", "US", "state", state, "postal_code", postalCode);
+    }
+}
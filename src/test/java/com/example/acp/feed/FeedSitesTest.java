@@ -0,0 +1,64 @@
+package com.example.acp.feed;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 合并视图在站点发布后由合并线程重建，读路径只取已发布的结果 */
+class FeedSitesTest {
+
+    @TempDir Path dir;
+
+    private WixStandIn wix;
+    private ProductFeedService primary;
+    private FeedSites sites;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        wix = new WixStandIn();
+        wix.putProduct("p1", 10.0, "2025-01-01T10:00:00.000Z");
+        wix.putProduct("p2", 20.0, "2025-01-01T10:00:00.000Z");
+        primary = new ProductFeedService("test", wix.client(), dir.resolve("export"), dir.resolve("snapshot.ndjson.gz"));
+        sites = new FeedSites(primary, wix.client(), "", 1, 15, 60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sites.shutdown();
+        primary.shutdown();
+        wix.close();
+    }
+
+    @Test
+    void mergedViewIsRebuiltWhenASitePublishes() throws Exception {
+        FeedSnapshot initial = sites.mergedSnapshot();
+        assertThat(initial.getProducts()).isEmpty();
+        assertThat(sites.mergedSnapshot()).isSameAs(initial);
+
+        primary.refreshFeed();
+        FeedSnapshot merged = awaitMerged(initial);
+        assertThat(merged.getProducts()).extracting(FeedItem::getId).containsExactly("p1", "p2");
+        assertThat(sites.mergedSnapshot()).isSameAs(merged);
+
+        Thread.sleep(100);                            // 没有新发布：读到的一直是同一份
+        assertThat(sites.mergedSnapshot()).isSameAs(merged);
+
+        wix.putProduct("p2", 25.0, "2025-01-02T10:00:00.000Z");
+        primary.refreshProducts(List.of("p2"));
+        FeedSnapshot next = awaitMerged(merged);
+        assertThat(next.getVersion()).isGreaterThan(merged.getVersion());
+        assertThat(next.findPrice("p2").unitCents).isEqualTo(2500);
+    }
+
+    private FeedSnapshot awaitMerged(FeedSnapshot previous) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sites.mergedSnapshot() == previous && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        return sites.mergedSnapshot();
+    }
+}
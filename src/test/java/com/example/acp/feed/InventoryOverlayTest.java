@@ -0,0 +1,130 @@
+package com.example.acp.feed;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 实时库存覆盖层：查价即时生效、节流的只换库存发布、轮询与重映射校准，对着本地 Wix 替身跑 */
+class InventoryOverlayTest {
+
+    private static final String DEFAULT_VARIANT = "00000000-0000-0000-0000-000000000000";
+
+    @TempDir Path dir;
+
+    private WixStandIn wix;
+    private ProductFeedService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        wix = new WixStandIn();
+        wix.putProduct("p1", 10.0, "2025-01-01T10:00:00.000Z");
+        wix.putProduct("p2", 20.0, "2025-01-01T10:00:00.000Z");
+        wix.putProduct("p3", 30.0, "2025-01-01T10:00:00.000Z");
+        service = new ProductFeedService("test", wix.client(), dir.resolve("export"), dir.resolve("snapshot.ndjson.gz"));
+        service.refreshFeed();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+        wix.close();
+    }
+
+    @Test
+    void decrementIsVisibleAtOnceAndPublishIsThrottled() throws Exception {
+        long v0 = service.getSnapshot().getVersion();
+        assertThat(service.decrementStock("p1", 2).inventoryQuantity).isEqualTo(997);
+        // 第一次变化马上发布
+        waitForVersionAbove(v0);
+        long v1 = service.getSnapshot().getVersion();
+        assertThat(service.getSnapshot().findPrice("p1").inventoryQuantity).isEqualTo(997);
+
+        // 间隔内的后续扣减：查价立即可见，快照不重发
+        assertThat(service.decrementStock("p2", 1).inventoryQuantity).isEqualTo(998);
+        Thread.sleep(300);
+        assertThat(service.getSnapshot().getVersion()).isEqualTo(v1);
+        assertThat(service.findPrice("p2").inventoryQuantity).isEqualTo(998);
+    }
+
+    @Test
+    void restockPublishReusesUnchangedRowsAndSkipsExportAndDiskSave() throws Exception {
+        FeedSnapshot before = service.getSnapshot();
+        Path snapshotFile = dir.resolve("snapshot.ndjson.gz");
+        FileTime savedAt = Files.getLastModifiedTime(snapshotFile);
+        Path export = before.getExportFile(FeedExporter.Format.NDJSON);
+
+        ReflectionTestUtils.setField(service, "lastOverlayPublish", System.currentTimeMillis());   // 挡住自动发布
+        service.decrementStock("p2", 3);
+        service.publishOverlay();
+
+        FeedSnapshot after = service.getSnapshot();
+        assertThat(after.getVersion()).isGreaterThan(before.getVersion());
+        assertThat(after.getProducts().get(0)).isSameAs(before.getProducts().get(0));
+        assertThat(after.getProducts().get(1)).isNotSameAs(before.getProducts().get(1));
+        assertThat(after.getProducts().get(2)).isSameAs(before.getProducts().get(2));
+        assertThat(new String(after.getJson(), StandardCharsets.UTF_8)).contains("\"inventory_quantity\":996");
+        assertThat(after.rowHash(0)).isEqualTo(before.rowHash(0));
+        assertThat(after.rowHash(1)).isNotEqualTo(before.rowHash(1));
+        assertThat(after.getExportFile(FeedExporter.Format.NDJSON)).isEqualTo(export);
+        assertThat(Files.getLastModifiedTime(snapshotFile)).isEqualTo(savedAt);
+        assertThat(service.changesSince(before.getVersion()).changes).hasSize(1);
+
+        // 没有可见变化时不发布
+        service.publishOverlay();
+        assertThat(service.getSnapshot().getVersion()).isEqualTo(after.getVersion());
+    }
+
+    @Test
+    void pollAppliesWixStockAndResetsRowsWithoutInventoryData() throws Exception {
+        ReflectionTestUtils.setField(service, "lastOverlayPublish", System.currentTimeMillis());
+        service.decrementStock("p1", 1);   // p1 在 Wix 没有库存条目
+        assertThat(service.findPrice("p1").inventoryQuantity).isEqualTo(998);
+        wix.inventoryItems.add(Map.of("productId", "p2", "trackQuantity", true,
+                "variants", List.of(Map.of("variantId", DEFAULT_VARIANT, "inStock", true, "quantity", 5))));
+        Thread.sleep(5);
+
+        service.refreshInventory();
+
+        assertThat(service.findPrice("p1").inventoryQuantity).isEqualTo(999);
+        assertThat(service.findPrice("p2").inventoryQuantity).isEqualTo(5);
+        assertThat(overlay().size()).isEqualTo(1);
+    }
+
+    @Test
+    void remapClearsOlderEntriesAndRemovedRowsAreDropped() throws Exception {
+        ReflectionTestUtils.setField(service, "lastOverlayPublish", System.currentTimeMillis());
+        service.decrementStock("p1", 1);
+        service.decrementStock("p3", 1);
+        assertThat(overlay().size()).isEqualTo(2);
+        Thread.sleep(5);
+
+        wix.putProduct("p1", 10.0, "2025-01-02T10:00:00.000Z");
+        service.refreshFeed();
+        assertThat(service.findPrice("p1").inventoryQuantity).isEqualTo(999);
+        assertThat(overlay().get("p1")).isNull();
+
+        wix.products.remove("p3");
+        service.refreshProducts(List.of("p3"));
+        assertThat(overlay().size()).isZero();
+    }
+
+    private InventoryOverlay overlay() {
+        return (InventoryOverlay) ReflectionTestUtils.getField(service, "overlay");
+    }
+
+    private void waitForVersionAbove(long version) throws InterruptedException {
+        for (int i = 0; i < 200 && service.getSnapshot().getVersion() <= version; i++) Thread.sleep(10);
+        assertThat(service.getSnapshot().getVersion()).isGreaterThan(version);
+    }
+}
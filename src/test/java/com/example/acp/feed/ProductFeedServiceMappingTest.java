@@ -0,0 +1,108 @@
+package com.example.acp.feed;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/** 同一天内同一商品映射两次，行（含日期与兜底 id）逐字节相同；日期从映射当天起算，不随商品更新时间倒退 */
+class ProductFeedServiceMappingTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir Path dir;
+
+    private WixStandIn wix;
+    private ProductFeedService service;
+    private final CategoryMatcher matcher = CategoryMatcher.compile("", "Apparel & Accessories");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        wix = new WixStandIn();
+        service = new ProductFeedService("test", wix.client(), dir.resolve("export"), dir.resolve("snapshot.ndjson.gz"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+        wix.close();
+    }
+
+    @Test
+    void saleAndPreorderDatesStartFromTheRefreshDay() throws Exception {
+        // 很久以前改过的商品：促销期与预售日仍从今天起算 7 天，不会落在过去
+        Map<String, Object> json = product("p1", "2020-01-01T10:00:00.000Z");
+        json.put("stock", Map.of("trackInventory", false, "inStock", true, "inventoryStatus", "PREORDER"));
+
+        LocalDate day = LocalDate.now(ZoneOffset.UTC);
+        String first = map(json, null);
+        Thread.sleep(5);
+        String second = map(json, null);
+        assumeTrue(day.equals(LocalDate.now(ZoneOffset.UTC)), "crossed midnight UTC");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(first)
+                .contains(day + "T00:00:00Z/" + day.plusDays(7) + "T00:00:00Z")
+                .contains("\"availability_date\":\"" + day.plusDays(7) + "T00:00:00Z\"");
+    }
+
+    @Test
+    void productWithoutIdOrDatesGetsStableIds() throws Exception {
+        Map<String, Object> json = withSizes(product(null, null));
+        List<WixVariant> variants = List.of(variant("Small"), variant("Large"));
+
+        String first = map(json, variants);
+        assertThat(map(json, variants)).isEqualTo(first);
+        assertThat(first).contains("-v-0").contains("-v-1").contains("sale_price_effective_date");
+
+        Map<String, Object> other = withSizes(product(null, null));
+        other.put("name", "Another");
+        assertThat(map(other, variants)).isNotEqualTo(first);
+    }
+
+    /** 开启变体管理、带 Size 选项的商品 */
+    private static Map<String, Object> withSizes(Map<String, Object> p) {
+        p.put("manageVariants", true);
+        p.put("productOptions", List.of(Map.of("name", "Size", "choices", List.of(
+                Map.of("value", "Small"), Map.of("value", "Large")))));
+        return p;
+    }
+
+    private String map(Map<String, Object> json, List<WixVariant> variants) throws Exception {
+        List<FeedItem> rows = new ArrayList<>();
+        service.mapProduct(MAPPER.convertValue(json, WixProduct.class), variants, matcher, rows);
+        assertThat(rows).isNotEmpty();
+        return MAPPER.writeValueAsString(rows);
+    }
+
+    private static Map<String, Object> product(String id, String lastUpdated) {
+        Map<String, Object> p = new LinkedHashMap<>();
+        if (id != null) p.put("id", id);
+        p.put("name", "Product");
+        p.put("slug", "product");
+        p.put("visible", true);
+        p.put("productType", "physical");
+        p.put("lastUpdated", lastUpdated);
+        p.put("stock", Map.of("trackInventory", false, "inStock", true, "inventoryStatus", "IN_STOCK"));
+        p.put("priceData", Map.of("currency", "USD", "price", 20.0, "discountedPrice", 15.0));
+        return p;
+    }
+
+    /** 既没有 id 也没有 sku 的变体（只能按下标编号） */
+    private static WixVariant variant(String size) {
+        return MAPPER.convertValue(Map.of("choices", List.of(List.of("Size", size)),
+                "priceData", Map.of("currency", "USD", "price", 20.0)), WixVariant.class);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.acp.feed;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 单品定向刷新（写时复制发布）与类目规则热更新，对着本地 Wix 替身跑 */
+class ProductFeedServicePatchTest {
+
+    @TempDir Path dir;
+
+    private WixStandIn wix;
+    private ProductFeedService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        wix = new WixStandIn();
+        wix.putProduct("p1", 10.0, "2025-01-01T10:00:00.000Z");
+        wix.putProduct("p2", 20.0, "2025-01-01T10:00:00.000Z");
+        wix.putProduct("p3", 30.0, "2025-01-01T10:00:00.000Z");
+        service = new ProductFeedService("test", wix.client(), dir.resolve("export"), dir.resolve("snapshot.ndjson.gz"));
+        service.refreshFeed();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+        wix.close();
+    }
+
+    @Test
+    void patchReplacesOnlyTheChangedProductCopyOnWrite() {
+        FeedSnapshot before = service.getSnapshot();
+        assertThat(before.getProducts()).hasSize(3);
+        assertThat(before.findPrice("p2").unitCents).isEqualTo(2000);
+
+        wix.putProduct("p2", 25.0, "2025-01-02T10:00:00.000Z");
+        List<Map<String, Object>> results = service.refreshProducts(List.of("p2"));
+
+        assertThat(results).singleElement().satisfies(r -> assertThat(r.get("status")).isEqualTo("updated"));
+        FeedSnapshot after = service.getSnapshot();
+        assertThat(after.getVersion()).isGreaterThan(before.getVersion());
+        assertThat(after.findPrice("p2").unitCents).isEqualTo(2500);
+        // 旧快照不动；未变化的商品行原样复用
+        assertThat(before.findPrice("p2").unitCents).isEqualTo(2000);
+        assertThat(after.getProducts().get(0)).isSameAs(before.getProducts().get(0));
+        assertThat(after.getProducts().get(2)).isSameAs(before.getProducts().get(2));
+        assertThat(wix.calls("products/query")).isEqualTo(1);
+    }
+
+    @Test
+    void deletedProductIsRemovedAndUnknownProductIsNotFound() {
+        wix.products.remove("p3");
+        assertThat(service.refreshProducts(List.of("p3"))).singleElement()
+                .satisfies(r -> assertThat(r.get("status")).isEqualTo("removed"));
+        assertThat(service.getSnapshot().getProducts()).extracting(FeedItem::getId).containsExactly("p1", "p2");
+
+        long version = service.getSnapshot().getVersion();
+        assertThat(service.refreshProducts(List.of("nope"))).singleElement()
+                .satisfies(r -> assertThat(r.get("status")).isEqualTo("not_found"));
+        assertThat(service.getSnapshot().getVersion()).isEqualTo(version);
+    }
+
+    @Test
+    void rulesReloadDuringRefreshIsNotOverwrittenByOldCache() throws Exception {
+        assertThat(service.getSnapshot().findPrice("p1").productCategory).isEqualTo("Apparel & Accessories");
+
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        wix.onProductsQuery = () -> {
+            entered.countDown();
+            try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
+        };
+        // 全量刷新按旧规则开始，拉商品时被卡住；此时热更新规则
+        Thread refresh = new Thread(service::refreshFeed);
+        refresh.start();
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        service.reloadCategoryRules("product=>Home & Garden", null);
+        release.countDown();
+        refresh.join(5000);
+        wix.onProductsQuery = null;
+
+        // 这一轮按旧规则映射的行不能进缓存：下一轮必须按新规则重映射
+        service.refreshFeed();
+        assertThat(service.getSnapshot().findPrice("p1").productCategory).isEqualTo("Home & Garden");
+    }
+}
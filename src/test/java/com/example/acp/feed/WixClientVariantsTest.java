@@ -0,0 +1,90 @@
+package com.example.acp.feed;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 批量变体查询与“接口不支持”时的降级，对着本地 Wix 替身跑 */
+class WixClientVariantsTest {
+
+    @TempDir Path dir;
+
+    private WixStandIn wix;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        wix = new WixStandIn();
+        for (int i = 1; i <= 4; i++) wix.putVariantProduct("p" + i, 10.0 * i, "2025-01-01T10:00:00.000Z");
+    }
+
+    @AfterEach
+    void tearDown() {
+        wix.close();
+    }
+
+    @Test
+    void bulkQuerySplitsVariantsBackPerProduct() {
+        WixClient client = wix.client();
+
+        Map<String, List<WixVariant>> byProduct = client.queryVariantsBulk(List.of("p1", "p2", "missing"));
+
+        assertThat(wix.calls("variants/bulk")).isEqualTo(1);
+        assertThat(byProduct.get("p1")).extracting(WixVariant::getId).containsExactly("p1-v-small", "p1-v-large");
+        assertThat(byProduct.get("p2")).hasSize(2);
+        assertThat(byProduct.get("missing")).isEmpty();
+        assertThat(client.supportsBulkVariants()).isTrue();
+    }
+
+    @Test
+    void perProductQueryPagesThroughAllVariants() {
+        List<Map<String, Object>> many = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            many.add(Map.of("id", "v" + i, "choices", Map.of("Size", "S" + i),
+                    "variant", Map.of("priceData", Map.of("currency", "USD", "price", 10.0))));
+        }
+        wix.variants.put("big", many);
+        WixClient client = wix.client();
+
+        List<WixVariant> variants = client.queryVariants("big");
+
+        assertThat(variants).hasSize(250);
+        assertThat(variants.get(249).getId()).isEqualTo("v249");
+        assertThat(wix.calls("variants/product")).isEqualTo(3);     // 100 + 100 + 50
+    }
+
+    @Test
+    void unsupportedBulkEndpointIsTriedOnceThenSkipped() {
+        wix.bulkVariantsStatus = 404;
+        WixClient client = wix.client();
+        ReflectionTestUtils.setField(client, "variantBatchSize", 2);   // 4 个商品 = 每轮 2 批
+        ProductFeedService service = new ProductFeedService("test", client, dir.resolve("export"), dir.resolve("snap.gz"));
+        try {
+            service.refreshFeed();
+            // 第一批（或并发的两批）撞上 404 后置位；之后只走单商品接口
+            int bulkAfterFirst = wix.calls("variants/bulk");
+            assertThat(bulkAfterFirst).isBetween(1, 2);
+            assertThat(client.supportsBulkVariants()).isFalse();
+            assertThat(service.getSnapshot().getProducts()).hasSize(8);
+
+            // 行缓存过期前指纹没变的商品不重拉；换 lastUpdated 强制全部重映射
+            for (int i = 1; i <= 4; i++) wix.putVariantProduct("p" + i, 10.0 * i, "2025-01-02T10:00:00.000Z");
+            int perProductBefore = wix.calls("variants/product");
+            service.refreshFeed();
+
+            assertThat(wix.calls("variants/bulk")).isEqualTo(bulkAfterFirst);
+            assertThat(wix.calls("variants/product") - perProductBefore).isEqualTo(4);
+            assertThat(service.getSnapshot().getProducts()).hasSize(8);
+        } finally {
+            service.shutdown();
+        }
+    }
+}
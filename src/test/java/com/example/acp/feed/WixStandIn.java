@@ -0,0 +1,172 @@
+package com.example.acp.feed;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的本地 Wix 替身（JDK HttpServer）：按真实路径应答商品查询、单品读取、变体查询与库存查询，
+ * 商品以 JSON Map 形式保存，测试里可以随时改；每个路径的调用次数记在 calls 里。
+ */
+final class WixStandIn implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    final Map<String, Map<String, Object>> products = Collections.synchronizedMap(new LinkedHashMap<>());
+    final Map<String, List<Map<String, Object>>> variants = new ConcurrentHashMap<>();
+    final List<Map<String, Object>> inventoryItems = Collections.synchronizedList(new ArrayList<>());
+    final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    /** 批量变体接口的应答状态（非 200 时模拟接口不可用） */
+    volatile int bulkVariantsStatus = 200;
+    /** 商品查询应答前执行（测试用来卡住一次全量刷新） */
+    volatile Runnable onProductsQuery;
+
+    private final HttpServer server;
+
+    WixStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** 指向本替身的真实 WixClient（RestTemplate 与生产相同的调用路径） */
+    WixClient client() {
+        WixClient c = new WixClient(new RestTemplate());
+        ReflectionTestUtils.setField(c, "apiBase", "http://127.0.0.1:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(c, "apiKey", "test-key");
+        ReflectionTestUtils.setField(c, "siteId", "test-site");
+        ReflectionTestUtils.setField(c, "productPageSize", 100);
+        ReflectionTestUtils.setField(c, "variantBatchSize", 100);
+        ReflectionTestUtils.setField(c, "variantPageSize", 100);
+        ReflectionTestUtils.setField(c, "variantBulkPath", "/stores/v1/variants/query");
+        return c;
+    }
+
+    /** 放入（或替换）一个普通单品 */
+    Map<String, Object> putProduct(String id, double price, String lastUpdated) {
+        Map<String, Object> p = new LinkedHashMap<>();
+        p.put("id", id);
+        p.put("name", "Product " + id);
+        p.put("slug", id);
+        p.put("visible", true);
+        p.put("productType", "physical");
+        p.put("weight", 0.5);
+        p.put("lastUpdated", lastUpdated);
+        p.put("stock", Map.of("trackInventory", false, "inStock", true, "inventoryStatus", "IN_STOCK"));
+        p.put("priceData", Map.of("currency", "USD", "price", price, "discountedPrice", price));
+        products.put(id, p);
+        return p;
+    }
+
+    /** 放入一个开启变体管理的商品（Size：Small / Large 两个真实变体） */
+    Map<String, Object> putVariantProduct(String id, double price, String lastUpdated) {
+        Map<String, Object> p = putProduct(id, price, lastUpdated);
+        p.put("manageVariants", true);
+        p.put("productOptions", List.of(Map.of("name", "Size", "choices", List.of(
+                Map.of("value", "Small", "description", "Small"), Map.of("value", "Large", "description", "Large")))));
+        List<Map<String, Object>> vs = new ArrayList<>();
+        for (String size : List.of("Small", "Large")) {
+            vs.add(Map.of("id", id + "-v-" + size.toLowerCase(Locale.ROOT), "choices", Map.of("Size", size),
+                    "variant", Map.of("sku", id + "-" + size, "priceData", Map.of("currency", "USD", "price", price))));
+        }
+        variants.put(id, vs);
+        return p;
+    }
+
+    int calls(String path) {
+        AtomicInteger n = calls.get(path);
+        return n == null ? 0 : n.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(HttpExchange ex) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        Map<String, Object> body = "POST".equals(ex.getRequestMethod())
+                ? MAPPER.readValue(ex.getRequestBody(), Map.class) : Map.of();
+        Map<String, Object> query = body.get("query") instanceof Map ? (Map<String, Object>) body.get("query") : Map.of();
+        Map<String, Object> paging = query.get("paging") instanceof Map ? (Map<String, Object>) query.get("paging") : Map.of();
+        int offset = paging.get("offset") instanceof Number ? ((Number) paging.get("offset")).intValue() : 0;
+        int limit = paging.get("limit") instanceof Number ? ((Number) paging.get("limit")).intValue() : 100;
+
+        try {
+            if (path.equals("/stores/v1/products/query")) {
+                count("products/query");
+                Runnable hook = onProductsQuery;
+                if (hook != null) hook.run();
+                List<Map<String, Object>> all;
+                synchronized (products) { all = new ArrayList<>(products.values()); }
+                reply(ex, 200, Map.of("products", slice(all, offset, limit), "totalResults", all.size()));
+            } else if (path.startsWith("/stores/v1/products/")) {
+                count("products/get");
+                Map<String, Object> p = products.get(path.substring("/stores/v1/products/".length()));
+                if (p == null) reply(ex, 404, Map.of("message", "not found"));
+                else reply(ex, 200, Map.of("product", p));
+            } else if (path.equals("/stores/v1/variants/query")) {
+                count("variants/bulk");
+                if (bulkVariantsStatus != 200) {
+                    reply(ex, bulkVariantsStatus, Map.of("message", "unsupported"));
+                    return;
+                }
+                Map<String, Object> filter = (Map<String, Object>) query.getOrDefault("filter", Map.of());
+                Map<String, Object> in = (Map<String, Object>) filter.getOrDefault("productId", Map.of());
+                List<Map<String, Object>> all = new ArrayList<>();
+                for (Object pid : (List<Object>) in.getOrDefault("$in", List.of())) {
+                    for (Map<String, Object> v : variants.getOrDefault(String.valueOf(pid), List.of())) {
+                        Map<String, Object> item = new LinkedHashMap<>(v);
+                        item.put("productId", pid);
+                        item.put("variantId", v.get("id"));
+                        item.put("id", pid + "-" + v.get("id"));
+                        all.add(item);
+                    }
+                }
+                reply(ex, 200, Map.of("variants", slice(all, offset, limit), "totalResults", all.size()));
+            } else if (path.startsWith("/stores-reader/v1/products/") && path.endsWith("/variants/query")) {
+                count("variants/product");
+                String pid = path.substring("/stores-reader/v1/products/".length(), path.length() - "/variants/query".length());
+                List<Map<String, Object>> all = variants.getOrDefault(pid, List.of());
+                reply(ex, 200, Map.of("variants", slice(all, offset, limit), "totalResults", all.size()));
+            } else if (path.equals("/stores/v2/inventoryItems/query")) {
+                count("inventory/query");
+                List<Map<String, Object>> all;
+                synchronized (inventoryItems) { all = new ArrayList<>(inventoryItems); }
+                reply(ex, 200, Map.of("inventoryItems", slice(all, offset, limit), "totalResults", all.size()));
+            } else {
+                reply(ex, 404, Map.of("message", "no route " + path));
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void count(String route) {
+        calls.computeIfAbsent(route, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static <T> List<T> slice(List<T> all, int offset, int limit) {
+        int from = Math.min(all.size(), Math.max(0, offset));
+        return all.subList(from, Math.min(all.size(), from + Math.max(1, limit)));
+    }
+
+    private static void reply(HttpExchange ex, int status, Object body) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
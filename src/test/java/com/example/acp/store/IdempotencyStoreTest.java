@@ -0,0 +1,41 @@
+package com.example.acp.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 占位 / commit / abort 与等待者的配合 */
+class IdempotencyStoreTest {
+
+    private final IdempotencyStore store = new IdempotencyStore(60_000, 5_000);
+
+    @Test
+    void abortReleasesKeyAndWakesWaitersWithNull() throws Exception {
+        IdempotencyStore.Attempt owner = store.tryBegin("k");
+        IdempotencyStore.Attempt duplicate = store.tryBegin("k");
+        assertThat(owner.isOwner()).isTrue();
+        assertThat(duplicate.isOwner()).isFalse();
+        CompletableFuture<Object> waiting = store.await(duplicate);
+
+        store.abort("k");
+
+        // 不用等满 5 秒的等待时限
+        assertThat(waiting.get(1, TimeUnit.SECONDS)).isNull();
+        assertThat(store.getIfReady("k")).isNull();
+        assertThat(store.tryBegin("k").isOwner()).isTrue();
+    }
+
+    @Test
+    void abortAfterCommitKeepsTheResponse() throws Exception {
+        IdempotencyStore.Attempt owner = store.tryBegin("k");
+        store.commit("k", "body");
+        store.abort("k");
+
+        assertThat(owner.result().get(1, TimeUnit.SECONDS)).isEqualTo("body");
+        assertThat(store.getIfReady("k")).isEqualTo("body");
+        assertThat(store.tryBegin("k").isOwner()).isFalse();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.acp.webhook;
+
+import com.example.acp.store.IdempotencyStore;
+import com.stripe.net.Webhook;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** 同一事件并发重复投递：等待者的状态码取决于首个处理是否 commit */
+class StripeWebhookControllerTest {
+
+    private static final String SECRET = "whsec_test";
+    private static final String PAYLOAD =
+            "{\"id\":\"evt_1\",\"object\":\"event\",\"type\":\"shared_payment.granted_token.used\",\"data\":{\"object\":{}}}";
+
+    private final IdempotencyStore store = new IdempotencyStore(60_000, 5_000);
+    private StripeWebhookController controller;
+
+    @BeforeEach
+    void setUp() {
+        controller = new StripeWebhookController(SECRET, 300);
+        ReflectionTestUtils.setField(controller, "idempotencyStore", store);
+    }
+
+    @Test
+    void waiterIsNotAckedWhenOwnerAborts() throws Exception {
+        store.tryBegin("evt:evt_1");     // 首个投递正在处理
+        CompletableFuture<?> waiting = (CompletableFuture<?>) deliver();
+
+        store.abort("evt:evt_1");        // 首个投递失败（5xx）
+
+        ResponseEntity<?> response = (ResponseEntity<?>) waiting.get(1, TimeUnit.SECONDS);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    void waiterIsAckedWhenOwnerCommits() throws Exception {
+        store.tryBegin("evt:evt_1");
+        CompletableFuture<?> waiting = (CompletableFuture<?>) deliver();
+
+        store.commit("evt:evt_1", Map.of("ok", true));
+
+        ResponseEntity<?> response = (ResponseEntity<?>) waiting.get(1, TimeUnit.SECONDS);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        // 已处理过的事件再投递直接回 ok
+        assertThat(((ResponseEntity<?>) deliver()).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    private Object deliver() throws Exception {
+        long t = System.currentTimeMillis() / 1000;
+        String signature = Webhook.Util.computeHmacSha256(SECRET, t + "." + PAYLOAD);
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/stripe/webhook");
+        request.setContent(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+        return controller.handle(request, "t=" + t + ",v1=" + signature);
+    }
+}
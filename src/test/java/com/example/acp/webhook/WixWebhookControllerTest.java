@@ -0,0 +1,116 @@
+package com.example.acp.webhook;
+
+import com.example.acp.feed.FeedSites;
+import com.example.acp.feed.ProductFeedService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Wix webhook：RS256 JWT 验签与多层嵌套 data 里的 productId 提取 */
+class WixWebhookControllerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<String> refreshed = new ArrayList<>();
+    private ProductFeedService primary;
+    private KeyPair keys;
+    private WixWebhookController controller;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(2048);
+        keys = gen.generateKeyPair();
+        String pem = "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.getMimeEncoder().encodeToString(keys.getPublic().getEncoded())
+                + "\n-----END PUBLIC KEY-----";
+
+        primary = new ProductFeedService(null);
+        FeedSites sites = new FeedSites(primary, null, "", 1, 15, 60_000) {
+            @Override
+            public void refreshProductAsync(String productId) {
+                refreshed.add(productId);
+            }
+        };
+        controller = new WixWebhookController(sites, pem);
+    }
+
+    @AfterEach
+    void tearDown() {
+        primary.shutdown();
+    }
+
+    @Test
+    void validTokenWithNestedDataRefreshesProduct() throws Exception {
+        // Wix 的格式：data 是 JSON 字符串，里面的 data 又是一层 JSON 字符串
+        String inner = MAPPER.writeValueAsString(Map.of(
+                "entityFqdn", "wix.stores.catalog.v1.product", "entityId", "prod-1",
+                "actionEvent", Map.of("body", Map.of("productId", "prod-2"))));
+        String data = MAPPER.writeValueAsString(Map.of("eventType", "ProductChanged", "data", inner));
+        String jwt = sign(keys.getPrivate(), Map.of("data", data));
+
+        ResponseEntity<String> resp = controller.handle(jwt);
+
+        assertThat(resp.getStatusCode().value()).isEqualTo(200);
+        assertThat(resp.getBody()).isEqualTo("ok");
+        assertThat(refreshed).containsExactlyInAnyOrder("prod-1", "prod-2");
+    }
+
+    @Test
+    void tokenSignedWithAnotherKeyIsRejected() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(2048);
+        String jwt = sign(gen.generateKeyPair().getPrivate(), Map.of("data", "{\"productId\":\"prod-1\"}"));
+
+        ResponseEntity<String> resp = controller.handle(jwt);
+
+        assertThat(resp.getStatusCode().value()).isEqualTo(401);
+        assertThat(refreshed).isEmpty();
+    }
+
+    @Test
+    void tamperedPayloadIsRejected() throws Exception {
+        String jwt = sign(keys.getPrivate(), Map.of("data", "{\"productId\":\"prod-1\"}"));
+        String[] parts = jwt.split("\\.");
+        String forged = b64(MAPPER.writeValueAsBytes(Map.of("data", "{\"productId\":\"prod-9\"}")));
+
+        ResponseEntity<String> resp = controller.handle(parts[0] + "." + forged + "." + parts[2]);
+
+        assertThat(resp.getStatusCode().value()).isEqualTo(401);
+        assertThat(refreshed).isEmpty();
+    }
+
+    @Test
+    void eventWithoutProductIsIgnored() throws Exception {
+        String jwt = sign(keys.getPrivate(), Map.of("data", "{\"orderId\":\"o-1\"}"));
+
+        ResponseEntity<String> resp = controller.handle(jwt);
+
+        assertThat(resp.getBody()).isEqualTo("ignored");
+        assertThat(refreshed).isEmpty();
+    }
+
+    private static String sign(PrivateKey key, Map<String, Object> payload) throws Exception {
+        String signingInput = b64(MAPPER.writeValueAsBytes(Map.of("alg", "RS256", "typ", "JWT")))
+                + "." + b64(MAPPER.writeValueAsBytes(payload));
+        Signature sig = Signature.getInstance("SHA256withRSA");
+        sig.initSign(key);
+        sig.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+        return signingInput + "." + b64(sig.sign());
+    }
+
+    private static String b64(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}